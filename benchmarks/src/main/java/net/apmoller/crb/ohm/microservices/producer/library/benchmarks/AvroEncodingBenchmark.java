@@ -0,0 +1,65 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import net.apmoller.crb.ohm.microservices.producer.library.compression.CustomSerializer;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.ohm.adapter.avro.model.EventNotificationsAdapterModel;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CustomSerializer writing EventNotificationsAdapterModel as a container file per message versus single object
+ * encoding, with and without a payload codec. The serialized size is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AvroEncodingBenchmark {
+
+    @Param({ "container", "single-object" })
+    private String avroEncoding;
+
+    @Param({ "legacy", "zstd:3" })
+    private String codec;
+
+    @Param({ "256", "65536" })
+    private int payloadSize;
+
+    private CustomSerializer customSerializer;
+
+    private Headers headers;
+
+    private EventNotificationsAdapterModel payload;
+
+    @Setup
+    public void setup() {
+        customSerializer = new CustomSerializer();
+        customSerializer.configureCodecs(Map.of(ConfigConstants.SERIALIZER_CODEC_CONFIG, codec));
+        customSerializer.configureAvroEncoding(Map.of(ConfigConstants.SERIALIZER_AVRO_ENCODING_CONFIG, avroEncoding));
+        headers = new RecordHeaders();
+        payload = SamplePayloads.avroPayload(payloadSize);
+        System.out.printf("%n%s %s payload: %d chars, serialized: %d bytes%n", avroEncoding, codec,
+                payload.getResponse().length(), serialize().length);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return customSerializer.serialize(ProducerLibraryHarness.TARGET_TOPIC, headers, payload);
+    }
+}
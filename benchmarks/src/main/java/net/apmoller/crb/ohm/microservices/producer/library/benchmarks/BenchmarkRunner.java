@@ -0,0 +1,24 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler attached, so every result reports allocation rate next to throughput and
+ * latency percentiles. Accepts the usual JMH command line options, e.g. a benchmark name regex.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+        // Private constructor
+    }
+
+    public static void main(String... args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build())
+                .run();
+    }
+}
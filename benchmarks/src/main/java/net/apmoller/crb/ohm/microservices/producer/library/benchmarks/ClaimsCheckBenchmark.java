@@ -0,0 +1,99 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import net.apmoller.crb.ohm.microservices.producer.library.services.ClaimsCheckService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Full claims check path, payload stored and the claims check record published, with the in-memory store and the
+ * local file store, written through a FileChannel or memory-mapped, and with content hash naming for duplicates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ClaimsCheckBenchmark {
+
+    @Param({ "memory", "local", "local-mapped" })
+    private String store;
+
+    @Param({ "1048576", "8388608" })
+    private int payloadSize;
+
+    @Param({ "java", "schema" })
+    private String payloadFormat;
+
+    // with content-hash naming every call after the first is a duplicate served from the index
+    @Param({ "random", "content-hash" })
+    private String naming;
+
+    private Path directory;
+
+    private ProducerLibraryHarness harness;
+
+    private ClaimsCheckService<Object> claimsCheckService;
+
+    private Object payload;
+
+    private Map<String, String> topics;
+
+    private Map<String, Object> kafkaHeader;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("claims-check-benchmark");
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("claims-check.store", store.startsWith("local") ? "local" : store);
+        properties.put("claims-check.store.local.directory", directory.toString());
+        properties.put("claims-check.store.local.memory-mapped", "local-mapped".equals(store));
+        properties.put("claims-check.payload.format", payloadFormat);
+        properties.put("claims-check.naming", naming);
+        harness = new ProducerLibraryHarness(properties);
+        claimsCheckService = harness.claimsCheckService();
+        payload = SamplePayloads.avroPayload(payloadSize);
+        topics = SamplePayloads.claimsCheckTopics();
+        kafkaHeader = SamplePayloads.headers();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        harness.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> handleClaimsCheck() {
+        claimsCheckService.handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topics, payload);
+        return topics;
+    }
+}
@@ -0,0 +1,81 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import net.apmoller.crb.ohm.microservices.producer.library.compression.ClaimsCheckFormat;
+import net.apmoller.crb.ohm.microservices.producer.library.compression.PayloadCodec;
+import net.apmoller.crb.ohm.microservices.producer.library.util.CompressionUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CompressionUtil.compress (deflate, string payloads) and gzipCompress (claims check payloads), into a byte array
+ * and streamed as for the claims check upload, and the schema aware claims check format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CompressionUtilBenchmark {
+
+    @Param({ "1024", "65536", "1048576" })
+    private int payloadSize;
+
+    private String stringPayload;
+
+    private Object avroPayload;
+
+    @Setup
+    public void setup() {
+        stringPayload = SamplePayloads.jsonPayload(payloadSize);
+        avroPayload = SamplePayloads.avroPayload(payloadSize);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        return CompressionUtil.compress(stringPayload);
+    }
+
+    @Benchmark
+    public byte[] gzipCompressString() throws IOException {
+        return CompressionUtil.gzipCompress(stringPayload);
+    }
+
+    @Benchmark
+    public byte[] gzipCompressAvro() throws IOException {
+        return CompressionUtil.gzipCompress(avroPayload);
+    }
+
+    @Benchmark
+    public void gzipCompressAvroStreaming() throws IOException {
+        CompressionUtil.gzipCompress(avroPayload, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void claimsCheckAvroGzip() throws IOException {
+        CompressionUtil.compress(avroPayload, ClaimsCheckFormat.AVRO, PayloadCodec.GZIP, 0, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void claimsCheckAvroZstd() throws IOException {
+        CompressionUtil.compress(avroPayload, ClaimsCheckFormat.AVRO, PayloadCodec.ZSTD, 3, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void claimsCheckStringZstd() throws IOException {
+        CompressionUtil.compress(stringPayload, ClaimsCheckFormat.UTF8, PayloadCodec.ZSTD, 3, OutputStream.nullOutputStream());
+    }
+}
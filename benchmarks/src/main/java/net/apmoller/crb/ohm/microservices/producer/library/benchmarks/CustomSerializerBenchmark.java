@@ -0,0 +1,59 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import net.apmoller.crb.ohm.microservices.producer.library.compression.CustomSerializer;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CustomSerializer.serialize for string and Avro payloads of different sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CustomSerializerBenchmark {
+
+    @Param({ "1024", "65536" })
+    private int payloadSize;
+
+    private CustomSerializer customSerializer;
+
+    private Headers headers;
+
+    private String stringPayload;
+
+    private Object avroPayload;
+
+    @Setup
+    public void setup() {
+        customSerializer = new CustomSerializer();
+        headers = new RecordHeaders();
+        stringPayload = SamplePayloads.jsonPayload(payloadSize);
+        avroPayload = SamplePayloads.avroPayload(payloadSize);
+    }
+
+    @Benchmark
+    public byte[] serializeString() {
+        return customSerializer.serialize(ProducerLibraryHarness.TARGET_TOPIC, headers, stringPayload);
+    }
+
+    @Benchmark
+    public byte[] serializeAvro() {
+        return customSerializer.serialize(ProducerLibraryHarness.TARGET_TOPIC, headers, avroPayload);
+    }
+}
@@ -0,0 +1,62 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import net.apmoller.crb.ohm.microservices.producer.library.compression.CustomSerializer;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CustomSerializer with each payload codec on the TestPayload XML-in-JSON document, as a string and inside an
+ * EventNotificationsAdapterModel. The serialized size of every combination is printed during setup so the codecs can
+ * be compared on ratio as well as speed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PayloadCodecBenchmark {
+
+    @Param({ "legacy", "none", "deflate", "gzip", "snappy", "lz4", "zstd:1", "zstd:3", "zstd:9" })
+    private String codec;
+
+    @Param({ "string", "avro" })
+    private String payloadType;
+
+    private CustomSerializer customSerializer;
+
+    private Headers headers;
+
+    private Object payload;
+
+    @Setup
+    public void setup() {
+        customSerializer = new CustomSerializer();
+        customSerializer.configureCodecs(Map.of(ConfigConstants.SERIALIZER_CODEC_CONFIG, codec));
+        headers = new RecordHeaders();
+        String testPayload = SamplePayloads.testPayload();
+        payload = "avro".equals(payloadType) ? SamplePayloads.avroPayload(testPayload) : testPayload;
+        System.out.printf("%n%s %s payload: %d chars, serialized: %d bytes%n", codec, payloadType,
+                testPayload.length(), serialize().length);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return customSerializer.serialize(ProducerLibraryHarness.TARGET_TOPIC, headers, payload);
+    }
+}
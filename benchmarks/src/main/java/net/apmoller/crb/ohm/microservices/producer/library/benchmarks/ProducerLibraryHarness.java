@@ -0,0 +1,147 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.compression.CustomSerializer;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.services.ClaimsCheckService;
+import net.apmoller.crb.ohm.microservices.producer.library.services.ClaimsCheckServiceImpl;
+import net.apmoller.crb.ohm.microservices.producer.library.services.ConfigValidator;
+import net.apmoller.crb.ohm.microservices.producer.library.services.KafkaProducerService;
+import net.apmoller.crb.ohm.microservices.producer.library.services.KafkaProducerServiceImpl;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.ClaimsCheckDedupIndex;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.InMemoryClaimsCheckStore;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.LocalFileClaimsCheckStore;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.PublishSpool;
+import net.apmoller.crb.ohm.microservices.producer.library.util.AdaptiveBatchingSelector;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ClassValueTemplateRouter;
+import net.apmoller.crb.ohm.microservices.producer.library.util.HeaderEncoder;
+import net.apmoller.crb.ohm.microservices.producer.library.util.InFlightLimiter;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ProducerPool;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ProducerProfiles;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
+import net.apmoller.crb.ohm.microservices.producer.library.util.SpoolDrainer;
+import net.apmoller.crb.ohm.microservices.producer.library.util.TopicCircuitBreaker;
+import net.apmoller.crb.ohm.microservices.producer.library.util.TransactionalBatcher;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spring context wiring the real publish path of the library on top of MockProducers, so benchmarks measure the
+ * library code without a broker.
+ */
+public class ProducerLibraryHarness implements AutoCloseable {
+
+    public static final String TARGET_TOPIC = "benchmark-topic";
+    public static final String DLT_TOPIC = "benchmark-dlt";
+    public static final String CLAIMS_CHECK_TOPIC = "benchmark-claims-check";
+
+    /** Sends through transactional templates and the TransactionalBatcher when true. */
+    public static final String TRANSACTIONS_ENABLED = "kafka.producer.transactions.enabled";
+
+    /** Time each commit of the transactional templates takes, in microseconds. */
+    public static final String COMMIT_LATENCY_US = "benchmark.commit-latency-us";
+
+    private final AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+
+    public ProducerLibraryHarness() {
+        this(new HashMap<>());
+    }
+
+    /**
+     * @param properties - extra properties, overriding the harness defaults
+     */
+    public ProducerLibraryHarness(Map<String, Object> properties) {
+        Map<String, Object> environment = new HashMap<>();
+        environment.put("kafka.bootstrapserver", "mock:9092");
+        environment.put("kafka.notification.topic", TARGET_TOPIC);
+        environment.put("kafka.notification.dead-letter-topic", DLT_TOPIC);
+        environment.put("events-payload.file-name", "benchmark_");
+        environment.put(ConfigConstants.CLAIMS_CHECK_STORE, "memory");
+        environment.put("claims-check.store.memory.max-entries", 16);
+        environment.putAll(properties);
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", environment));
+
+        ReusableMockProducer<String, Object> avroProducer = new ReusableMockProducer<>(new StringSerializer(),
+                new CustomSerializer());
+        ReusableMockProducer<String, Object> jsonProducer = new ReusableMockProducer<>(new StringSerializer(),
+                new ObjectStringSerializer());
+        KafkaTemplate<String, Object> avroTemplate;
+        KafkaTemplate<String, Object> jsonTemplate;
+        if (Boolean.parseBoolean(String.valueOf(environment.get(TRANSACTIONS_ENABLED)))) {
+            Duration commitLatency = Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(
+                    Long.parseLong(String.valueOf(environment.getOrDefault(COMMIT_LATENCY_US, 0)))));
+            avroProducer.setCommitLatency(commitLatency);
+            jsonProducer.setCommitLatency(commitLatency);
+            avroTemplate = new KafkaTemplate<>(new TransactionalMockProducerFactory<>(avroProducer, "benchmark-avro-"));
+            jsonTemplate = new KafkaTemplate<>(new TransactionalMockProducerFactory<>(jsonProducer, "benchmark-json-"));
+        } else {
+            avroTemplate = new KafkaTemplate<>(() -> avroProducer);
+            jsonTemplate = new KafkaTemplate<>(() -> jsonProducer);
+        }
+        context.registerBean("kafkaTemplateAvro", KafkaTemplate.class, () -> avroTemplate);
+        context.registerBean("kafkaTemplateJson", KafkaTemplate.class, () -> jsonTemplate);
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        // the claims check store is chosen by claims-check.store, memory or local, Azure is not registered
+        context.register(InMemoryClaimsCheckStore.class, LocalFileClaimsCheckStore.class, ClaimsCheckDedupIndex.class);
+        context.register(ConfigValidator.class, ClassValueTemplateRouter.class, HeaderEncoder.class,
+                PayloadSizeEstimator.class, PublishExecutor.class, ProducerProfiles.class,
+                AdaptiveBatchingSelector.class, ProducerPool.class, TransactionalBatcher.class, InFlightLimiter.class,
+                TopicCircuitBreaker.class, RetryBudget.class, PublishSpool.class, MessagePublisherUtil.class,
+                SpoolDrainer.class, ClaimsCheckServiceImpl.class, KafkaProducerServiceImpl.class);
+        context.refresh();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> KafkaProducerService<T> kafkaProducerService() {
+        return context.getBean(KafkaProducerService.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> MessagePublisherUtil<T> messagePublisherUtil() {
+        return context.getBean(MessagePublisherUtil.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> ConfigValidator<T> configValidator() {
+        return context.getBean(ConfigValidator.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> ClaimsCheckService<T> claimsCheckService() {
+        return context.getBean(ClaimsCheckService.class);
+    }
+
+    public HeaderEncoder headerEncoder() {
+        return context.getBean(HeaderEncoder.class);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+
+    /**
+     * StringSerializer typed for the Object valued json template.
+     */
+    private static class ObjectStringSerializer implements Serializer<Object> {
+
+        private final StringSerializer delegate = new StringSerializer();
+
+        @Override
+        public byte[] serialize(String topic, Object data) {
+            return delegate.serialize(topic, (String) data);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import net.apmoller.crb.ohm.microservices.producer.library.services.ConfigValidator;
+import net.apmoller.crb.ohm.microservices.producer.library.services.KafkaProducerService;
+import net.apmoller.crb.ohm.microservices.producer.library.util.HeaderEncoder;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps of the publish path: header conversion, input validation and a full KafkaProducerServiceImpl.produceMessages
+ * call against MockProducers which ack immediately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PublishPathBenchmark {
+
+    @Param({ "string", "avro" })
+    private String payloadType;
+
+    @Param({ "1024" })
+    private int payloadSize;
+
+    private ProducerLibraryHarness harness;
+
+    private KafkaProducerService<Object> kafkaProducerService;
+
+    private MessagePublisherUtil<Object> messagePublisherUtil;
+
+    private ConfigValidator<Object> configValidator;
+
+    private Object payload;
+
+    private Map<String, String> topics;
+
+    private Map<String, Object> kafkaHeader;
+
+    private HeaderEncoder.HeaderTemplate headerTemplate;
+
+    @Setup
+    public void setup() {
+        harness = new ProducerLibraryHarness();
+        kafkaProducerService = harness.kafkaProducerService();
+        messagePublisherUtil = harness.messagePublisherUtil();
+        configValidator = harness.configValidator();
+        payload = "avro".equals(payloadType) ? SamplePayloads.avroPayload(payloadSize)
+                : SamplePayloads.jsonPayload(payloadSize);
+        topics = SamplePayloads.topics();
+        kafkaHeader = SamplePayloads.headers();
+        headerTemplate = harness.headerEncoder().template(kafkaHeader);
+    }
+
+    @TearDown
+    public void tearDown() {
+        harness.close();
+    }
+
+    @Benchmark
+    public RecordHeaders addHeaders() {
+        RecordHeaders headers = new RecordHeaders();
+        messagePublisherUtil.addHeaders(headers, kafkaHeader);
+        return headers;
+    }
+
+    @Benchmark
+    public RecordHeaders addHeadersFromTemplate() {
+        return (RecordHeaders) headerTemplate.applyTo(new RecordHeaders());
+    }
+
+    @Benchmark
+    public Map<String, String> validateInputsForMultipleProducerFlow() {
+        configValidator.validateInputsForMultipleProducerFlow(topics, payload);
+        return topics;
+    }
+
+    @Benchmark
+    public Map<String, String> produceMessages() {
+        kafkaProducerService.produceMessages(topics, payload, kafkaHeader);
+        return topics;
+    }
+}
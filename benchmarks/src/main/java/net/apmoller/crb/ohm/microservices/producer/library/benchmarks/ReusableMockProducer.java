@@ -0,0 +1,65 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.time.Duration;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MockProducer that acks every record immediately, survives KafkaTemplate closing it after each send and drops its
+ * send history regularly so long benchmark iterations don't measure the growth of that history.
+ */
+public class ReusableMockProducer<K, V> extends MockProducer<K, V> {
+
+    private static final int HISTORY_LIMIT = 1024;
+
+    private int sentSinceClear;
+
+    private volatile long commitLatencyNanos;
+
+    public ReusableMockProducer(Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        super(true, keySerializer, valueSerializer);
+    }
+
+    @Override
+    public synchronized Future<RecordMetadata> send(ProducerRecord<K, V> producerRecord, Callback callback) {
+        if (++sentSinceClear >= HISTORY_LIMIT) {
+            clear();
+            sentSinceClear = 0;
+        }
+        return super.send(producerRecord, callback);
+    }
+
+    /**
+     * Method makes every commitTransaction take the given time, standing in for the round trips to the transaction
+     * coordinator.
+     *
+     * @param commitLatency - time a commit takes
+     */
+    public void setCommitLatency(Duration commitLatency) {
+        this.commitLatencyNanos = commitLatency.toNanos();
+    }
+
+    @Override
+    public void commitTransaction() throws ProducerFencedException {
+        if (commitLatencyNanos > 0)
+            LockSupport.parkNanos(commitLatencyNanos);
+        super.commitTransaction();
+    }
+
+    @Override
+    public void close() {
+        // KafkaTemplate closes the producer after every send, the benchmark keeps using it
+    }
+
+    @Override
+    public void close(Duration timeout) {
+        // KafkaTemplate closes the producer after every send, the benchmark keeps using it
+    }
+}
@@ -0,0 +1,94 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.ohm.adapter.avro.model.EventNotificationsAdapterModel;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Payloads shaped like the document broker traffic: an XML document wrapped in JSON, sent either as a string or
+ * inside an EventNotificationsAdapterModel.
+ */
+public final class SamplePayloads {
+
+    private static final String XML_RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?> <db_response type=\"db_extract_package\" version=\"2\" revision=\"0\"> <response error=\"0\" returncode=\"0\" origin=\"DMS:SCRBDBKDK007206\"> <returnstring source=\"Docengine\">Added ply [1] by index</returnstring> </response> <container> <archive save=\"true\" doctype=\"\" docid=\"RNKT00003\" expirydate=\"2022-10-04\"><domain>WCAIND</domain><code>0A732E774E34615B25315973EA2C</code><index_s>2ab97fda-55dd-4ae3-a379-88f45e0a3b37</index_s><index_m>43e4be58-9c54-493f-ad40-6847bad741a5</index_m></archive></container></db_response>";
+
+    private SamplePayloads() {
+        // Private constructor
+    }
+
+    /**
+     * Method returns the document of TestPayload in the service tests, which are not packaged for this module.
+     */
+    public static String testPayload() {
+        return "{\n" + "\t\"db_response\": {\n" + "\t\t\"container\": {\n" + "\t\t\t\"archive\": {\n"
+                + "\t\t\t\t\"doctype\": \"\",\n" + "\t\t\t\t\"expirydate\": \"2022-10-01\",\n"
+                + "\t\t\t\t\"index_s\": \"43e4be58-9c54-493f-ad40-6847bad741a5\",\n"
+                + "\t\t\t\t\"code\": \"0A732E776A9C61AEEF6A802CD9F7\",\n"
+                + "\t\t\t\t\"index_m\": \"43e4be58-9c54-493f-ad40-6847bad741a5\",\n" + "\t\t\t\t\"docid\": 500005964,\n"
+                + "\t\t\t\t\"domain\": \"DKGIS\",\n" + "\t\t\t\t\"save\": true\n" + "\t\t\t}\n" + "\t\t},\n"
+                + "\t\t\"response\": {\n" + "\t\t\t\"returncode\": 0,\n"
+                + "\t\t\t\"origin\": \"DMS:SCRBDBKDK007206\",\n" + "\t\t\t\"error\": 0,\n"
+                + "\t\t\t\"returnstring\": [\n" + "\t\t\t\t{\n" + "\t\t\t\t\t\"source\": \"Docengine\",\n"
+                + "\t\t\t\t\t\"content\": \"Added ply [1] by index\"\n" + "\t\t\t\t},\n" + "\t\t\t\t{\n"
+                + "\t\t\t\t\t\"source\": \"Docengine\",\n"
+                + "\t\t\t\t\t\"content\": \"Could not find ply [2] by index\"\n" + "\t\t\t\t},\n" + "\t\t\t\t{\n"
+                + "\t\t\t\t\t\"source\": \"DBDatabase\",\n" + "\t\t\t\t\t\"content\": \"Key_Add\"\n" + "\t\t\t\t},\n"
+                + "\t\t\t\t{\n" + "\t\t\t\t\t\"source\": \"DBDatabase\",\n" + "\t\t\t\t\t\"content\": \"Key_Add\"\n"
+                + "\t\t\t\t},\n" + "\t\t\t\t{\n" + "\t\t\t\t\t\"source\": \"DBDatabase\",\n"
+                + "\t\t\t\t\t\"content\": \"Key_Add\"\n" + "\t\t\t\t},\n" + "\t\t\t\t\t\"source\": \"DBDatabase\",\n"
+                + "\t\t\t\t\t\"content\": \"Key_Add\"\n" + "\t\t\t\t},\n" + "\t\t\t\t{\n"
+                + "\t\t\t\t\t\"source\": \"DBDatabase\",\n" + "\t\t\t\t\t\"content\": \"Key_Add\"\n" + "\t\t\t\t}\n"
+                + "\t\t\t]\n" + "\t\t},\n" + "\t\t\"type\": \"db_extract_package\",\n" + "\t\t\"version\": 2,\n"
+                + "\t\t\"revision\": 0\n" + "\t}\n" + "}";
+    }
+
+    /**
+     * Method returns the XML-in-JSON document repeated until it is at least the requested size.
+     *
+     * @param minimumSize - minimum payload length in chars
+     */
+    public static String jsonPayload(int minimumSize) {
+        StringBuilder builder = new StringBuilder("{\"documents\": [");
+        do {
+            builder.append("{\"response\": \"").append(XML_RESPONSE.replace("\"", "\\\"")).append("\"},");
+        } while (builder.length() < minimumSize);
+        builder.setLength(builder.length() - 1);
+        return builder.append("]}").toString();
+    }
+
+    public static EventNotificationsAdapterModel avroPayload(int minimumSize) {
+        return avroPayload(jsonPayload(minimumSize));
+    }
+
+    public static EventNotificationsAdapterModel avroPayload(String response) {
+        return EventNotificationsAdapterModel.newBuilder().setResponse(response)
+                .setCorrelationId("TESTCORRELATIONID1234567890").setMessageType("xml")
+                .setMessageId("TESTMESSAGEID1234567890").setSourceSystem("docbroker")
+                .setResponseConsumers(Collections.singletonList("documentservice")).build();
+    }
+
+    public static Map<String, Object> headers() {
+        Map<String, Object> kafkaHeader = new HashMap<>();
+        kafkaHeader.put(ConfigConstants.HEADER_CORRELATION_ID, "TESTCORRELATIONID1234567890");
+        kafkaHeader.put("X-Source-System", "docbroker");
+        kafkaHeader.put("X-Message-Type", "xml");
+        kafkaHeader.put("X-Message-Id", "TESTMESSAGEID1234567890");
+        return kafkaHeader;
+    }
+
+    public static Map<String, String> topics() {
+        Map<String, String> topics = new HashMap<>();
+        topics.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, ProducerLibraryHarness.TARGET_TOPIC);
+        topics.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, ProducerLibraryHarness.DLT_TOPIC);
+        return topics;
+    }
+
+    public static Map<String, String> claimsCheckTopics() {
+        Map<String, String> topics = topics();
+        topics.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY, ProducerLibraryHarness.CLAIMS_CHECK_TOPIC);
+        return topics;
+    }
+}
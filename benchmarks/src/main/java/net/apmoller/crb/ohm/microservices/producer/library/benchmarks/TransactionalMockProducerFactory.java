@@ -0,0 +1,42 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.springframework.kafka.core.ProducerFactory;
+
+/**
+ * Transaction capable producer factory handing out one ReusableMockProducer, with its transactions initialized, so
+ * KafkaTemplate.executeInTransaction runs against it as against a DefaultKafkaProducerFactory with a
+ * transactionIdPrefix.
+ */
+public class TransactionalMockProducerFactory<V> implements ProducerFactory<String, V> {
+
+    private final ReusableMockProducer<String, V> producer;
+
+    private final String transactionIdPrefix;
+
+    public TransactionalMockProducerFactory(ReusableMockProducer<String, V> producer, String transactionIdPrefix) {
+        this.producer = producer;
+        this.transactionIdPrefix = transactionIdPrefix;
+        producer.initTransactions();
+    }
+
+    @Override
+    public Producer<String, V> createProducer() {
+        return producer;
+    }
+
+    @Override
+    public Producer<String, V> createProducer(String txIdPrefix) {
+        return producer;
+    }
+
+    @Override
+    public boolean transactionCapable() {
+        return true;
+    }
+
+    @Override
+    public String getTransactionIdPrefix() {
+        return transactionIdPrefix;
+    }
+}
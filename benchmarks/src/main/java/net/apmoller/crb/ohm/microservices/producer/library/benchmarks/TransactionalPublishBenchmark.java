@@ -0,0 +1,89 @@
+package net.apmoller.crb.ohm.microservices.producer.library.benchmarks;
+
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per record of transactional publishing by commit batch size. Each invocation publishes RECORDS records through
+ * MessagePublisherUtil.publishOnTopicAsync and waits for all of them, so the TransactionalBatcher fills its batches. A
+ * commitBatchSize of 0 publishes without transactions as the baseline. commitLatencyUs makes every commit of the
+ * MockProducers take that long, standing in for the round trips to the transaction coordinator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransactionalPublishBenchmark {
+
+    private static final int RECORDS = 1000;
+
+    @Param({ "0", "1", "10", "100", "1000" })
+    private int commitBatchSize;
+
+    @Param({ "0", "1000" })
+    private long commitLatencyUs;
+
+    @Param({ "1024" })
+    private int payloadSize;
+
+    private ProducerLibraryHarness harness;
+
+    private MessagePublisherUtil<Object> messagePublisherUtil;
+
+    private Object payload;
+
+    private Map<String, Object> kafkaHeader;
+
+    private final CompletableFuture<?>[] futures = new CompletableFuture[RECORDS];
+
+    @Setup
+    public void setup() {
+        Map<String, Object> properties = new HashMap<>();
+        if (commitBatchSize > 0) {
+            properties.put(ProducerLibraryHarness.TRANSACTIONS_ENABLED, true);
+            properties.put(ProducerLibraryHarness.COMMIT_LATENCY_US, commitLatencyUs);
+            properties.put("kafka.producer.transactions.batch-size", commitBatchSize);
+            properties.put("kafka.producer.transactions.max-wait-ms", 5);
+        }
+        harness = new ProducerLibraryHarness(properties);
+        messagePublisherUtil = harness.messagePublisherUtil();
+        payload = SamplePayloads.jsonPayload(payloadSize);
+        kafkaHeader = SamplePayloads.headers();
+    }
+
+    @TearDown
+    public void tearDown() {
+        harness.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public CompletableFuture<Void> publishTransactional() {
+        for (int i = 0; i < RECORDS; i++)
+            futures[i] = messagePublisherUtil.publishOnTopicAsync(
+                    new ProducerRecord<>(ProducerLibraryHarness.TARGET_TOPIC, payload), kafkaHeader);
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures);
+        all.join();
+        return all;
+    }
+}
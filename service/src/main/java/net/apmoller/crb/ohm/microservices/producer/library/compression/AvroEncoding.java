@@ -0,0 +1,36 @@
+package net.apmoller.crb.ohm.microservices.producer.library.compression;
+
+import java.util.Locale;
+
+/**
+ * How CustomSerializer writes an Avro payload before the payload codec is applied.
+ */
+public enum AvroEncoding {
+
+    /**
+     * Avro container file with the schema JSON in its header, one container per message. Default, read by the
+     * existing consumers.
+     */
+    CONTAINER,
+
+    /**
+     * Avro single object encoding: C3 01 marker, CRC-64-AVRO schema fingerprint and the binary encoded record.
+     * Decoded with BinaryMessageDecoder, e.g. EventNotificationsAdapterModel.fromByteBuffer.
+     */
+    SINGLE_OBJECT,
+
+    /**
+     * Confluent wire format with the schema ID from the schema registry, written by KafkaAvroSerializer. The payload
+     * codec is not applied, so the payload stays readable by KafkaAvroDeserializer.
+     */
+    CONFLUENT;
+
+    /**
+     * Method returns the encoding for a configured name, ignoring case, e.g. single-object.
+     *
+     * @param name - encoding name
+     */
+    public static AvroEncoding forName(String name) {
+        return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+    }
+}
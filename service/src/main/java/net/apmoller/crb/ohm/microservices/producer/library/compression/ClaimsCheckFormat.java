@@ -0,0 +1,128 @@
+package net.apmoller.crb.ohm.microservices.producer.library.compression;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.generic.GenericContainer;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * How a claims check payload is serialized into the blob, before the payload codec is applied. The format name is
+ * recorded in the ClaimsCheckRequestPayload and the blob metadata, so consumers in any language can read the blob.
+ */
+public enum ClaimsCheckFormat {
+
+    /**
+     * Java serialization, the format of blobs written before the format was recorded. Only readable from Java.
+     */
+    JAVA {
+        @Override
+        public void write(Object payload, OutputStream out) throws IOException {
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(out);
+            objectOutputStream.writeObject(payload);
+            objectOutputStream.flush();
+        }
+    },
+
+    /**
+     * Avro binary encoding of the record without the schema, which is identified by the recorded fingerprint.
+     */
+    AVRO {
+        @Override
+        public void write(Object payload, OutputStream out) throws IOException {
+            BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+            datumWriter((GenericContainer) payload).write(payload, encoder);
+            encoder.flush();
+        }
+    },
+
+    /**
+     * The UTF-8 bytes of a string payload.
+     */
+    UTF8 {
+        @Override
+        public void write(Object payload, OutputStream out) throws IOException {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            writer.write((String) payload);
+            writer.flush();
+        }
+    };
+
+    private static final ClassValue<DatumWriter<Object>> SPECIFIC_WRITERS = new ClassValue<>() {
+        @Override
+        protected DatumWriter<Object> computeValue(Class<?> type) {
+            SpecificData model = SpecificData.getForClass(type);
+            return new SpecificDatumWriter<>(model.getSchema(type), model);
+        }
+    };
+
+    private static final ClassValue<Long> SPECIFIC_FINGERPRINTS = new ClassValue<>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            return SchemaNormalization.parsingFingerprint64(SpecificData.getForClass(type).getSchema(type));
+        }
+    };
+
+    /**
+     * Method writes the serialized payload to the stream, without closing it.
+     *
+     * @param payload - payload of a type supported by the format
+     * @param out - target stream
+     */
+    public abstract void write(Object payload, OutputStream out) throws IOException;
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Method returns the format for the payload: UTF8 for strings, AVRO for Avro records and JAVA for anything else,
+     * or JAVA for every payload if the schema aware formats are not enabled.
+     *
+     * @param payload - claims check payload
+     * @param schemaAware - whether UTF8 and AVRO may be used
+     */
+    public static ClaimsCheckFormat forPayload(Object payload, boolean schemaAware) {
+        if (!schemaAware)
+            return JAVA;
+        if (payload instanceof String)
+            return UTF8;
+        if (payload instanceof GenericContainer)
+            return AVRO;
+        return JAVA;
+    }
+
+    /**
+     * Method returns the CRC-64-AVRO fingerprint of the payload schema if the payload is written as AVRO, else null.
+     *
+     * @param payload - claims check payload
+     */
+    public Long schemaFingerprint(Object payload) {
+        if (this != AVRO)
+            return null;
+        if (payload instanceof SpecificRecord)
+            return SPECIFIC_FINGERPRINTS.get(payload.getClass());
+        return SchemaNormalization.parsingFingerprint64(((GenericContainer) payload).getSchema());
+    }
+
+    private static DatumWriter<Object> datumWriter(GenericContainer payload) {
+        if (payload instanceof SpecificRecord)
+            return SPECIFIC_WRITERS.get(payload.getClass());
+        Schema schema = payload.getSchema();
+        return new GenericDatumWriter<>(schema, GenericData.get());
+    }
+}
@@ -3,25 +3,99 @@ package net.apmoller.crb.ohm.microservices.producer.library.compression;
 import io.confluent.kafka.serializers.KafkaAvroSerializer;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
 import net.apmoller.crb.ohm.microservices.producer.library.util.CompressionUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.SchemaCache;
 import org.apache.avro.Schema;
 import org.apache.avro.file.CodecFactory;
 import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.avro.io.DatumWriter;
+import org.apache.avro.message.BinaryMessageEncoder;
 import org.apache.avro.reflect.ReflectData;
 import org.apache.avro.reflect.ReflectDatumWriter;
+import org.apache.avro.specific.SpecificData;
+import org.apache.avro.specific.SpecificRecord;
 import org.apache.kafka.common.header.Headers;
 import org.springframework.stereotype.Component;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
 @Slf4j
 @Component
 public class CustomSerializer extends KafkaAvroSerializer {
 
+    private static final ClassValue<BinaryMessageEncoder<Object>> SINGLE_OBJECT_ENCODERS = new ClassValue<>() {
+        @Override
+        protected BinaryMessageEncoder<Object> computeValue(Class<?> type) {
+            GenericData model = SpecificRecord.class.isAssignableFrom(type) ? SpecificData.getForClass(type)
+                    : ReflectData.get();
+            // the encoder keeps a thread local buffer and BinaryEncoder, and one DatumWriter for the schema
+            return new BinaryMessageEncoder<>(model, SchemaCache.schemaFor(type));
+        }
+    };
+
+    private AvroEncoding avroEncoding = AvroEncoding.CONTAINER;
+
+    private CodecSetting defaultCodec = CodecSetting.LEGACY;
+
+    private CodecSetting stringCodec;
+
+    private CodecSetting avroCodec;
+
+    private Map<String, CodecSetting> topicCodecs = Collections.emptyMap();
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        configureCodecs(configs);
+        configureAvroEncoding(configs);
+        super.configure(configs, isKey);
+    }
+
+    /**
+     * Method reads how Avro payloads are written from the producer properties: container (default), single-object
+     * or confluent.
+     *
+     * @param configs - producer properties
+     */
+    public void configureAvroEncoding(Map<String, ?> configs) {
+        Object encoding = configs.get(ConfigConstants.SERIALIZER_AVRO_ENCODING_CONFIG);
+        avroEncoding = Objects.nonNull(encoding) && !encoding.toString().isBlank()
+                ? AvroEncoding.forName(encoding.toString())
+                : AvroEncoding.CONTAINER;
+        log.info("Avro encoding: {}", avroEncoding);
+    }
+
+    /**
+     * Method reads the codec selection from the producer properties. A codec is configured as name[:level], e.g.
+     * zstd:6, and is looked up by topic first, then by payload type, then the default. Without any codec configured
+     * the legacy format (Deflate for strings, bzip2 Avro container for Avro) is written.
+     *
+     * @param configs - producer properties
+     */
+    public void configureCodecs(Map<String, ?> configs) {
+        defaultCodec = CodecSetting.parse(configs.get(ConfigConstants.SERIALIZER_CODEC_CONFIG), CodecSetting.LEGACY);
+        stringCodec = CodecSetting.parse(configs.get(ConfigConstants.SERIALIZER_STRING_CODEC_CONFIG), null);
+        avroCodec = CodecSetting.parse(configs.get(ConfigConstants.SERIALIZER_AVRO_CODEC_CONFIG), null);
+        Map<String, CodecSetting> codecs = new HashMap<>();
+        configs.forEach((key, value) -> {
+            if (key.startsWith(ConfigConstants.SERIALIZER_TOPIC_CODEC_CONFIG_PREFIX))
+                codecs.put(key.substring(ConfigConstants.SERIALIZER_TOPIC_CODEC_CONFIG_PREFIX.length()),
+                        CodecSetting.parse(value, null));
+        });
+        topicCodecs = codecs;
+        log.info("Payload codecs, default: {}, string: {}, avro: {}, topics: {}", defaultCodec, stringCodec, avroCodec,
+                topicCodecs);
+    }
+
     /**
      * Method Compress and Encode the Payload
      * 
@@ -38,25 +112,20 @@ public class CustomSerializer extends KafkaAvroSerializer {
         if (Objects.nonNull(data)) {
             long startedAt = System.currentTimeMillis();
             log.info("Original payload size: {} bytes", data.toString().getBytes(StandardCharsets.UTF_8).length);
-            if (data instanceof String) {
+            boolean stringPayload = data instanceof String;
+            if (!stringPayload && avroEncoding == AvroEncoding.CONFLUENT)
+                return super.serialize(topic, headers, data);
+            CodecSetting codec = codecFor(topic, stringPayload);
+            if (stringPayload) {
                 log.info("Json/String Compression");
-                compressedPayload = CompressionUtil.compress(data.toString());
-
+                compressedPayload = codec.isLegacy() ? CompressionUtil.compress(data.toString())
+                        : codec.encode(data.toString().getBytes(StandardCharsets.UTF_8));
+            } else if (avroEncoding == AvroEncoding.SINGLE_OBJECT) {
+                byte[] payload = writeSingleObject(data);
+                compressedPayload = codec.isLegacy() ? payload : codec.encode(payload);
             } else {
-                Schema schema = ReflectData.get().getSchema(data.getClass());
-                if (Objects.nonNull(schema))
-                    log.info("Avro Payload schema: {}", schema.getName());
-                DatumWriter<GenericRecord> writer = new ReflectDatumWriter<>(schema);
-                try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                        DataFileWriter<GenericRecord> dataFileWriter = new DataFileWriter<>(writer)
-                                .setCodec(CodecFactory.bzip2Codec()).create(schema, outputStream)) {
-
-                    dataFileWriter.append((GenericRecord) data);
-                    compressedPayload = outputStream.toByteArray();
-                } catch (Exception e) {
-                    log.info("Exception Occured while Compressing and Encoding");
-                    throw e;
-                }
+                compressedPayload = codec.isLegacy() ? writeAvroContainer(data, CodecFactory.bzip2Codec())
+                        : codec.encode(writeAvroContainer(data, CodecFactory.nullCodec()));
             }
             long finishedAt = System.currentTimeMillis();
             log.info("Finished method X at time: " + finishedAt + " after: " + (finishedAt - startedAt)
@@ -64,4 +133,81 @@ public class CustomSerializer extends KafkaAvroSerializer {
         }
         return compressedPayload;
     }
+
+    private CodecSetting codecFor(String topic, boolean stringPayload) {
+        CodecSetting codec = Objects.nonNull(topic) ? topicCodecs.get(topic) : null;
+        if (Objects.isNull(codec))
+            codec = stringPayload ? stringCodec : avroCodec;
+        return Objects.nonNull(codec) ? codec : defaultCodec;
+    }
+
+    private byte[] writeSingleObject(Object data) throws IOException {
+        ByteBuffer buffer = SINGLE_OBJECT_ENCODERS.get(data.getClass()).encode(data);
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length)
+            return buffer.array();
+        byte[] payload = new byte[buffer.remaining()];
+        buffer.get(payload);
+        return payload;
+    }
+
+    private byte[] writeAvroContainer(Object data, CodecFactory codecFactory) throws IOException {
+        Schema schema = SchemaCache.schemaFor(data.getClass());
+        if (Objects.nonNull(schema))
+            log.info("Avro Payload schema: {}", schema.getName());
+        DatumWriter<GenericRecord> writer = new ReflectDatumWriter<>(schema);
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                DataFileWriter<GenericRecord> dataFileWriter = new DataFileWriter<>(writer).setCodec(codecFactory)
+                        .create(schema, outputStream)) {
+
+            dataFileWriter.append((GenericRecord) data);
+            // the record is buffered in the current block until the writer is flushed
+            dataFileWriter.flush();
+            return outputStream.toByteArray();
+        } catch (Exception e) {
+            log.info("Exception Occured while Compressing and Encoding");
+            throw e;
+        }
+    }
+
+    /**
+     * Codec and level selected for a topic or payload type, a null codec stands for the legacy format.
+     */
+    private static final class CodecSetting {
+
+        private static final CodecSetting LEGACY = new CodecSetting(null, 0);
+
+        private final PayloadCodec codec;
+
+        private final int level;
+
+        private CodecSetting(PayloadCodec codec, int level) {
+            this.codec = codec;
+            this.level = level;
+        }
+
+        private static CodecSetting parse(Object value, CodecSetting defaultValue) {
+            if (Objects.isNull(value) || value.toString().isBlank())
+                return defaultValue;
+            String[] nameAndLevel = value.toString().split(":", 2);
+            if (ConfigConstants.SERIALIZER_LEGACY_CODEC.equalsIgnoreCase(nameAndLevel[0].trim()))
+                return LEGACY;
+            PayloadCodec codec = PayloadCodec.forName(nameAndLevel[0]);
+            int level = nameAndLevel.length > 1 ? Integer.parseInt(nameAndLevel[1].trim()) : codec.getDefaultLevel();
+            return new CodecSetting(codec, level);
+        }
+
+        private boolean isLegacy() {
+            return Objects.isNull(codec);
+        }
+
+        private byte[] encode(byte[] payload) throws IOException {
+            return codec.encode(payload, level);
+        }
+
+        @Override
+        public String toString() {
+            return isLegacy() ? ConfigConstants.SERIALIZER_LEGACY_CODEC : codec + ":" + level;
+        }
+    }
 }
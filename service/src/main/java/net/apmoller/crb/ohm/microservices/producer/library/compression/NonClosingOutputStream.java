@@ -0,0 +1,26 @@
+package net.apmoller.crb.ohm.microservices.producer.library.compression;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Stream which leaves the target open on close, so a compressing stream can be closed to write its trailer and
+ * release its native resources while the caller still owns the target.
+ */
+public final class NonClosingOutputStream extends FilterOutputStream {
+
+    public NonClosingOutputStream(OutputStream target) {
+        super(target);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
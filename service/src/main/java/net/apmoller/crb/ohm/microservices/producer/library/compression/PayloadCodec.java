@@ -0,0 +1,291 @@
+package net.apmoller.crb.ohm.microservices.producer.library.compression;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+import org.xerial.snappy.Snappy;
+import org.xerial.snappy.SnappyFramedInputStream;
+import org.xerial.snappy.SnappyFramedOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Codecs CustomSerializer can compress a payload with. A payload written with a codec starts with the codec marker
+ * byte, followed by the compressed bytes, so consumers can decode it with {@link #decode(byte[])} without knowing
+ * the producer configuration. The marker bytes never start a legacy payload (zlib stream, Avro container file or
+ * Confluent wire format), so both formats can be told apart on the same topic.
+ */
+public enum PayloadCodec {
+
+    NONE((byte) 0xE0, 0) {
+        @Override
+        protected byte[] compress(byte[] data, int level) {
+            return data;
+        }
+
+        @Override
+        protected byte[] decompress(byte[] data, int offset) {
+            return Arrays.copyOfRange(data, offset, data.length);
+        }
+
+        @Override
+        public OutputStream compressingStream(OutputStream out, int level) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompressingStream(InputStream in) {
+            return in;
+        }
+    },
+    DEFLATE((byte) 0xE1, Deflater.DEFAULT_COMPRESSION) {
+        @Override
+        protected byte[] compress(byte[] data, int level) throws IOException {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 4 + 16);
+            Deflater deflater = new Deflater(level);
+            try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(outputStream, deflater)) {
+                deflaterOutputStream.write(data);
+            } finally {
+                deflater.end();
+            }
+            return outputStream.toByteArray();
+        }
+
+        @Override
+        protected byte[] decompress(byte[] data, int offset) throws IOException {
+            return readFully(new InflaterInputStream(stream(data, offset)));
+        }
+
+        @Override
+        public OutputStream compressingStream(OutputStream out, int level) {
+            return new DeflaterOutputStream(out, new Deflater(level), STREAM_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public InputStream decompressingStream(InputStream in) {
+            return new InflaterInputStream(in);
+        }
+    },
+    GZIP((byte) 0xE2, 0) {
+        @Override
+        protected byte[] compress(byte[] data, int level) throws IOException {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 4 + 32);
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+                gzipOutputStream.write(data);
+            }
+            return outputStream.toByteArray();
+        }
+
+        @Override
+        protected byte[] decompress(byte[] data, int offset) throws IOException {
+            return readFully(new GZIPInputStream(stream(data, offset)));
+        }
+
+        @Override
+        public OutputStream compressingStream(OutputStream out, int level) throws IOException {
+            return new GZIPOutputStream(out, STREAM_BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompressingStream(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+    },
+    SNAPPY((byte) 0xE3, 0) {
+        @Override
+        protected byte[] compress(byte[] data, int level) throws IOException {
+            return Snappy.compress(data);
+        }
+
+        @Override
+        protected byte[] decompress(byte[] data, int offset) throws IOException {
+            return Snappy.uncompress(Arrays.copyOfRange(data, offset, data.length));
+        }
+
+        /**
+         * Streams use the Snappy framing format, which differs from the raw block written by encode.
+         */
+        @Override
+        public OutputStream compressingStream(OutputStream out, int level) throws IOException {
+            return new SnappyFramedOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompressingStream(InputStream in) throws IOException {
+            return new SnappyFramedInputStream(in);
+        }
+    },
+    LZ4((byte) 0xE4, 0) {
+        @Override
+        protected byte[] compress(byte[] data, int level) throws IOException {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 2 + 32);
+            try (LZ4FrameOutputStream lz4OutputStream = new LZ4FrameOutputStream(outputStream)) {
+                lz4OutputStream.write(data);
+            }
+            return outputStream.toByteArray();
+        }
+
+        @Override
+        protected byte[] decompress(byte[] data, int offset) throws IOException {
+            return readFully(new LZ4FrameInputStream(stream(data, offset)));
+        }
+
+        @Override
+        public OutputStream compressingStream(OutputStream out, int level) throws IOException {
+            return new LZ4FrameOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompressingStream(InputStream in) throws IOException {
+            return new LZ4FrameInputStream(in);
+        }
+    },
+    ZSTD((byte) 0xE5, 3) {
+        @Override
+        protected byte[] compress(byte[] data, int level) {
+            return Zstd.compress(data, level);
+        }
+
+        @Override
+        protected byte[] decompress(byte[] data, int offset) throws IOException {
+            return readFully(new ZstdInputStream(stream(data, offset)));
+        }
+
+        @Override
+        public OutputStream compressingStream(OutputStream out, int level) throws IOException {
+            return new ZstdOutputStream(out, level);
+        }
+
+        @Override
+        public InputStream decompressingStream(InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+    };
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final byte marker;
+
+    private final int defaultLevel;
+
+    PayloadCodec(byte marker, int defaultLevel) {
+        this.marker = marker;
+        this.defaultLevel = defaultLevel;
+    }
+
+    public byte getMarker() {
+        return marker;
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Level used when none is configured. Only DEFLATE and ZSTD take a level, the other codecs ignore it.
+     */
+    public int getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    /**
+     * Method compresses the data and prefixes it with the codec marker byte.
+     *
+     * @param data - uncompressed payload bytes
+     * @param level - compression level, see {@link #getDefaultLevel()}
+     */
+    public byte[] encode(byte[] data, int level) throws IOException {
+        byte[] compressed = compress(data, level);
+        byte[] encoded = new byte[compressed.length + 1];
+        encoded[0] = marker;
+        System.arraycopy(compressed, 0, encoded, 1, compressed.length);
+        return encoded;
+    }
+
+    /**
+     * Method decodes a payload written with {@link #encode(byte[], int)} by any codec.
+     *
+     * @param encoded - payload starting with a codec marker byte
+     *
+     * @throws IllegalArgumentException if the payload does not start with a codec marker byte
+     */
+    public static byte[] decode(byte[] encoded) throws IOException {
+        PayloadCodec codec = encoded.length > 0 ? fromMarker(encoded[0]) : null;
+        if (codec == null)
+            throw new IllegalArgumentException("Payload does not start with a codec marker byte");
+        return codec.decompress(encoded, 1);
+    }
+
+    /**
+     * Method returns the codec for the marker byte, or null if the byte is not a codec marker.
+     *
+     * @param marker - first byte of a payload
+     */
+    public static PayloadCodec fromMarker(byte marker) {
+        for (PayloadCodec codec : values())
+            if (codec.marker == marker)
+                return codec;
+        return null;
+    }
+
+    /**
+     * Method returns the codec for a configured name, ignoring case.
+     *
+     * @param name - codec name, e.g. zstd
+     */
+    public static PayloadCodec forName(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Method returns a stream compressing what is written to it into the target, without a marker byte. Closing the
+     * returned stream finishes the compressed data and closes the target.
+     *
+     * @param out - target of the compressed bytes
+     * @param level - compression level, see {@link #getDefaultLevel()}
+     */
+    public abstract OutputStream compressingStream(OutputStream out, int level) throws IOException;
+
+    /**
+     * Method returns a stream decompressing data written by {@link #compressingStream(OutputStream, int)}.
+     *
+     * @param in - compressed bytes
+     */
+    public abstract InputStream decompressingStream(InputStream in) throws IOException;
+
+    protected abstract byte[] compress(byte[] data, int level) throws IOException;
+
+    protected abstract byte[] decompress(byte[] data, int offset) throws IOException;
+
+    private static InputStream stream(byte[] data, int offset) {
+        return new ByteArrayInputStream(data, offset, data.length - offset);
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            return in.readAllBytes();
+        }
+    }
+}
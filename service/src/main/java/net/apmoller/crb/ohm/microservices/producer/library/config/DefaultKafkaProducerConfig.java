@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
 
 /**
  * This class contains all the configuration information for Kafka producer factory to be able to create a Kafka
@@ -92,6 +93,12 @@ public class DefaultKafkaProducerConfig<T> {
     private int maxRequestSize;
     @Value("${kafka.properties.saslRequired:true}")
     private String saslRequired;
+    @Value("${kafka.producer.idempotence:false}")
+    private boolean idempotence;
+    @Value("${kafka.producer.transactions.enabled:false}")
+    private boolean transactional;
+    @Value("${kafka.producer.transactions.id-prefix:}")
+    private String transactionIdPrefix;
 
     @Bean
     public ProducerFactory<String, T> producerFactoryForAvro() {
@@ -112,7 +119,9 @@ public class DefaultKafkaProducerConfig<T> {
         addSchemaRegistryProperties(properties);
         addSecurityProperties(properties, saslMechanism, securityProtocol, loginModule);
         addTruststoreProperties(properties);
+        addIdempotenceProperties(properties);
         DefaultKafkaProducerFactory<String, T> producerFactory = new DefaultKafkaProducerFactory<>(properties);
+        setTransactionIdPrefix(producerFactory, "avro-");
         producerFactory.addListener(new MicrometerProducerListener<>(Metrics.globalRegistry,
                 Collections.singletonList(new ImmutableTag("customTag", "producer-library-metrics"))));
 
@@ -136,7 +145,9 @@ public class DefaultKafkaProducerConfig<T> {
         properties.put(ProducerConfig.MAX_REQUEST_SIZE_CONFIG, maxRequestSize);
         addSecurityProperties(properties, saslMechanism, securityProtocol, loginModule);
         addTruststoreProperties(properties);
+        addIdempotenceProperties(properties);
         DefaultKafkaProducerFactory<String, T> producerFactory = new DefaultKafkaProducerFactory<>(properties);
+        setTransactionIdPrefix(producerFactory, "json-");
         producerFactory.addListener(new MicrometerProducerListener<>(Metrics.globalRegistry,
                 Collections.singletonList(new ImmutableTag("customTag", "producer-library-metrics"))));
 
@@ -197,6 +208,30 @@ public class DefaultKafkaProducerConfig<T> {
         }
     }
 
+    /**
+     * Idempotence, which transactions require, makes the producer retry a batch without writing it twice. It needs
+     * acks=all, so a different kafka.producer.acks-config is overridden.
+     */
+    private void addIdempotenceProperties(Map<String, Object> properties) {
+        if (!idempotence && !transactional)
+            return;
+        if (!"all".equals(producerAcksConfig) && !"-1".equals(producerAcksConfig))
+            log.warn("Idempotent producer requires acks=all, kafka.producer.acks-config={} is overridden",
+                    producerAcksConfig);
+        properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        properties.put(ProducerConfig.ACKS_CONFIG, "all");
+        properties.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+    }
+
+    private void setTransactionIdPrefix(DefaultKafkaProducerFactory<String, T> producerFactory, String suffix) {
+        if (transactional) {
+            if (Objects.isNull(transactionIdPrefix) || transactionIdPrefix.isBlank())
+                transactionIdPrefix = "producer-library-tx-" + UUID.randomUUID() + "-";
+            log.info("Transactional producer with transactional.id prefix {}{}", transactionIdPrefix, suffix);
+            producerFactory.setTransactionIdPrefix(transactionIdPrefix + suffix);
+        }
+    }
+
     @Bean
     CountedAspect countedAspect(MeterRegistry registry) {
         return new CountedAspect(registry);
@@ -29,6 +29,15 @@ public class ConfigConstants {
     public static final String INVALID_BOOTSTRAP_PLACEHOLDER = "Placeholder for Bootstrap Server is not Correct";
     public static final String INVALID_KAFKA_HEADER_MAP_ERROR_MSG = "Kafka headers map cannot be null or empty";
     public static final String INVALID_KAFKA_HEADER_VALUE_ERROR_MSG = "Value for Kafka header: %s cannot be null or empty";
+    public static final String INVALID_BATCH_ERROR_MSG = "Batch payloads and headers cannot be null and must have the same size";
+
+    // Serializer constants, read from the producer properties passed to CustomSerializer
+    public static final String SERIALIZER_CODEC_CONFIG = "ohm.serializer.codec";
+    public static final String SERIALIZER_STRING_CODEC_CONFIG = "ohm.serializer.codec.string";
+    public static final String SERIALIZER_AVRO_CODEC_CONFIG = "ohm.serializer.codec.avro";
+    public static final String SERIALIZER_TOPIC_CODEC_CONFIG_PREFIX = "ohm.serializer.codec.topic.";
+    public static final String SERIALIZER_LEGACY_CODEC = "legacy";
+    public static final String SERIALIZER_AVRO_ENCODING_CONFIG = "ohm.serializer.avro.encoding";
 
     // Azure constants
     public static final String BLOB_ITEM_NAME_PREFIX = "${events-payload.file-name}";
@@ -38,6 +47,16 @@ public class ConfigConstants {
     public static final String AZURE_STORAGE_ENDPOINT = "${azure.storage.endpoint}";
     public static final String AZURE_STORAGE_ENDPOINT_SUFFIX = "${azure.storage.endpoint-suffix}";
     public static final String CONNECTION_STRING = "DefaultEndpointsProtocol=https;AccountName=%s;AccountKey=%s;EndpointSuffix=%s";
+    public static final String CLAIMS_CHECK_STORE = "claims-check.store";
+    public static final String CLAIMS_CHECK_FORMAT = "${claims-check.payload.format:java}";
+    public static final String CLAIMS_CHECK_CODEC = "${claims-check.payload.codec:gzip}";
+    public static final String CLAIMS_CHECK_SCHEMA_AWARE_FORMAT = "schema";
+    public static final String CLAIMS_CHECK_NAMING = "${claims-check.naming:random}";
+    public static final String CLAIMS_CHECK_CONTENT_HASH_NAMING = "content-hash";
+    public static final String BLOB_METADATA_PAYLOAD_FORMAT = "payloadformat";
+    public static final String BLOB_METADATA_PAYLOAD_CODEC = "payloadcodec";
+    public static final String BLOB_METADATA_SCHEMA_FINGERPRINT = "schemafingerprint";
+    public static final String BLOB_METADATA_CONTENT_HASH = "contenthash";
 
     // Metrics Constant
     public static final String MULTIPLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL = "kafka_multiple_producer_target_topic_error_total";
@@ -46,4 +65,34 @@ public class ConfigConstants {
     public static final String SINGLE_PRODUCER_DLT_ERROR_TOTAL = "kafka_single_producer_dlt_topic_error_total";
     public static final String CLAIMS_CHECK_TARGET_TOPIC_ERROR_TOTAL = "kafka_producer_claims_check_target_topic_error_total";
     public static final String CLAIMS_CHECK_DLT_ERROR_TOTAL = "kafka_producer_claims_check_dlt_topic_error_total";
+    public static final String PRODUCER_EXECUTOR_QUEUE_DEPTH = "kafka_producer_executor_queue_depth";
+    public static final String PRODUCER_EXECUTOR_ACTIVE_TASKS = "kafka_producer_executor_active_tasks";
+    public static final String PRODUCER_RETRY_SCHEDULED = "kafka_producer_retry_scheduled";
+    public static final String CLAIMS_CHECK_CONTAINER_CACHE_HIT_TOTAL = "kafka_producer_claims_check_container_cache_hit_total";
+    public static final String CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL = "kafka_producer_claims_check_container_round_trip_total";
+    public static final String CLAIMS_CHECK_DEDUP_HIT_TOTAL = "kafka_producer_claims_check_dedup_hit_total";
+    public static final String CLAIMS_CHECK_DEDUP_MISS_TOTAL = "kafka_producer_claims_check_dedup_miss_total";
+    public static final String ADAPTIVE_BATCHING_ARRIVAL_RATE = "kafka_producer_adaptive_batching_arrival_rate";
+    public static final String ADAPTIVE_BATCHING_LINGER_MS = "kafka_producer_adaptive_batching_linger_ms";
+    public static final String ADAPTIVE_BATCHING_BATCH_SIZE = "kafka_producer_adaptive_batching_batch_size";
+    public static final String ADAPTIVE_BATCHING_BATCH_FILL_RATIO = "kafka_producer_adaptive_batching_batch_fill_ratio";
+    public static final String PRODUCER_POOL_BUFFER_UTILIZATION = "kafka_producer_pool_buffer_utilization";
+    public static final String CIRCUIT_BREAKER_STATE = "kafka_producer_circuit_breaker_state";
+    public static final String CIRCUIT_BREAKER_REJECTED_TOTAL = "kafka_producer_circuit_breaker_rejected_total";
+    public static final String RETRY_BUDGET_TOKENS = "kafka_producer_retry_budget_tokens";
+    public static final String RETRY_BUDGET_EXHAUSTED_TOTAL = "kafka_producer_retry_budget_exhausted_total";
+    public static final String IN_FLIGHT_RECORDS = "kafka_producer_in_flight_records";
+    public static final String IN_FLIGHT_BYTES = "kafka_producer_in_flight_bytes";
+    public static final String IN_FLIGHT_REJECTED_TOTAL = "kafka_producer_in_flight_rejected_total";
+    public static final String IN_FLIGHT_WAIT = "kafka_producer_in_flight_wait";
+    public static final String SPOOL_RECORDS = "kafka_producer_spool_records";
+    public static final String SPOOL_BYTES = "kafka_producer_spool_bytes";
+    public static final String SPOOL_APPENDED_TOTAL = "kafka_producer_spool_appended_total";
+    public static final String SPOOL_DRAINED_TOTAL = "kafka_producer_spool_drained_total";
+    public static final String SPOOL_DROPPED_TOTAL = "kafka_producer_spool_dropped_total";
+    public static final String SPOOL_REJECTED_TOTAL = "kafka_producer_spool_rejected_total";
+    public static final String TRANSACTION_COMMIT_TOTAL = "kafka_producer_transaction_commit_total";
+    public static final String TRANSACTION_ABORT_TOTAL = "kafka_producer_transaction_abort_total";
+    public static final String TRANSACTION_REJECTED_TOTAL = "kafka_producer_transaction_rejected_total";
+    public static final String TRANSACTION_BATCH_SIZE = "kafka_producer_transaction_batch_size";
 }
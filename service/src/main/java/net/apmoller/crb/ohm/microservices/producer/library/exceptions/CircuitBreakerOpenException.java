@@ -0,0 +1,8 @@
+package net.apmoller.crb.ohm.microservices.producer.library.exceptions;
+
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    public CircuitBreakerOpenException(String message) {
+        super(message);
+    }
+}
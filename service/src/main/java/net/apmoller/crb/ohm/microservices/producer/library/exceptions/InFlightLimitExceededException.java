@@ -0,0 +1,18 @@
+package net.apmoller.crb.ohm.microservices.producer.library.exceptions;
+
+public class InFlightLimitExceededException extends RuntimeException {
+
+    private final boolean spill;
+
+    public InFlightLimitExceededException(String message, boolean spill) {
+        super(message);
+        this.spill = spill;
+    }
+
+    /**
+     * Tells if the payload is to be moved to claims check instead of failing the publish.
+     */
+    public boolean isSpill() {
+        return spill;
+    }
+}
@@ -0,0 +1,8 @@
+package net.apmoller.crb.ohm.microservices.producer.library.exceptions;
+
+public class SpooledException extends RuntimeException {
+
+    public SpooledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,43 @@
+package net.apmoller.crb.ohm.microservices.producer.library.models;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * State of one publish request: correlation ID, target topic, start time and attempt number. Instances are immutable
+ * and belong to a single request, a new instance is created for every attempt, so they can be handed between threads
+ * of the async pipeline without synchronization.
+ */
+@Getter
+@ToString
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class PublishContext {
+
+    private final String correlationId;
+
+    private final String topic;
+
+    /** Time the first attempt started, in epoch milliseconds. */
+    private final long startedAt;
+
+    /** Attempt number, starting at 1. */
+    private final int attempt;
+
+    public static PublishContext start(String correlationId, String topic) {
+        return new PublishContext(correlationId, topic, System.currentTimeMillis(), 1);
+    }
+
+    public PublishContext withAttempt(int attempt) {
+        return attempt == this.attempt ? this : new PublishContext(correlationId, topic, startedAt, attempt);
+    }
+
+    public PublishContext nextAttempt() {
+        return withAttempt(attempt + 1);
+    }
+
+    public long elapsedMillis() {
+        return System.currentTimeMillis() - startedAt;
+    }
+}
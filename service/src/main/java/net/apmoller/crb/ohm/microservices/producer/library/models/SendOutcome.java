@@ -0,0 +1,78 @@
+package net.apmoller.crb.ohm.microservices.producer.library.models;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.DLTException;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+/**
+ * Result of publishing a single record, telling where the record ended up.
+ */
+@Getter
+@ToString
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class SendOutcome {
+
+    public enum Status {
+        /** Record acknowledged on the target topic. */
+        SUCCESS,
+        /** Payload uploaded to blob storage and its url acknowledged on the claims check topic. */
+        CLAIMS_CHECK,
+        /** Record could not be sent to the target topic and was acknowledged on the dead letter topic. */
+        DLT,
+        /** Record could be sent neither to the target topic nor to the DLT and was appended to the local spool. */
+        SPOOLED,
+        /** Record could not be delivered anywhere, see exception. */
+        FAILED
+    }
+
+    /** Position of the record in the input it was published from. */
+    private final int index;
+
+    private final Status status;
+
+    /**
+     * Metadata of the acknowledged record, null when the status is SPOOLED or FAILED, or DLT for a claims check record
+     * acknowledged on the claims check DLT.
+     */
+    private final RecordMetadata recordMetadata;
+
+    /** Failure that moved the record away from the target topic, null when the status is SUCCESS. */
+    private final Throwable exception;
+
+    public static SendOutcome success(int index, RecordMetadata recordMetadata) {
+        return new SendOutcome(index, Status.SUCCESS, recordMetadata, null);
+    }
+
+    public static SendOutcome claimsCheck(int index, RecordMetadata recordMetadata, Throwable exception) {
+        return new SendOutcome(index, Status.CLAIMS_CHECK, recordMetadata, exception);
+    }
+
+    public static SendOutcome dlt(int index, RecordMetadata recordMetadata, Throwable exception) {
+        return new SendOutcome(index, Status.DLT, recordMetadata, exception);
+    }
+
+    public static SendOutcome spooled(int index, Throwable exception) {
+        return new SendOutcome(index, Status.SPOOLED, null, exception);
+    }
+
+    public static SendOutcome failed(int index, Throwable exception) {
+        return new SendOutcome(index, Status.FAILED, null, exception);
+    }
+
+    /**
+     * Outcome of a record whose publish failed. A DLTException reports a claims check record acknowledged on the claims
+     * check DLT, anything else a record not delivered anywhere.
+     */
+    public static SendOutcome fromFailure(int index, Throwable exception) {
+        if (exception instanceof DLTException)
+            return dlt(index, null, exception);
+        return failed(index, exception);
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+}
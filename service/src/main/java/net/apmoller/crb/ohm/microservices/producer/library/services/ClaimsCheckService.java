@@ -1,11 +1,19 @@
 package net.apmoller.crb.ohm.microservices.producer.library.services;
 
+import net.apmoller.crb.ohm.claimscheck.request.ClaimsCheckRequestPayload;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.ClaimsCheckFailedException;
+import org.apache.kafka.clients.producer.RecordMetadata;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface ClaimsCheckService<T> {
     void handleClaimsCheckAfterGettingMemoryIssue(Map<String, Object> kafkaHeader, Map<String, String> topics,
             T message) throws ClaimsCheckFailedException;
+
+    CompletableFuture<RecordMetadata> handleClaimsCheckAfterGettingMemoryIssueAsync(Map<String, Object> kafkaHeader,
+            Map<String, String> topics, T message);
+
+    CompletableFuture<ClaimsCheckRequestPayload> uploadToAzureBlobAsync(T message);
 }
\ No newline at end of file
@@ -5,21 +5,38 @@ import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.apmoller.crb.ohm.claimscheck.request.ClaimsCheckRequestPayload;
+import net.apmoller.crb.ohm.microservices.producer.library.compression.ClaimsCheckFormat;
+import net.apmoller.crb.ohm.microservices.producer.library.compression.PayloadCodec;
 import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.ClaimsCheckFailedException;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.DLTException;
-import net.apmoller.crb.ohm.microservices.producer.library.storage.FileService;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.ClaimsCheckDedupIndex;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.ClaimsCheckStore;
 import net.apmoller.crb.ohm.microservices.producer.library.util.CompressionUtil;
 import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 @Component
 @Slf4j
@@ -28,7 +45,7 @@ import java.util.concurrent.TimeUnit;
 public class ClaimsCheckServiceImpl<T> implements ClaimsCheckService<T> {
 
     @Autowired
-    private FileService fileService;
+    private ClaimsCheckStore claimsCheckStore;
 
     @Autowired
     private MessagePublisherUtil<T> messagePublisherUtil;
@@ -42,15 +59,43 @@ public class ClaimsCheckServiceImpl<T> implements ClaimsCheckService<T> {
     @Autowired
     private ApplicationContext context;
 
-    @Value(ConfigConstants.AZURE_STORAGE_CONTAINER_NAME)
-    private String containerName;
+    @Autowired
+    private PublishExecutor publishExecutor;
+
+    @Autowired
+    private ClaimsCheckDedupIndex dedupIndex;
 
     @Value(ConfigConstants.BLOB_ITEM_NAME_PREFIX)
     private String blobItemNamePrefix;
 
+    @Value(ConfigConstants.CLAIMS_CHECK_FORMAT)
+    private String payloadFormat;
+
+    @Value(ConfigConstants.CLAIMS_CHECK_CODEC)
+    private String payloadCodecConfig;
+
+    @Value(ConfigConstants.CLAIMS_CHECK_NAMING)
+    private String naming;
+
+    private boolean contentAddressed;
+
+    private PayloadCodec payloadCodec = PayloadCodec.GZIP;
+
+    private int payloadCodecLevel;
+
     private static final String BLOB_UPLOAD_ERROR_MESSAGE = "Error occurred while uploading Payload with Correlation-Id {} to azure blob";
 
-    private String correlationId;
+    /*
+     * Method parses the claims check codec, configured as name[:level], e.g. zstd:6
+     */
+    @PostConstruct
+    public void init() {
+        String[] nameAndLevel = payloadCodecConfig.split(":", 2);
+        payloadCodec = PayloadCodec.forName(nameAndLevel[0]);
+        payloadCodecLevel = nameAndLevel.length > 1 ? Integer.parseInt(nameAndLevel[1].trim())
+                : payloadCodec.getDefaultLevel();
+        contentAddressed = ConfigConstants.CLAIMS_CHECK_CONTENT_HASH_NAMING.equalsIgnoreCase(naming.trim());
+    }
 
     /*
      * Method to handle upload to Azure blob storage and posting storage url on claims check topic
@@ -60,16 +105,15 @@ public class ClaimsCheckServiceImpl<T> implements ClaimsCheckService<T> {
                                                          T message) throws ClaimsCheckFailedException, DLTException {
         ProducerRecord<String, T> producerRecord;
         ClaimsCheckRequestPayload claimsCheckPayload = null;
-        correlationId = configValidator.getCorrelationId(kafkaHeader);
+        String correlationId = configValidator.getCorrelationId(kafkaHeader);
         if (configValidator.claimsCheckTopicNotPresent(topics))
             throw new ClaimsCheckFailedException("Claims check topic not found");
         try {
             long time = System.currentTimeMillis();
-            String url = uploadToAzureBlob(CompressionUtil.gzipCompress(message));
-            claimsCheckPayload = ClaimsCheckRequestPayload.newBuilder().setClaimsCheckBlobUrl(url).build();
+            claimsCheckPayload = streamToAzureBlob(message);
             log.info("Time taken to upload file with Correlation-Id {} to azure blob {} ms", correlationId, System.currentTimeMillis() - time);
             producerRecord = new ProducerRecord<>(topics.get(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY), (T) claimsCheckPayload);
-            messagePublisherUtil.publishOnTopic(producerRecord, kafkaHeader);
+            awaitAcknowledgement(messagePublisherUtil.publishOnTopicAsync(producerRecord, kafkaHeader));
             log.info("Published message with Correlation-Id {} to Kafka topic post claim check in {} ms", correlationId, System.currentTimeMillis() - time);
         } catch (ClaimsCheckFailedException ex) {
             log.error(BLOB_UPLOAD_ERROR_MESSAGE, correlationId, ex);
@@ -82,7 +126,7 @@ public class ClaimsCheckServiceImpl<T> implements ClaimsCheckService<T> {
             if (configValidator.claimsCheckDltPresent(topics)) {
                 try {
                     producerRecord = new ProducerRecord<>(topics.get(ConfigConstants.CLAIMS_CHECK_DLT_KEY), (T) claimsCheckPayload);
-                    messagePublisherUtil.publishOnTopic(producerRecord, kafkaHeader);
+                    awaitAcknowledgement(messagePublisherUtil.publishOnTopicAsync(producerRecord, kafkaHeader));
                 } catch (Exception ex) {
                     log.error("Exception while posting Payload with Correlation-Id {} to claims check Dlt topic ", correlationId, ex);
                     meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_DLT_ERROR_TOTAL).increment();
@@ -98,15 +142,201 @@ public class ClaimsCheckServiceImpl<T> implements ClaimsCheckService<T> {
     }
 
     /*
-     * Method to upload blob to Azure storage
+     * Method waits for the broker to acknowledge a claims check record, the upload before it already blocks the
+     * caller. A failed send is rethrown, so it moves the record to the claims check DLT.
+     */
+    private static void awaitAcknowledgement(CompletableFuture<?> future) {
+        try {
+            future.join();
+        } catch (CompletionException ex) {
+            Throwable cause = MessagePublisherUtil.unwrap(ex);
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : ex;
+        }
+    }
+
+    /*
+     * Method to handle upload to Azure blob storage and posting storage url on claims check topic without blocking
+     * the caller. The upload runs off the producer I/O thread and the returned future completes once the claims
+     * check record is acknowledged.
+     */
+    @Override
+    public CompletableFuture<RecordMetadata> handleClaimsCheckAfterGettingMemoryIssueAsync(Map<String, Object> kafkaHeader,
+                                                                                     Map<String, String> topics, T message) {
+        String asyncCorrelationId = configValidator.getCorrelationId(kafkaHeader);
+        if (configValidator.claimsCheckTopicNotPresent(topics))
+            return CompletableFuture.failedFuture(new ClaimsCheckFailedException("Claims check topic not found"));
+        long time = System.currentTimeMillis();
+        return uploadToAzureBlobAsync(message).whenComplete((claimsCheckPayload, ex) -> {
+            if (Objects.nonNull(ex)) {
+                log.error(BLOB_UPLOAD_ERROR_MESSAGE, asyncCorrelationId, ex);
+                meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_TARGET_TOPIC_ERROR_TOTAL).increment();
+            } else {
+                log.info("Time taken to upload file with Correlation-Id {} to azure blob {} ms", asyncCorrelationId, System.currentTimeMillis() - time);
+            }
+            // the upload completes on a storage client thread, the claims check record is sent from the publish executor
+        }).thenComposeAsync(claimsCheckPayload -> publishClaimsCheckPayloadAsync(claimsCheckPayload, kafkaHeader, topics, time),
+                publishExecutor.executor());
+    }
+
+    private CompletableFuture<RecordMetadata> publishClaimsCheckPayloadAsync(ClaimsCheckRequestPayload claimsCheckPayload,
+            Map<String, Object> kafkaHeader, Map<String, String> topics, long time) {
+        String asyncCorrelationId = configValidator.getCorrelationId(kafkaHeader);
+        ProducerRecord<String, T> producerRecord = new ProducerRecord<>(topics.get(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY), (T) claimsCheckPayload);
+        // the claims check DLT record is sent off the producer network thread which completed the failed send
+        return messagePublisherUtil.publishOnTopicAsync(producerRecord, kafkaHeader).handleAsync((result, e) -> {
+            if (Objects.isNull(e)) {
+                log.info("Published message with Correlation-Id {} to Kafka topic post claim check in {} ms", asyncCorrelationId, System.currentTimeMillis() - time);
+                return CompletableFuture.completedFuture(result.getRecordMetadata());
+            }
+            log.error("Exception while posting Payload with Correlation-Id {} to claims check topic ", asyncCorrelationId, e);
+            meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_TARGET_TOPIC_ERROR_TOTAL).increment();
+            if (!configValidator.claimsCheckDltPresent(topics)) {
+                log.info("Claims check DLT for Correlation-Id {} not added in input topic map hence throwing exception", asyncCorrelationId);
+                meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_DLT_ERROR_TOTAL).increment();
+                return CompletableFuture.<RecordMetadata>failedFuture(new ClaimsCheckFailedException("Dead letter topic not found"));
+            }
+            ProducerRecord<String, T> dltRecord = new ProducerRecord<>(topics.get(ConfigConstants.CLAIMS_CHECK_DLT_KEY), (T) claimsCheckPayload);
+            return messagePublisherUtil.publishOnTopicAsync(dltRecord, kafkaHeader).<RecordMetadata>handle((dltResult, ex) -> {
+                if (Objects.nonNull(ex)) {
+                    log.error("Exception while posting Payload with Correlation-Id {} to claims check Dlt topic ", asyncCorrelationId, ex);
+                    meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_DLT_ERROR_TOTAL).increment();
+                    throw new ClaimsCheckFailedException(String.format("Exception while posting Payload with Correlation-Id %s to claims check DLT.", asyncCorrelationId), MessagePublisherUtil.unwrap(ex));
+                }
+                throw new DLTException(String.format("Successfully published Payload with Correlation-Id %s to Claims check DLT", asyncCorrelationId));
+            });
+        }, publishExecutor.executor()).thenCompose(Function.identity());
+    }
+
+    /*
+     * Method to upload blob to the claims check store, Azure storage unless configured otherwise
      */
     public String uploadToAzureBlob(byte[] compressedPayload) throws ClaimsCheckFailedException {
         try {
-            return fileService.uploadFile(compressedPayload, containerName, blobItemNamePrefix + UUID.randomUUID() + "_"
-                    + TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+            if (!contentAddressed)
+                return claimsCheckStore.store(blobName(), null, out -> out.write(compressedPayload));
+            String contentHash = ClaimsCheckDedupIndex.toHex(ClaimsCheckDedupIndex.newDigest().digest(compressedPayload));
+            String url = dedupIndex.get(contentHash);
+            if (Objects.isNull(url)) {
+                url = claimsCheckStore.store(blobItemNamePrefix + contentHash,
+                        Map.of(ConfigConstants.BLOB_METADATA_CONTENT_HASH, contentHash), out -> out.write(compressedPayload));
+                dedupIndex.put(contentHash, url);
+            }
+            return url;
+        } catch (Exception e) {
+            // logged with the correlation id by the caller
+            throw new ClaimsCheckFailedException("Claims check failed while uploading to blob", e);
+        }
+    }
+
+    /*
+     * Method to upload the compressed payload to the claims check store and build the claims check payload pointing to
+     * it. The payload is serialized, compressed and uploaded as a stream, without a copy of the whole payload on the
+     * heap. Format, codec and schema fingerprint are recorded in the claims check payload and the blob metadata
+     */
+    public ClaimsCheckRequestPayload streamToAzureBlob(T message) throws ClaimsCheckFailedException {
+        ClaimsCheckFormat format = formatFor(message);
+        Long schemaFingerprint = format.schemaFingerprint(message);
+        try {
+            String contentHash = contentHash(message, format);
+            String url = Objects.isNull(contentHash) ? null : dedupIndex.get(contentHash);
+            if (Objects.nonNull(url))
+                return claimsCheckPayload(url, format, schemaFingerprint);
+            url = claimsCheckStore.store(blobName(contentHash), blobMetadata(format, schemaFingerprint, contentHash),
+                    out -> CompressionUtil.compress(message, format, payloadCodec, payloadCodecLevel, out));
+            if (Objects.nonNull(contentHash))
+                dedupIndex.put(contentHash, url);
+            return claimsCheckPayload(url, format, schemaFingerprint);
         } catch (Exception e) {
-            log.error(BLOB_UPLOAD_ERROR_MESSAGE, correlationId, e);
+            // logged with the correlation id by the caller
             throw new ClaimsCheckFailedException("Claims check failed while uploading to blob", e);
         }
     }
+
+    /*
+     * Asynchronous counterpart of streamToAzureBlob. With Azure, blocks are staged in parallel by the async storage
+     * client and no thread waits for the upload, the returned future completes with the claims check payload pointing
+     * to the blob. With claims-check.naming set to content-hash, the payload is hashed on the publish executor rather
+     * than on the calling thread, which may be the producer network thread
+     */
+    @Override
+    public CompletableFuture<ClaimsCheckRequestPayload> uploadToAzureBlobAsync(T message) {
+        ClaimsCheckFormat format = formatFor(message);
+        Long schemaFingerprint = format.schemaFingerprint(message);
+        CompletableFuture<String> contentHash = !contentAddressed ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return contentHash(message, format);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, publishExecutor.executor());
+        return contentHash.handle((hash, e) -> {
+            if (Objects.nonNull(e)) {
+                Throwable cause = MessagePublisherUtil.unwrap(e);
+                throw new ClaimsCheckFailedException("Claims check failed while uploading to blob",
+                        cause instanceof UncheckedIOException ? cause.getCause() : cause);
+            }
+            return hash;
+        }).thenCompose(hash -> {
+            String indexedUrl = Objects.isNull(hash) ? null : dedupIndex.get(hash);
+            if (Objects.nonNull(indexedUrl))
+                return CompletableFuture.completedFuture(claimsCheckPayload(indexedUrl, format, schemaFingerprint));
+            return claimsCheckStore.storeAsync(blobName(hash), blobMetadata(format, schemaFingerprint, hash),
+                    out -> CompressionUtil.compress(message, format, payloadCodec, payloadCodecLevel, out))
+                    .handle((url, ex) -> {
+                        if (Objects.nonNull(ex))
+                            throw new ClaimsCheckFailedException("Claims check failed while uploading to blob",
+                                    MessagePublisherUtil.unwrap(ex));
+                        if (Objects.nonNull(hash))
+                            dedupIndex.put(hash, url);
+                        return claimsCheckPayload(url, format, schemaFingerprint);
+                    });
+        });
+    }
+
+    /*
+     * Method returns the content hash naming the payload with claims-check.naming set to content-hash, null otherwise.
+     * The hash is a SHA-256 of the format, codec and serialized payload, so the payload is serialized twice but only
+     * compressed and uploaded once, and is still streamed to the store rather than buffered to be hashed
+     */
+    private String contentHash(T message, ClaimsCheckFormat format) throws IOException {
+        if (!contentAddressed)
+            return null;
+        MessageDigest digest = ClaimsCheckDedupIndex.newDigest();
+        digest.update((format.getName() + ':' + payloadCodec.getName() + ':' + payloadCodecLevel)
+                .getBytes(StandardCharsets.UTF_8));
+        try (OutputStream out = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+            format.write(message, out);
+        }
+        return ClaimsCheckDedupIndex.toHex(digest.digest());
+    }
+
+    private ClaimsCheckFormat formatFor(T message) {
+        return ClaimsCheckFormat.forPayload(message,
+                ConfigConstants.CLAIMS_CHECK_SCHEMA_AWARE_FORMAT.equalsIgnoreCase(payloadFormat));
+    }
+
+    private Map<String, String> blobMetadata(ClaimsCheckFormat format, Long schemaFingerprint, String contentHash) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put(ConfigConstants.BLOB_METADATA_PAYLOAD_FORMAT, format.getName());
+        metadata.put(ConfigConstants.BLOB_METADATA_PAYLOAD_CODEC, payloadCodec.getName());
+        if (Objects.nonNull(schemaFingerprint))
+            metadata.put(ConfigConstants.BLOB_METADATA_SCHEMA_FINGERPRINT, schemaFingerprint.toString());
+        if (Objects.nonNull(contentHash))
+            metadata.put(ConfigConstants.BLOB_METADATA_CONTENT_HASH, contentHash);
+        return metadata;
+    }
+
+    private ClaimsCheckRequestPayload claimsCheckPayload(String url, ClaimsCheckFormat format, Long schemaFingerprint) {
+        return ClaimsCheckRequestPayload.newBuilder().setClaimsCheckBlobUrl(url).setPayloadFormat(format.getName())
+                .setPayloadCodec(payloadCodec.getName()).setSchemaFingerprint(schemaFingerprint).build();
+    }
+
+    private String blobName(String contentHash) {
+        return Objects.isNull(contentHash) ? blobName() : blobItemNamePrefix + contentHash;
+    }
+
+    private String blobName() {
+        return blobItemNamePrefix + UUID.randomUUID() + "_" + TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    }
 }
@@ -11,6 +11,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Objects;
 
@@ -40,7 +41,7 @@ public class ConfigValidator<T> {
      *
      * @param message - payload
      */
-    private void payloadValidation(T message) {
+    public void payloadValidation(T message) {
         if (Objects.isNull(message)) {
             throw new PayloadValidationException(ConfigConstants.INVALID_PAYLOAD_ERROR_MSG);
         }
@@ -97,6 +98,24 @@ public class ConfigValidator<T> {
         var bootstrapServer = context.getEnvironment().resolvePlaceholders(ConfigConstants.BOOTSTRAP_SERVER);
         log.info("bootstrapServer from application context: {}", bootstrapServer);
         payloadValidation(message);
+        topicsAndBootstrapServerValidation(topics, bootstrapServer);
+    }
+
+    /**
+     * Method to validate topic and bootstrap server once before posting a batch of messages to kafka topic. Payloads
+     * are validated one by one with payloadValidation.
+     *
+     * @param topics - Topics name map from input
+     */
+    public void validateInputsForBatchProducerFlow(Map<String, String> topics) {
+
+        log.info("Topics map passed in input: {}", topics);
+        var bootstrapServer = context.getEnvironment().resolvePlaceholders(ConfigConstants.BOOTSTRAP_SERVER);
+        log.info("bootstrapServer from application context: {}", bootstrapServer);
+        topicsAndBootstrapServerValidation(topics, bootstrapServer);
+    }
+
+    private void topicsAndBootstrapServerValidation(Map<String, String> topics, String bootstrapServer) {
         if (Objects.isNull(topics) || topics.isEmpty()) {
             throw new TopicNameValidationException(ConfigConstants.INVALID_TOPIC_MAP_ERROR_MSG);
         } else {
@@ -157,7 +176,11 @@ public class ConfigValidator<T> {
 
     public String getCorrelationId(Map<String, Object> kafkaHeader) {
 
-        return (kafkaHeader.containsKey(ConfigConstants.HEADER_CORRELATION_ID) && !Objects.isNull(kafkaHeader.get(ConfigConstants.HEADER_CORRELATION_ID))) ?
-                kafkaHeader.get(ConfigConstants.HEADER_CORRELATION_ID).toString() : "";
+        Object correlationId = Objects.isNull(kafkaHeader) ? null : kafkaHeader.get(ConfigConstants.HEADER_CORRELATION_ID);
+        if (Objects.isNull(correlationId))
+            return "";
+        // pre-encoded header values are passed as byte[]
+        return correlationId instanceof byte[] ? new String((byte[]) correlationId, StandardCharsets.UTF_8)
+                : correlationId.toString();
     }
 }
@@ -1,12 +1,31 @@
 package net.apmoller.crb.ohm.microservices.producer.library.services;
 
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.*;
+import net.apmoller.crb.ohm.microservices.producer.library.models.SendOutcome;
+import org.apache.kafka.clients.producer.RecordMetadata;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface KafkaProducerService<T> {
 
     void produceMessages(Map<String, String> topics, T message, Map<String, Object> kafkaHeader)
             throws TopicNameValidationException, KafkaServerNotFoundException, PayloadValidationException,
             KafkaHeaderValidationException, DLTException, ClaimsCheckFailedException;
+
+    /**
+     * Sends the message without blocking the caller. The returned future completes with the record metadata once
+     * the broker acknowledges the record, or exceptionally with the same exceptions produceMessages throws.
+     */
+    CompletableFuture<RecordMetadata> produceMessagesAsync(Map<String, String> topics, T message,
+            Map<String, Object> kafkaHeader);
+
+    /**
+     * Sends a batch of messages to the target topic, validating the topic map and bootstrap server once. Returns
+     * the outcome of every record (target topic, claims check, DLT or failed) in the order of the input.
+     */
+    List<SendOutcome> produceBatch(Map<String, String> topics, List<T> messages,
+            List<Map<String, Object>> kafkaHeaders)
+            throws TopicNameValidationException, KafkaServerNotFoundException, PayloadValidationException;
 }
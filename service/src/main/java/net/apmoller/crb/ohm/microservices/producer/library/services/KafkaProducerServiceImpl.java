@@ -5,18 +5,31 @@ import lombok.extern.slf4j.Slf4j;
 import net.apmoller.crb.ohm.microservices.aop.annotations.LogException;
 import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.*;
+import net.apmoller.crb.ohm.microservices.producer.library.models.PublishContext;
+import net.apmoller.crb.ohm.microservices.producer.library.models.SendOutcome;
 import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishContextHolder;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
 import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Recover;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.TransactionTimedOutException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 @Slf4j
 @Service
@@ -28,11 +41,18 @@ public class KafkaProducerServiceImpl<T> implements KafkaProducerService<T> {
 
     private final ClaimsCheckService<T> claimsCheckService;
 
-    private String correlationId;
-
     @Autowired
     private MeterRegistry registry;
 
+    @Autowired
+    private PayloadSizeEstimator payloadSizeEstimator;
+
+    @Autowired
+    private PublishExecutor publishExecutor;
+
+    @Autowired
+    private RetryBudget retryBudget;
+
     @Autowired
     public KafkaProducerServiceImpl(ConfigValidator<T> configValidator, MessagePublisherUtil<T> messagePublisherUtil,
             ClaimsCheckService<T> claimsCheckService) {
@@ -59,27 +79,93 @@ public class KafkaProducerServiceImpl<T> implements KafkaProducerService<T> {
     public void produceMessages(Map<String, String> topics, T message, Map<String, Object> kafkaHeader)
             throws TopicNameValidationException, KafkaServerNotFoundException, PayloadValidationException,
             KafkaHeaderValidationException, DLTException, ClaimsCheckFailedException {
-        long startedAt = System.currentTimeMillis();
-        String producerTopic = null;
+        PublishContext publishContext = PublishContextHolder.startAttempt(configValidator.getCorrelationId(kafkaHeader),
+                Objects.nonNull(topics) ? topics.get(ConfigConstants.NOTIFICATION_TOPIC_KEY) : null);
         try {
             configValidator.validateInputsForMultipleProducerFlow(topics, message);
-            correlationId = configValidator.getCorrelationId(kafkaHeader);
-            producerTopic = topics.get(ConfigConstants.NOTIFICATION_TOPIC_KEY);
-            ProducerRecord<String, T> producerRecord = new ProducerRecord<>(producerTopic, message);
-            messagePublisherUtil.publishOnTopic(producerRecord, kafkaHeader);
-            log.info("Successfully published Payload with Correlation-Id {} to Kafka topic: {} in {} milliseconds", correlationId, producerTopic,
-                    (System.currentTimeMillis() - startedAt));
+            if (publishExecutor.isSchedulingRetries()) {
+                offload(publishContext, topics, message, kafkaHeader);
+                return;
+            }
+            if (payloadSizeEstimator.exceedsMaxRequestSize(message, kafkaHeader)) {
+                claimsCheckService.handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topics, message);
+                return;
+            }
+            ProducerRecord<String, T> producerRecord = new ProducerRecord<>(publishContext.getTopic(), message);
+            CompletableFuture<SendResult<String, T>> future = messagePublisherUtil.publishOnTopicAsync(producerRecord, kafkaHeader);
+            MessagePublisherUtil.rethrowIfFailed(future);
+            handleLateFailure(future, publishContext, topics, message, kafkaHeader);
+            log.info("Successfully published Payload with Correlation-Id {} to Kafka topic: {} in {} milliseconds, attempt {}",
+                    publishContext.getCorrelationId(), publishContext.getTopic(), publishContext.elapsedMillis(),
+                    publishContext.getAttempt());
         } catch (Exception ex) {
             registry.counter(ConfigConstants.MULTIPLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
-            if (ex.getCause() instanceof RecordTooLargeException) {
+            if (MessagePublisherUtil.isRecordTooLarge(ex) || MessagePublisherUtil.isSpilled(ex)) {
                 claimsCheckService.handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topics, message);
             } else {
-                log.error("Exception occurred while posting Payload with Correlation-Id {} to target kafka topic: {} ", correlationId, producerTopic, ex);
+                log.error("Exception occurred while posting Payload with Correlation-Id {} to target kafka topic: {}, attempt {} ",
+                        publishContext.getCorrelationId(), publishContext.getTopic(), publishContext.getAttempt(), ex);
+                // a failure @Retryable would retry goes to the DLT at once when the retry budget is used up
+                if (MessagePublisherUtil.isRetriable(ex) && !retryBudget.allowsRetry(publishContext.getAttempt())) {
+                    // @Retryable also retries on the causes, so the failure is kept as suppressed rather than cause
+                    KafkaException exhausted = new KafkaException(String.format(
+                            "Retry budget exhausted, Payload with Correlation-Id %s is not retried",
+                            publishContext.getCorrelationId()));
+                    exhausted.addSuppressed(ex);
+                    throw exhausted;
+                }
                 throw ex;
             }
         }
     }
 
+    /**
+     * Method hands the validated payload to the publish executor, which runs the send, retry, claims check and DLT
+     * handling of produceMessagesAsync. Retries are scheduled and the DLT handoff is chained to the last attempt, so
+     * no thread waits for the backoff. The outcome is logged, failures are counted by the pipeline.
+     */
+    private void offload(PublishContext publishContext, Map<String, String> topics, T message,
+            Map<String, Object> kafkaHeader) {
+        publishExecutor.submit(() -> publishAsync(0, publishContext, topics, message, kafkaHeader))
+                .whenComplete((outcome, ex) -> {
+                    if (Objects.nonNull(ex))
+                        log.error("Payload with Correlation-Id {} could not be delivered to kafka topic: {}",
+                                publishContext.getCorrelationId(), publishContext.getTopic(), MessagePublisherUtil.unwrap(ex));
+                    else
+                        log.info("Published Payload with Correlation-Id {} for kafka topic: {} with outcome {} in {} milliseconds",
+                                publishContext.getCorrelationId(), publishContext.getTopic(), outcome.getStatus(),
+                                publishContext.elapsedMillis());
+                });
+    }
+
+    /**
+     * Method reacts to failures reported by the broker after produceMessages has returned. Records rejected for their
+     * size are moved to claims check, other failures are counted and logged.
+     */
+    private void handleLateFailure(CompletableFuture<SendResult<String, T>> future, PublishContext publishContext,
+            Map<String, String> topics, T message, Map<String, Object> kafkaHeader) {
+        future.whenComplete((result, ex) -> {
+            if (Objects.isNull(ex))
+                return;
+            registry.counter(ConfigConstants.MULTIPLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
+            if (MessagePublisherUtil.isRecordTooLarge(ex)) {
+                log.info("Broker rejected Payload with Correlation-Id {} for its size, moving it to claims check",
+                        publishContext.getCorrelationId());
+                // started off the producer network thread which completed the send
+                publishExecutor.executor().execute(() -> claimsCheckService
+                        .handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topics, message)
+                        .whenComplete((metadata, claimsCheckEx) -> {
+                            if (Objects.nonNull(claimsCheckEx))
+                                log.error("Claims check failed for Payload with Correlation-Id {}",
+                                        publishContext.getCorrelationId(), claimsCheckEx);
+                        }));
+            } else {
+                log.error("Exception occurred while posting Payload with Correlation-Id {} to target kafka topic: {} ",
+                        publishContext.getCorrelationId(), publishContext.getTopic(), ex);
+            }
+        });
+    }
+
     /**
      * Method Sends the Message to DLT Topic.
      * 
@@ -91,17 +177,178 @@ public class KafkaProducerServiceImpl<T> implements KafkaProducerService<T> {
             Map<String, Object> kafkaHeader) throws TopicNameValidationException, KafkaServerNotFoundException,
             PayloadValidationException, DLTException, ClaimsCheckFailedException {
         long startedAt = System.currentTimeMillis();
-        if (e instanceof ClaimsCheckFailedException || e instanceof DLTException)
+        if (e instanceof ClaimsCheckFailedException || e instanceof DLTException
+                || e instanceof InFlightLimitExceededException)
             throw e;
+        PublishContext publishContext = PublishContextHolder.current(configValidator.getCorrelationId(kafkaHeader),
+                Objects.nonNull(topics) ? topics.get(ConfigConstants.NOTIFICATION_TOPIC_KEY) : null);
+        if (e instanceof CircuitBreakerOpenException) {
+            // the DLT is not tried while the breaker of the topic is open
+            SpooledException spooled = spool(e, publishContext, message, kafkaHeader);
+            throw Objects.isNull(spooled) ? e : spooled;
+        }
         try {
             messagePublisherUtil.produceMessageToDlt(e, topics, message, kafkaHeader);
-        } catch (Exception ex) {
-            log.error("Exception while pushing Payload with Correlation-Id {} to DLT ", correlationId, ex);
-            throw ex;
+        } catch (RuntimeException ex) {
+            log.error("Exception while pushing Payload with Correlation-Id {} to DLT ", publishContext.getCorrelationId(), ex);
+            SpooledException spooled = spool(ex, publishContext, message, kafkaHeader);
+            throw Objects.isNull(spooled) ? ex : spooled;
+        }
+        log.info("Time taken to successfully execute publishMessageOnDltTopic for Payload with Correlation-Id {}: {} milliseconds after {} attempts",
+            publishContext.getCorrelationId(), (System.currentTimeMillis() - startedAt), publishContext.getAttempt());
+        throw new DLTException(String.format("Successfully published Payload with Correlation-Id %s to DLT",
+                publishContext.getCorrelationId()));
+    }
+
+    /**
+     * Method is used to Send Message to kafka topic after validations without blocking the caller. Retry, claims
+     * check and DLT handling run as stages of the returned future.
+     *
+     * @param topics - Map containing target, retry and dead letter topic names
+     * @param message - payload
+     * @param kafkaHeader - Map containing headers to be posted on topic
+     * @return future completed with the metadata of the acknowledged record
+     */
+    @Override
+    public CompletableFuture<RecordMetadata> produceMessagesAsync(Map<String, String> topics, T message,
+            Map<String, Object> kafkaHeader) {
+        try {
+            configValidator.validateInputsForMultipleProducerFlow(topics, message);
+        } catch (RuntimeException ex) {
+            registry.counter(ConfigConstants.MULTIPLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
+            return CompletableFuture.failedFuture(ex);
         }
-        log.info("Time taken to successfully execute publishMessageOnDltTopic for Payload with Correlation-Id {}: {} milliseconds",
-            correlationId, (System.currentTimeMillis() - startedAt));
-        throw new DLTException(String.format("Successfully published Payload with Correlation-Id %s to DLT", correlationId));
+        PublishContext publishContext = PublishContext.start(configValidator.getCorrelationId(kafkaHeader),
+                topics.get(ConfigConstants.NOTIFICATION_TOPIC_KEY));
+        return publishExecutor.submit(() -> publishAsync(0, publishContext, topics, message, kafkaHeader))
+                .thenCompose(outcome -> {
+                    if (outcome.getStatus() == SendOutcome.Status.DLT)
+                        return CompletableFuture.<RecordMetadata>failedFuture(new DLTException(String.format(
+                                "Successfully published Payload with Correlation-Id %s to DLT",
+                                publishContext.getCorrelationId())));
+                    if (outcome.getStatus() == SendOutcome.Status.SPOOLED)
+                        return CompletableFuture.<RecordMetadata>failedFuture(outcome.getException());
+                    log.info("Successfully published Payload with Correlation-Id {} to Kafka topic: {} in {} milliseconds",
+                            publishContext.getCorrelationId(), outcome.getRecordMetadata().topic(),
+                            publishContext.elapsedMillis());
+                    return CompletableFuture.completedFuture(outcome.getRecordMetadata());
+                });
+    }
+
+    /**
+     * Method publishes a batch of messages to the target topic. Topic map and bootstrap server are validated once
+     * for the whole batch and all records are handed to the producer before waiting, so they are pipelined into the
+     * same producer batches. Each record goes through the same retry, claims check and DLT handling as
+     * produceMessagesAsync. The records are handed to the producer on the caller thread in every executor mode, only
+     * the retries and the fallbacks run on the publish executor.
+     *
+     * @param topics - Map containing target, claims check and dead letter topic names
+     * @param messages - payloads
+     * @param kafkaHeaders - headers for each payload, in the same order as messages
+     * @return outcome of each record, in the same order as messages
+     * @throws TopicNameValidationException - for missing topic name
+     * @throws KafkaServerNotFoundException - for missing kafka bootstrap server
+     * @throws PayloadValidationException - when messages and headers lists don't match
+     */
+    @Override
+    @LogException
+    public List<SendOutcome> produceBatch(Map<String, String> topics, List<T> messages,
+            List<Map<String, Object>> kafkaHeaders)
+            throws TopicNameValidationException, KafkaServerNotFoundException, PayloadValidationException {
+        long startedAt = System.currentTimeMillis();
+        if (Objects.isNull(messages) || Objects.isNull(kafkaHeaders) || messages.size() != kafkaHeaders.size())
+            throw new PayloadValidationException(ConfigConstants.INVALID_BATCH_ERROR_MSG);
+        configValidator.validateInputsForBatchProducerFlow(topics);
+        List<CompletableFuture<SendOutcome>> futures = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            int index = i;
+            futures.add(publishBatchRecordAsync(index, topics, messages.get(index), kafkaHeaders.get(index))
+                    .exceptionally(ex -> SendOutcome.fromFailure(index, MessagePublisherUtil.unwrap(ex))));
+        }
+        List<SendOutcome> outcomes = new ArrayList<>(futures.size());
+        int failed = 0;
+        for (CompletableFuture<SendOutcome> future : futures) {
+            SendOutcome outcome = future.join();
+            if (!outcome.isSuccess())
+                failed++;
+            outcomes.add(outcome);
+        }
+        log.info("Published batch of {} Payloads to Kafka topic: {} with {} not delivered to target topic in {} milliseconds",
+                outcomes.size(), topics.get(ConfigConstants.NOTIFICATION_TOPIC_KEY), failed,
+                (System.currentTimeMillis() - startedAt));
+        return outcomes;
+    }
+
+    private CompletableFuture<SendOutcome> publishBatchRecordAsync(int index, Map<String, String> topics, T message,
+            Map<String, Object> kafkaHeader) {
+        try {
+            configValidator.payloadValidation(message);
+        } catch (RuntimeException ex) {
+            registry.counter(ConfigConstants.MULTIPLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
+            return CompletableFuture.failedFuture(ex);
+        }
+        PublishContext publishContext = PublishContext.start(configValidator.getCorrelationId(kafkaHeader),
+                topics.get(ConfigConstants.NOTIFICATION_TOPIC_KEY));
+        // the caller waits for the whole batch, so the records are handed to the producer from its thread, a task per
+        // record would have the executor reject a batch larger than its queue
+        try {
+            return publishAsync(index, publishContext, topics, message, kafkaHeader);
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    /**
+     * Method sends an already validated message and resolves where it ended up: target topic, claims check or DLT.
+     * The future fails only when the record could not be delivered anywhere.
+     */
+    private CompletableFuture<SendOutcome> publishAsync(int index, PublishContext publishContext,
+            Map<String, String> topics, T message, Map<String, Object> kafkaHeader) {
+        if (payloadSizeEstimator.exceedsMaxRequestSize(message, kafkaHeader))
+            return claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topics, message)
+                    .thenApply(metadata -> SendOutcome.claimsCheck(index, metadata, null));
+        return messagePublisherUtil.publishWithRetryAsync(publishContext.getTopic(), message, kafkaHeader)
+                .handleAsync((result, ex) -> Objects.isNull(ex)
+                        ? CompletableFuture.completedFuture(SendOutcome.success(index, result.getRecordMetadata()))
+                        : recoverAsync(index, publishContext, MessagePublisherUtil.unwrap(ex), topics, message, kafkaHeader),
+                        publishExecutor.executor())
+                .thenCompose(Function.identity());
+    }
+
+    /**
+     * Asynchronous counterpart of the claims check fallback and publishMessageOnDltTopic.
+     */
+    private CompletableFuture<SendOutcome> recoverAsync(int index, PublishContext publishContext, Throwable ex,
+            Map<String, String> topics, T message, Map<String, Object> kafkaHeader) {
+        registry.counter(ConfigConstants.MULTIPLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
+        if (MessagePublisherUtil.isRecordTooLarge(ex) || MessagePublisherUtil.isSpilled(ex))
+            return claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topics, message)
+                    .thenApply(metadata -> SendOutcome.claimsCheck(index, metadata, ex));
+        log.error("Exception occurred while posting Payload with Correlation-Id {} to target kafka topic: {} after {} milliseconds",
+                publishContext.getCorrelationId(), publishContext.getTopic(), publishContext.elapsedMillis(), ex);
+        return messagePublisherUtil.produceMessageToDltAsync(ex, topics, message, kafkaHeader)
+                .handleAsync((dltResult, dltEx) -> {
+                    if (Objects.isNull(dltEx))
+                        return CompletableFuture.completedFuture(SendOutcome.dlt(index, dltResult.getRecordMetadata(), ex));
+                    Throwable cause = MessagePublisherUtil.unwrap(dltEx);
+                    SpooledException spooled = spool(cause, publishContext, message, kafkaHeader);
+                    return Objects.isNull(spooled) ? CompletableFuture.<SendOutcome>failedFuture(cause)
+                            : CompletableFuture.completedFuture(SendOutcome.spooled(index, spooled));
+                }, publishExecutor.executor()).thenCompose(Function.identity());
+    }
+
+    /**
+     * Method appends the message to the local spool when it could be sent neither to its topic nor to the DLT.
+     *
+     * @return the failure reporting the spooled message, null if it was not spooled
+     */
+    private SpooledException spool(Throwable ex, PublishContext publishContext, T message,
+            Map<String, Object> kafkaHeader) {
+        if (!messagePublisherUtil.spool(ex, publishContext.getTopic(), message, kafkaHeader))
+            return null;
+        return new SpooledException(String.format(
+                "Spooled Payload with Correlation-Id %s, it is published once kafka topic %s is available",
+                publishContext.getCorrelationId(), publishContext.getTopic()));
     }
 
 }
@@ -1,12 +1,20 @@
 package net.apmoller.crb.ohm.microservices.producer.library.services;
 
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.*;
+import org.apache.kafka.clients.producer.RecordMetadata;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface ProducerService<T> {
 
     void produceMessages(T message, Map<String, Object> kafkaHeader)
             throws TopicNameValidationException, KafkaServerNotFoundException, PayloadValidationException,
             KafkaHeaderValidationException, DLTException, ClaimsCheckFailedException;
+
+    /**
+     * Sends the message without blocking the caller. The returned future completes with the record metadata once
+     * the broker acknowledges the record, or exceptionally with the same exceptions produceMessages throws.
+     */
+    CompletableFuture<RecordMetadata> produceMessagesAsync(T message, Map<String, Object> kafkaHeader);
 }
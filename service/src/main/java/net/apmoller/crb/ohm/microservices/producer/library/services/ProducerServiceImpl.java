@@ -5,11 +5,18 @@ import lombok.extern.slf4j.Slf4j;
 import net.apmoller.crb.ohm.microservices.aop.annotations.LogException;
 import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.*;
+import net.apmoller.crb.ohm.microservices.producer.library.models.PublishContext;
 import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishContextHolder;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
 import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.context.ApplicationContext;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Recover;
@@ -19,6 +26,9 @@ import org.springframework.transaction.TransactionTimedOutException;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 @Slf4j
 @Service
@@ -35,7 +45,14 @@ public class ProducerServiceImpl<T> implements ProducerService<T> {
     @Autowired
     private MeterRegistry registry;
 
-    private String correlationId;
+    @Autowired
+    private PayloadSizeEstimator payloadSizeEstimator;
+
+    @Autowired
+    private PublishExecutor publishExecutor;
+
+    @Autowired
+    private RetryBudget retryBudget;
 
     @Autowired
     public ProducerServiceImpl(ApplicationContext context, ConfigValidator<T> configValidator,
@@ -63,33 +80,95 @@ public class ProducerServiceImpl<T> implements ProducerService<T> {
     public void produceMessages(T message, Map<String, Object> kafkaHeader)
             throws TopicNameValidationException, KafkaServerNotFoundException, PayloadValidationException,
             KafkaHeaderValidationException, DLTException, ClaimsCheckFailedException {
-        long startedAt = System.currentTimeMillis();
-        String producerTopic = null;
+        PublishContext publishContext = PublishContextHolder.startAttempt(configValidator.getCorrelationId(kafkaHeader),
+                context.getEnvironment().resolvePlaceholders(ConfigConstants.NOTIFICATION_TOPIC));
+        String producerTopic = publishContext.getTopic();
         try {
-            producerTopic = context.getEnvironment().resolvePlaceholders(ConfigConstants.NOTIFICATION_TOPIC);
             configValidator.validateInputs(producerTopic, message);
-            correlationId = configValidator.getCorrelationId(kafkaHeader);
+            if (publishExecutor.isSchedulingRetries()) {
+                offload(publishContext, message, kafkaHeader);
+                return;
+            }
+            if (payloadSizeEstimator.exceedsMaxRequestSize(message, kafkaHeader)) {
+                claimsCheckService.handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, claimsCheckTopics(), message);
+                return;
+            }
             ProducerRecord<String, T> producerRecord = new ProducerRecord<>(producerTopic, message);
-            messagePublisherUtil.publishOnTopic(producerRecord, kafkaHeader);
-            log.info("Successfully published Payload with Correlation-Id {} to Kafka topic: {} in {} milliseconds", correlationId, producerTopic,
-                    (System.currentTimeMillis() - startedAt));
+            CompletableFuture<SendResult<String, T>> future = messagePublisherUtil.publishOnTopicAsync(producerRecord, kafkaHeader);
+            MessagePublisherUtil.rethrowIfFailed(future);
+            handleLateFailure(future, publishContext, message, kafkaHeader);
+            log.info("Successfully published Payload with Correlation-Id {} to Kafka topic: {} in {} milliseconds, attempt {}",
+                    publishContext.getCorrelationId(), producerTopic, publishContext.elapsedMillis(),
+                    publishContext.getAttempt());
         } catch (Exception ex) {
-            log.error("Unable to push Payload with Correlation-Id {} to kafka topic: {}", correlationId, producerTopic, ex);
             registry.counter(ConfigConstants.SINGLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
-            if (ex.getCause() instanceof RecordTooLargeException) {
-                var claimsCheckTopic = context.getEnvironment().resolvePlaceholders(ConfigConstants.CLAIMS_CHECK);
-                var claimsCheckDlt = context.getEnvironment().resolvePlaceholders(ConfigConstants.CLAIMS_CHECK_DLT);
-                Map<String, String> topics = new HashMap<>();
-                topics.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY, claimsCheckTopic);
-                topics.put(ConfigConstants.CLAIMS_CHECK_DLT_KEY, claimsCheckDlt);
-                claimsCheckService.handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topics, message);
+            if (MessagePublisherUtil.isRecordTooLarge(ex) || MessagePublisherUtil.isSpilled(ex)) {
+                claimsCheckService.handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, claimsCheckTopics(), message);
             } else {
-                log.error("Unable to push Payload with Correlation-Id {} to kafka topic: {}", correlationId, producerTopic, ex);
+                log.error("Unable to push Payload with Correlation-Id {} to kafka topic: {}, attempt {}",
+                        publishContext.getCorrelationId(), producerTopic, publishContext.getAttempt(), ex);
+                // a failure @Retryable would retry goes to the DLT at once when the retry budget is used up
+                if (MessagePublisherUtil.isRetriable(ex) && !retryBudget.allowsRetry(publishContext.getAttempt())) {
+                    // @Retryable also retries on the causes, so the failure is kept as suppressed rather than cause
+                    KafkaException exhausted = new KafkaException(String.format(
+                            "Retry budget exhausted, Payload with Correlation-Id %s is not retried",
+                            publishContext.getCorrelationId()));
+                    exhausted.addSuppressed(ex);
+                    throw exhausted;
+                }
                 throw ex;
             }
         }
     }
 
+    /**
+     * Method hands the validated payload to the publish executor, which runs the send, retry, claims check and DLT
+     * handling of produceMessagesAsync. Retries are scheduled and the DLT handoff is chained to the last attempt, so
+     * no thread waits for the backoff. The outcome is logged, failures are counted by the pipeline.
+     */
+    private void offload(PublishContext publishContext, T message, Map<String, Object> kafkaHeader) {
+        publishExecutor.submit(() -> publishAsync(publishContext, message, kafkaHeader))
+                .whenComplete((metadata, ex) -> {
+                    Throwable cause = Objects.isNull(ex) ? null : MessagePublisherUtil.unwrap(ex);
+                    if (Objects.isNull(cause))
+                        log.info("Published Payload with Correlation-Id {} to Kafka topic: {} in {} milliseconds",
+                                publishContext.getCorrelationId(), metadata.topic(), publishContext.elapsedMillis());
+                    else if (cause instanceof DLTException || cause instanceof SpooledException)
+                        log.info(cause.getMessage());
+                    else
+                        log.error("Payload with Correlation-Id {} could not be delivered to kafka topic: {}",
+                                publishContext.getCorrelationId(), publishContext.getTopic(), cause);
+                });
+    }
+
+    /**
+     * Method reacts to failures reported by the broker after produceMessages has returned. Records rejected for their
+     * size are moved to claims check, other failures are counted and logged.
+     */
+    private void handleLateFailure(CompletableFuture<SendResult<String, T>> future, PublishContext publishContext,
+            T message, Map<String, Object> kafkaHeader) {
+        future.whenComplete((result, ex) -> {
+            if (Objects.isNull(ex))
+                return;
+            registry.counter(ConfigConstants.SINGLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
+            if (MessagePublisherUtil.isRecordTooLarge(ex)) {
+                log.info("Broker rejected Payload with Correlation-Id {} for its size, moving it to claims check",
+                        publishContext.getCorrelationId());
+                // started off the producer network thread which completed the send
+                publishExecutor.executor().execute(() -> claimsCheckService
+                        .handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, claimsCheckTopics(), message)
+                        .whenComplete((metadata, claimsCheckEx) -> {
+                            if (Objects.nonNull(claimsCheckEx))
+                                log.error("Claims check failed for Payload with Correlation-Id {}",
+                                        publishContext.getCorrelationId(), claimsCheckEx);
+                        }));
+            } else {
+                log.error("Unable to push Payload with Correlation-Id {} to kafka topic: {}",
+                        publishContext.getCorrelationId(), publishContext.getTopic(), ex);
+            }
+        });
+    }
+
     /**
      * Method Sends the Message to DLT Topic.
      */
@@ -99,17 +178,117 @@ public class ProducerServiceImpl<T> implements ProducerService<T> {
             throws TopicNameValidationException, KafkaServerNotFoundException, PayloadValidationException,
             KafkaHeaderValidationException, DLTException {
         long startedAt = System.currentTimeMillis();
-        if (e instanceof ClaimsCheckFailedException || e instanceof DLTException)
+        if (e instanceof ClaimsCheckFailedException || e instanceof DLTException
+                || e instanceof InFlightLimitExceededException)
             throw e;
+        PublishContext publishContext = PublishContextHolder.current(configValidator.getCorrelationId(kafkaHeader),
+                context.getEnvironment().resolvePlaceholders(ConfigConstants.NOTIFICATION_TOPIC));
+        if (e instanceof CircuitBreakerOpenException) {
+            // the DLT is not tried while the breaker of the topic is open
+            SpooledException spooled = spool(e, publishContext, message, kafkaHeader);
+            throw Objects.isNull(spooled) ? e : spooled;
+        }
         try {
             messagePublisherUtil.produceMessageToDlt(e, message, kafkaHeader);
-        } catch (Exception ex) {
-            log.error("Exception while pushing Payload with Correlation-Id {} to DLT ", correlationId, ex);
-            throw ex;
+        } catch (RuntimeException ex) {
+            log.error("Exception while pushing Payload with Correlation-Id {} to DLT ", publishContext.getCorrelationId(), ex);
+            SpooledException spooled = spool(ex, publishContext, message, kafkaHeader);
+            throw Objects.isNull(spooled) ? ex : spooled;
+        }
+        log.info("Time taken to successfully execute publishMessageOnRetryOrDltTopic for Payload with Correlation-Id {}: {} milliseconds after {} attempts",
+            publishContext.getCorrelationId(), (System.currentTimeMillis() - startedAt), publishContext.getAttempt());
+        throw new DLTException(String.format("Successfully published Payload with Correlation-Id %s to DLT",
+                publishContext.getCorrelationId()));
+    }
+
+    /**
+     * Method is used to Send Message to kafka topic after validations without blocking the caller. Retry, claims
+     * check and DLT handling run as stages of the returned future.
+     *
+     * @param message - payload
+     * @param kafkaHeader - headers map
+     * @return future completed with the metadata of the acknowledged record
+     */
+    @Override
+    public CompletableFuture<RecordMetadata> produceMessagesAsync(T message, Map<String, Object> kafkaHeader) {
+        String producerTopic;
+        try {
+            producerTopic = context.getEnvironment().resolvePlaceholders(ConfigConstants.NOTIFICATION_TOPIC);
+            configValidator.validateInputs(producerTopic, message);
+        } catch (RuntimeException ex) {
+            registry.counter(ConfigConstants.SINGLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
+            return CompletableFuture.failedFuture(ex);
         }
-        log.info("Time taken to successfully execute publishMessageOnRetryOrDltTopic for Payload with Correlation-Id {}: {} milliseconds",
-            correlationId, (System.currentTimeMillis() - startedAt));
-        throw new DLTException(String.format("Successfully published Payload with Correlation-Id %s to DLT", correlationId));
+        PublishContext publishContext = PublishContext.start(configValidator.getCorrelationId(kafkaHeader), producerTopic);
+        return publishExecutor.submit(() -> publishAsync(publishContext, message, kafkaHeader));
+    }
+
+    /**
+     * Method sends an already validated message, falling back to claims check or DLT.
+     */
+    private CompletableFuture<RecordMetadata> publishAsync(PublishContext publishContext, T message,
+            Map<String, Object> kafkaHeader) {
+        if (payloadSizeEstimator.exceedsMaxRequestSize(message, kafkaHeader))
+            return claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, claimsCheckTopics(),
+                    message);
+        return messagePublisherUtil.publishWithRetryAsync(publishContext.getTopic(), message, kafkaHeader)
+                .handleAsync((result, ex) -> {
+                    if (Objects.isNull(ex)) {
+                        log.info("Successfully published Payload with Correlation-Id {} to Kafka topic: {} in {} milliseconds",
+                                publishContext.getCorrelationId(), publishContext.getTopic(), publishContext.elapsedMillis());
+                        return CompletableFuture.completedFuture(result.getRecordMetadata());
+                    }
+                    return recoverAsync(MessagePublisherUtil.unwrap(ex), publishContext, message, kafkaHeader);
+                }, publishExecutor.executor()).thenCompose(Function.identity());
+    }
+
+    /**
+     * Asynchronous counterpart of the claims check fallback and publishMessageOnDltTopic.
+     */
+    private CompletableFuture<RecordMetadata> recoverAsync(Throwable ex, PublishContext publishContext, T message,
+            Map<String, Object> kafkaHeader) {
+        registry.counter(ConfigConstants.SINGLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
+        if (MessagePublisherUtil.isRecordTooLarge(ex) || MessagePublisherUtil.isSpilled(ex))
+            return claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, claimsCheckTopics(),
+                    message);
+        log.error("Unable to push Payload with Correlation-Id {} to kafka topic: {} after {} milliseconds",
+                publishContext.getCorrelationId(), publishContext.getTopic(), publishContext.elapsedMillis(), ex);
+        return messagePublisherUtil.produceMessageToDltAsync(ex, message, kafkaHeader)
+                .handleAsync((dltResult, dltEx) -> {
+                    if (Objects.isNull(dltEx))
+                        return CompletableFuture.<RecordMetadata>failedFuture(new DLTException(String.format(
+                                "Successfully published Payload with Correlation-Id %s to DLT",
+                                publishContext.getCorrelationId())));
+                    Throwable cause = MessagePublisherUtil.unwrap(dltEx);
+                    SpooledException spooled = spool(cause, publishContext, message, kafkaHeader);
+                    return CompletableFuture.<RecordMetadata>failedFuture(Objects.isNull(spooled) ? cause : spooled);
+                }, publishExecutor.executor()).thenCompose(Function.identity());
+    }
+
+    /**
+     * Method appends the message to the local spool when it could be sent neither to its topic nor to the DLT.
+     *
+     * @return the failure reporting the spooled message, null if it was not spooled
+     */
+    private SpooledException spool(Throwable ex, PublishContext publishContext, T message,
+            Map<String, Object> kafkaHeader) {
+        if (!messagePublisherUtil.spool(ex, publishContext.getTopic(), message, kafkaHeader))
+            return null;
+        return new SpooledException(String.format(
+                "Spooled Payload with Correlation-Id %s, it is published once kafka topic %s is available",
+                publishContext.getCorrelationId(), publishContext.getTopic()));
+    }
+
+    /**
+     * Method builds the claims check topic map from config for single producer flow.
+     */
+    private Map<String, String> claimsCheckTopics() {
+        Map<String, String> topics = new HashMap<>();
+        topics.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY,
+                context.getEnvironment().resolvePlaceholders(ConfigConstants.CLAIMS_CHECK));
+        topics.put(ConfigConstants.CLAIMS_CHECK_DLT_KEY,
+                context.getEnvironment().resolvePlaceholders(ConfigConstants.CLAIMS_CHECK_DLT));
+        return topics;
     }
 
 }
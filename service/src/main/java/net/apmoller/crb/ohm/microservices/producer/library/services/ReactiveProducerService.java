@@ -0,0 +1,31 @@
+package net.apmoller.crb.ohm.microservices.producer.library.services;
+
+import net.apmoller.crb.ohm.microservices.producer.library.models.SendOutcome;
+import reactor.core.publisher.Flux;
+
+import java.util.Map;
+import java.util.function.Function;
+
+public interface ReactiveProducerService<T> {
+
+    /**
+     * Sends the messages as they are emitted and emits the outcome of every message (target topic, claims check, DLT,
+     * spooled or failed) in the order of the input. Messages are requested from upstream only while fewer than
+     * kafka.producer.reactive.max-in-flight of them are waiting for their outcome and downstream has demand. The
+     * returned Flux fails only when the topic map or bootstrap server is invalid.
+     *
+     * @param topics - Map containing target, claims check and dead letter topic names
+     * @param messages - payloads
+     * @param kafkaHeaders - returns the headers of a payload
+     */
+    Flux<SendOutcome> produceMessages(Map<String, String> topics, Flux<T> messages,
+            Function<? super T, Map<String, Object>> kafkaHeaders);
+
+    /**
+     * Sends the messages with the same headers, see {@link #produceMessages(Map, Flux, Function)}.
+     */
+    default Flux<SendOutcome> produceMessages(Map<String, String> topics, Flux<T> messages,
+            Map<String, Object> kafkaHeader) {
+        return produceMessages(topics, messages, message -> kafkaHeader);
+    }
+}
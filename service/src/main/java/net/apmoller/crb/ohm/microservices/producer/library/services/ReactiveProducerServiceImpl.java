@@ -0,0 +1,140 @@
+package net.apmoller.crb.ohm.microservices.producer.library.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.SpooledException;
+import net.apmoller.crb.ohm.microservices.producer.library.models.PublishContext;
+import net.apmoller.crb.ohm.microservices.producer.library.models.SendOutcome;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Reactive counterpart of produceBatch for WebFlux callers. Each message goes through the same pipeline as
+ * produceMessagesAsync: the send with scheduled retries, then claims check for payloads too large and DLT for other
+ * failures, then the local spool when the DLT fails too. Every stage completes on the producer's callbacks, so no
+ * thread waits for an acknowledgement or a backoff. In caller executor mode the hand off to the producer, which can
+ * block on metadata or a full buffer.memory, runs on a bounded elastic thread instead of the subscriber's thread.
+ * Results are emitted on a bounded elastic thread as well, so the recovery, which sends to claims check or the DLT,
+ * and the next messages requested by flatMapSequential never run on the producer network thread.
+ */
+@Slf4j
+@Service
+public class ReactiveProducerServiceImpl<T> implements ReactiveProducerService<T> {
+
+    private final ConfigValidator<T> configValidator;
+
+    private final MessagePublisherUtil<T> messagePublisherUtil;
+
+    private final ClaimsCheckService<T> claimsCheckService;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private PayloadSizeEstimator payloadSizeEstimator;
+
+    @Autowired
+    private PublishExecutor publishExecutor;
+
+    @Value("${kafka.producer.reactive.max-in-flight:256}")
+    private int maxInFlight = 256;
+
+    @Autowired
+    public ReactiveProducerServiceImpl(ConfigValidator<T> configValidator, MessagePublisherUtil<T> messagePublisherUtil,
+            ClaimsCheckService<T> claimsCheckService) {
+        this.configValidator = configValidator;
+        this.messagePublisherUtil = messagePublisherUtil;
+        this.claimsCheckService = claimsCheckService;
+    }
+
+    @Override
+    public Flux<SendOutcome> produceMessages(Map<String, String> topics, Flux<T> messages,
+            Function<? super T, Map<String, Object>> kafkaHeaders) {
+        return Flux.defer(() -> {
+            configValidator.validateInputsForBatchProducerFlow(topics);
+            // at most max-in-flight messages are requested before their outcome is emitted, in the order of the input
+            return messages.index().flatMapSequential(
+                    indexed -> publish(indexed.getT1().intValue(), topics, indexed.getT2(), kafkaHeaders), maxInFlight);
+        });
+    }
+
+    /**
+     * Method sends an already validated message and resolves where it ended up. The Mono never fails, a message which
+     * could not be delivered anywhere gets a FAILED outcome.
+     */
+    private Mono<SendOutcome> publish(int index, Map<String, String> topics, T message,
+            Function<? super T, Map<String, Object>> kafkaHeaders) {
+        return Mono.defer(() -> {
+            try {
+                configValidator.payloadValidation(message);
+            } catch (RuntimeException ex) {
+                registry.counter(ConfigConstants.MULTIPLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
+                return Mono.<SendOutcome>error(ex);
+            }
+            Map<String, Object> kafkaHeader = kafkaHeaders.apply(message);
+            PublishContext publishContext = PublishContext.start(configValidator.getCorrelationId(kafkaHeader),
+                    topics.get(ConfigConstants.NOTIFICATION_TOPIC_KEY));
+            if (payloadSizeEstimator.exceedsMaxRequestSize(message, kafkaHeader))
+                return claimsCheck(index, topics, message, kafkaHeader, null);
+            return send(publishContext, message, kafkaHeader)
+                    .map(result -> SendOutcome.success(index, result.getRecordMetadata()))
+                    .onErrorResume(ex -> recover(index, publishContext, MessagePublisherUtil.unwrap(ex), topics, message,
+                            kafkaHeader));
+        }).onErrorResume(ex -> Mono.just(SendOutcome.fromFailure(index, MessagePublisherUtil.unwrap(ex))));
+    }
+
+    private Mono<SendResult<String, T>> send(PublishContext publishContext, T message,
+            Map<String, Object> kafkaHeader) {
+        Mono<SendResult<String, T>> sent = Mono.defer(() -> Mono.fromFuture(publishExecutor.submit(
+                () -> messagePublisherUtil.publishWithRetryAsync(publishContext.getTopic(), message, kafkaHeader))))
+                .publishOn(Schedulers.boundedElastic());
+        return publishExecutor.isOffloading() ? sent : sent.subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Reactive counterpart of the claims check fallback and publishMessageOnDltTopic.
+     */
+    private Mono<SendOutcome> recover(int index, PublishContext publishContext, Throwable ex,
+            Map<String, String> topics, T message, Map<String, Object> kafkaHeader) {
+        registry.counter(ConfigConstants.MULTIPLE_PRODUCER_TARGET_TOPIC_ERROR_TOTAL).increment();
+        if (MessagePublisherUtil.isRecordTooLarge(ex) || MessagePublisherUtil.isSpilled(ex))
+            return claimsCheck(index, topics, message, kafkaHeader, ex);
+        log.error("Exception occurred while posting Payload with Correlation-Id {} to target kafka topic: {} after {} milliseconds",
+                publishContext.getCorrelationId(), publishContext.getTopic(), publishContext.elapsedMillis(), ex);
+        return Mono.defer(() -> Mono.fromFuture(messagePublisherUtil.produceMessageToDltAsync(ex, topics, message,
+                kafkaHeader)))
+                .publishOn(Schedulers.boundedElastic())
+                .map(dltResult -> SendOutcome.dlt(index, dltResult.getRecordMetadata(), ex))
+                .onErrorResume(dltEx -> spool(index, publishContext, MessagePublisherUtil.unwrap(dltEx), message,
+                        kafkaHeader));
+    }
+
+    private Mono<SendOutcome> claimsCheck(int index, Map<String, String> topics, T message,
+            Map<String, Object> kafkaHeader, Throwable ex) {
+        return Mono.defer(() -> Mono.fromFuture(
+                claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topics, message)))
+                .publishOn(Schedulers.boundedElastic())
+                .map(metadata -> SendOutcome.claimsCheck(index, metadata, ex));
+    }
+
+    private Mono<SendOutcome> spool(int index, PublishContext publishContext, Throwable ex, T message,
+            Map<String, Object> kafkaHeader) {
+        if (!messagePublisherUtil.spool(ex, publishContext.getTopic(), message, kafkaHeader))
+            return Mono.error(ex);
+        return Mono.just(SendOutcome.spooled(index, new SpooledException(String.format(
+                "Spooled Payload with Correlation-Id %s, it is published once kafka topic %s is available",
+                publishContext.getCorrelationId(), publishContext.getTopic()))));
+    }
+}
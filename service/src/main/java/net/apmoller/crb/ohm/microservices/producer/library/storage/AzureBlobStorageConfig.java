@@ -1,15 +1,21 @@
 package net.apmoller.crb.ohm.microservices.producer.library.storage;
 
+import com.azure.core.http.HttpClient;
+import com.azure.storage.blob.BlobServiceAsyncClient;
 import com.azure.storage.blob.BlobServiceClient;
 import com.azure.storage.blob.BlobServiceClientBuilder;
 import com.azure.storage.common.StorageSharedKeyCredential;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.util.Locale;
+import java.util.Objects;
 
 @Configuration
+@ConditionalOnProperty(name = ConfigConstants.CLAIMS_CHECK_STORE, havingValue = "azure", matchIfMissing = true)
 public class AzureBlobStorageConfig {
 
     @Value("${azure.storage.account-name}")
@@ -18,10 +24,28 @@ public class AzureBlobStorageConfig {
     @Value("${azure.storage.account-key}")
     private String accountKey;
 
+    private BlobServiceClientBuilder blobServiceClientBuilder;
+
     @Bean
     public BlobServiceClient getBlobServiceClient() {
-        return new BlobServiceClientBuilder()
-                .endpoint(String.format(Locale.ROOT, "https://%s.blob.core.windows.net", accountName))
-                .credential(new StorageSharedKeyCredential(accountName, accountKey)).buildClient();
+        return blobServiceClientBuilder().buildClient();
+    }
+
+    @Bean
+    public BlobServiceAsyncClient getBlobServiceAsyncClient() {
+        return blobServiceClientBuilder().buildAsyncClient();
+    }
+
+    /**
+     * Method returns the builder of both clients, configured once with a single HTTP client, so the sync and async
+     * clients share its connection pool.
+     */
+    private synchronized BlobServiceClientBuilder blobServiceClientBuilder() {
+        if (Objects.isNull(blobServiceClientBuilder))
+            blobServiceClientBuilder = new BlobServiceClientBuilder()
+                    .endpoint(String.format(Locale.ROOT, "https://%s.blob.core.windows.net", accountName))
+                    .credential(new StorageSharedKeyCredential(accountName, accountKey))
+                    .httpClient(HttpClient.createDefault());
+        return blobServiceClientBuilder;
     }
 }
\ No newline at end of file
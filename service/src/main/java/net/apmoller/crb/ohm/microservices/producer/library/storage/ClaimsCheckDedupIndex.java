@@ -0,0 +1,127 @@
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Index of the claims check payloads stored recently under a content hash name, so a payload sent again is not
+ * compressed and uploaded a second time. Holds the last claims-check.dedup.max-entries hashes, each for at most
+ * claims-check.dedup.max-age-ms, which should be shorter than the retention of the store. The index is local to the
+ * process, a payload sent through another instance is stored again under the same name.
+ */
+@Component
+public class ClaimsCheckDedupIndex {
+
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${claims-check.dedup.max-entries:1024}")
+    private int maxEntries = 1024;
+
+    @Value("${claims-check.dedup.max-age-ms:86400000}")
+    private long maxAge = 86400000L;
+
+    private final Map<String, IndexedLocation> locations = Collections
+            .synchronizedMap(new LinkedHashMap<String, IndexedLocation>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, IndexedLocation> eldest) {
+                    return size() > maxEntries;
+                }
+            });
+
+    /**
+     * Method returns the location the payload with the content hash was stored at, or null if it is not indexed or
+     * was indexed more than max-age ago.
+     *
+     * @param contentHash - content hash of the payload
+     */
+    public String get(String contentHash) {
+        IndexedLocation location = locations.get(contentHash);
+        if (Objects.isNull(location)) {
+            registry.counter(ConfigConstants.CLAIMS_CHECK_DEDUP_MISS_TOTAL).increment();
+            return null;
+        }
+        if (System.currentTimeMillis() - location.indexedAt > maxAge) {
+            locations.remove(contentHash, location);
+            registry.counter(ConfigConstants.CLAIMS_CHECK_DEDUP_MISS_TOTAL).increment();
+            return null;
+        }
+        registry.counter(ConfigConstants.CLAIMS_CHECK_DEDUP_HIT_TOTAL).increment();
+        return location.location;
+    }
+
+    /**
+     * Method indexes the location a payload was stored at.
+     *
+     * @param contentHash - content hash of the payload
+     * @param location - location returned by the store
+     */
+    public void put(String contentHash, String location) {
+        locations.put(contentHash, new IndexedLocation(location, System.currentTimeMillis()));
+    }
+
+    /**
+     * Method removes a hash, e.g. when the payload it points to is known to be gone.
+     *
+     * @param contentHash - content hash of the payload
+     */
+    public void remove(String contentHash) {
+        locations.remove(contentHash);
+    }
+
+    public int size() {
+        return locations.size();
+    }
+
+    /**
+     * Method returns a new digest for content hashes.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Method returns the digest as a lower case hex string, usable in blob and file names.
+     *
+     * @param digest - digest of the content
+     */
+    public static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static final class IndexedLocation {
+
+        private final String location;
+
+        private final long indexedAt;
+
+        private IndexedLocation(String location, long indexedAt) {
+            this.location = location;
+            this.indexedAt = indexedAt;
+        }
+    }
+}
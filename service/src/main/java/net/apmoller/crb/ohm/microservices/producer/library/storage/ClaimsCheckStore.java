@@ -0,0 +1,36 @@
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage the claims check payloads are written to, selected with claims-check.store: azure (default), local or
+ * memory. The location returned for a payload is sent on the claims check topic.
+ */
+public interface ClaimsCheckStore {
+
+    /**
+     * Method stores the payload written by the writer under the name and returns its location.
+     *
+     * @param name - unique name of the payload
+     * @param metadata - metadata stored with the payload, may be null
+     * @param writer - writes the payload
+     */
+    String store(String name, Map<String, String> metadata, PayloadWriter writer) throws IOException;
+
+    /**
+     * Asynchronous counterpart of {@link #store(String, Map, PayloadWriter)}.
+     */
+    CompletableFuture<String> storeAsync(String name, Map<String, String> metadata, PayloadWriter writer);
+
+    /**
+     * Writes a payload to the store output stream, without closing it. May be called again if a store retries.
+     */
+    @FunctionalInterface
+    interface PayloadWriter {
+
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
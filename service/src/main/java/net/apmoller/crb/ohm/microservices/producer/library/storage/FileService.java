@@ -1,43 +1,288 @@
-package net.apmoller.crb.ohm.microservices.producer.library.storage;
-
-import com.azure.storage.blob.BlobContainerClient;
-import com.azure.storage.blob.BlobServiceClient;
-import com.azure.storage.blob.specialized.BlobOutputStream;
-import com.azure.storage.blob.specialized.BlockBlobClient;
-import lombok.NonNull;
-import lombok.extern.log4j.Log4j2;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Service;
-import java.io.IOException;
-
-@Log4j2
-@Service
-public class FileService {
-
-    private final BlobServiceClient blobServiceClient;
-
-    @Autowired
-    public FileService(BlobServiceClient blobServiceClient) {
-        this.blobServiceClient = blobServiceClient;
-    }
-
-    public String uploadFile(byte[] file, String containerName, String filename) throws IOException {
-        BlobContainerClient blobContainerClient = getBlobContainerClient(containerName);
-        String fileNameFinal = filename.concat(".dat");
-        BlockBlobClient blockBlobClient = blobContainerClient.getBlobClient(fileNameFinal).getBlockBlobClient();
-        try (BlobOutputStream bos = blockBlobClient.getBlobOutputStream()) {
-            bos.write(file);
-        }
-        String url = blockBlobClient.getBlobUrl();
-        log.info("blob url {} ", url);
-        return url;
-    }
-
-    private @NonNull BlobContainerClient getBlobContainerClient(@NonNull String containerName) {
-        BlobContainerClient blobContainerClient = blobServiceClient.getBlobContainerClient(containerName);
-        if (!blobContainerClient.exists()) {
-            blobContainerClient.create();
-        }
-        return blobContainerClient;
-    }
-}
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import com.azure.storage.blob.BlobAsyncClient;
+import com.azure.storage.blob.BlobContainerAsyncClient;
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobServiceAsyncClient;
+import com.azure.storage.blob.BlobServiceClient;
+import com.azure.storage.blob.models.BlobErrorCode;
+import com.azure.storage.blob.models.BlobStorageException;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
+import com.azure.storage.blob.specialized.BlobOutputStream;
+import com.azure.storage.blob.specialized.BlockBlobClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+@Log4j2
+@Service
+@ConditionalOnProperty(name = ConfigConstants.CLAIMS_CHECK_STORE, havingValue = "azure", matchIfMissing = true)
+public class FileService implements ClaimsCheckStore {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final BlobServiceClient blobServiceClient;
+
+    private final BlobServiceAsyncClient blobServiceAsyncClient;
+
+    @Value(ConfigConstants.AZURE_STORAGE_CONTAINER_NAME)
+    private String containerName;
+
+    @Value("${azure.storage.upload.block-size:4194304}")
+    private long blockSize;
+
+    @Value("${azure.storage.upload.max-concurrency:4}")
+    private int maxConcurrency;
+
+    @Value("${azure.storage.upload.max-single-upload-size:4194304}")
+    private long maxSingleUploadSize;
+
+    @Value("${azure.storage.upload.max-buffer-size:33554432}")
+    private long maxBufferSize;
+
+    @Value("${azure.storage.container-cache.revalidate-interval-ms:3600000}")
+    private long revalidateInterval;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentMap<String, VerifiedContainer> containers = new ConcurrentHashMap<>();
+
+    private ParallelTransferOptions transferOptions;
+
+    private long revalidateIntervalNanos;
+
+    @Autowired
+    public FileService(BlobServiceClient blobServiceClient, BlobServiceAsyncClient blobServiceAsyncClient) {
+        this.blobServiceClient = blobServiceClient;
+        this.blobServiceAsyncClient = blobServiceAsyncClient;
+    }
+
+    /**
+     * Method derives the block upload options. Each block being staged holds a buffer of the block size, so the
+     * number of blocks staged in parallel is reduced until the buffers of an upload fit in the max buffer size.
+     * Payloads up to the single upload size are buffered whole and sent in one request, so that size is capped by
+     * the max buffer size as well. A block size above half the max buffer size is lowered to it, so one block can be
+     * staged while the next one is filled.
+     */
+    @PostConstruct
+    public void init() {
+        long effectiveBlockSize = Math.max(1, Math.min(blockSize, maxBufferSize / 2));
+        if (effectiveBlockSize < blockSize)
+            log.warn("Lowering the upload block size from {} to {} bytes to stay within {} bytes of upload buffers",
+                    blockSize, effectiveBlockSize, maxBufferSize);
+        int concurrency = (int) Math.max(1, Math.min(maxConcurrency, maxBufferSize / effectiveBlockSize - 1));
+        if (concurrency < maxConcurrency)
+            log.warn("Staging {} blocks of {} bytes in parallel to stay within {} bytes of upload buffers",
+                    concurrency, effectiveBlockSize, maxBufferSize);
+        revalidateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(revalidateInterval);
+        transferOptions = new ParallelTransferOptions().setBlockSizeLong(effectiveBlockSize)
+                .setMaxConcurrency(concurrency).setMaxSingleUploadSizeLong(Math.min(maxSingleUploadSize, maxBufferSize));
+    }
+
+    @Override
+    public String store(String name, Map<String, String> metadata, PayloadWriter writer) throws IOException {
+        return uploadFile(containerName, name, metadata, writer);
+    }
+
+    @Override
+    public CompletableFuture<String> storeAsync(String name, Map<String, String> metadata, PayloadWriter writer) {
+        return uploadFileAsync(containerName, name, metadata, writer);
+    }
+
+    public String uploadFile(byte[] file, String containerName, String filename) throws IOException {
+        return uploadFile(containerName, filename, out -> out.write(file));
+    }
+
+    /**
+     * Method uploads the payload written by the writer as a block blob. What the writer writes is cut into blocks
+     * which are staged while it keeps writing, so the payload is never held in memory as a whole. The blocks are
+     * committed only once the writer succeeds, the blocks staged by a failed writer are never committed and are
+     * garbage collected by the storage service.
+     *
+     * @param containerName - blob container
+     * @param filename - blob name without the .dat extension
+     * @param writer - writes the payload to the blob
+     * @return url of the blob
+     */
+    public String uploadFile(String containerName, String filename, PayloadWriter writer) throws IOException {
+        return uploadFile(containerName, filename, null, writer);
+    }
+
+    /**
+     * Method uploads the payload written by the writer as a block blob with the given metadata, see
+     * {@link #uploadFile(String, String, PayloadWriter)}.
+     *
+     * @param containerName - blob container
+     * @param filename - blob name without the .dat extension
+     * @param metadata - blob metadata, may be null
+     * @param writer - writes the payload to the blob
+     * @return url of the blob
+     */
+    public String uploadFile(String containerName, String filename, Map<String, String> metadata,
+            PayloadWriter writer) throws IOException {
+        try {
+            return upload(getBlobContainerClient(containerName), filename, metadata, writer);
+        } catch (IOException | RuntimeException e) {
+            if (!isContainerNotFound(e))
+                throw e;
+            // the container was deleted since it was verified, create it again and upload once more
+            log.warn("Container {} not found, verifying it again", containerName);
+            containers.remove(containerName);
+            return upload(getBlobContainerClient(containerName), filename, metadata, writer);
+        }
+    }
+
+    /**
+     * Method uploads the payload written by the writer as a block blob through the async client, see
+     * {@link #uploadFile(String, String, Map, PayloadWriter)}. The writer runs on a bounded elastic thread while the
+     * blocks are staged in parallel, no thread is held waiting for the upload. Nothing is committed if the writer
+     * fails.
+     *
+     * @param containerName - blob container
+     * @param filename - blob name without the .dat extension
+     * @param metadata - blob metadata, may be null
+     * @param writer - writes the payload to the blob
+     * @return future completed with the url of the blob
+     */
+    public CompletableFuture<String> uploadFileAsync(String containerName, String filename,
+            Map<String, String> metadata, PayloadWriter writer) {
+        return uploadAsync(containerName, filename, metadata, writer)
+                .onErrorResume(FileService::isContainerNotFound, e -> {
+                    log.warn("Container {} not found, verifying it again", containerName);
+                    containers.remove(containerName);
+                    return uploadAsync(containerName, filename, metadata, writer);
+                }).toFuture();
+    }
+
+    private Mono<String> uploadAsync(String containerName, String filename, Map<String, String> metadata,
+            PayloadWriter writer) {
+        return getBlobContainerAsyncClient(containerName).flatMap(blobContainerAsyncClient -> {
+            BlobAsyncClient blobAsyncClient = blobContainerAsyncClient.getBlobAsyncClient(filename.concat(".dat"));
+            BlobParallelUploadOptions options = new BlobParallelUploadOptions(PayloadFlux.of(writer, CHUNK_SIZE))
+                    .setParallelTransferOptions(transferOptions).setMetadata(metadata);
+            return blobAsyncClient.uploadWithResponse(options).map(response -> blobAsyncClient.getBlobUrl());
+        }).doOnNext(url -> log.info("blob url {} ", url));
+    }
+
+    private String upload(BlobContainerClient blobContainerClient, String filename, Map<String, String> metadata,
+            PayloadWriter writer) throws IOException {
+        String fileNameFinal = filename.concat(".dat");
+        BlockBlobClient blockBlobClient = blobContainerClient.getBlobClient(fileNameFinal).getBlockBlobClient();
+        BlobOutputStream bos = blockBlobClient.getBlobOutputStream(transferOptions, null, metadata, null, null);
+        try {
+            writer.writeTo(bos);
+        } catch (IOException | RuntimeException e) {
+            // closing the stream would commit the blocks staged so far, and a content addressed name may be the blob
+            // of a parallel upload of the same payload, so the failed upload is neither committed nor deleted
+            log.warn("Upload of blob {} failed, its staged blocks are left uncommitted", fileNameFinal);
+            throw e;
+        }
+        bos.close();
+        String url = blockBlobClient.getBlobUrl();
+        log.info("blob url {} ", url);
+        return url;
+    }
+
+    /**
+     * Method returns the client of the container, which is checked to exist, and created if needed, only once per
+     * revalidate interval instead of on every upload. An interval of 0 verifies the container only once, an upload
+     * failing because the container is gone verifies it again.
+     */
+    private @NonNull BlobContainerClient getBlobContainerClient(@NonNull String containerName) {
+        VerifiedContainer container = containers.get(containerName);
+        if (Objects.nonNull(container) && !container.isExpired(revalidateIntervalNanos)) {
+            meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_CONTAINER_CACHE_HIT_TOTAL).increment();
+            return container.client;
+        }
+        BlobContainerClient blobContainerClient = blobServiceClient.getBlobContainerClient(containerName);
+        meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL).increment();
+        if (!blobContainerClient.exists()) {
+            meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL).increment();
+            try {
+                blobContainerClient.create();
+            } catch (BlobStorageException e) {
+                // created by another upload in the meantime
+                if (!BlobErrorCode.CONTAINER_ALREADY_EXISTS.equals(e.getErrorCode()))
+                    throw e;
+            }
+        }
+        containers.put(containerName, new VerifiedContainer(blobContainerClient,
+                blobServiceAsyncClient.getBlobContainerAsyncClient(containerName)));
+        return blobContainerClient;
+    }
+
+    /**
+     * Asynchronous counterpart of getBlobContainerClient, sharing its cache.
+     */
+    private Mono<BlobContainerAsyncClient> getBlobContainerAsyncClient(String containerName) {
+        return Mono.defer(() -> {
+            VerifiedContainer container = containers.get(containerName);
+            if (Objects.nonNull(container) && !container.isExpired(revalidateIntervalNanos)) {
+                meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_CONTAINER_CACHE_HIT_TOTAL).increment();
+                return Mono.just(container.asyncClient);
+            }
+            BlobContainerAsyncClient blobContainerAsyncClient = blobServiceAsyncClient
+                    .getBlobContainerAsyncClient(containerName);
+            meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL).increment();
+            return blobContainerAsyncClient.exists().flatMap(exists -> {
+                if (exists)
+                    return Mono.<Void>empty();
+                meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL).increment();
+                // tolerates the container being created by another upload in the meantime
+                return blobContainerAsyncClient.create().onErrorResume(e -> e instanceof BlobStorageException
+                        && BlobErrorCode.CONTAINER_ALREADY_EXISTS.equals(((BlobStorageException) e).getErrorCode()),
+                        e -> Mono.empty());
+            }).then(Mono.fromCallable(() -> {
+                containers.put(containerName, new VerifiedContainer(
+                        blobServiceClient.getBlobContainerClient(containerName), blobContainerAsyncClient));
+                return blobContainerAsyncClient;
+            }));
+        });
+    }
+
+    private static boolean isContainerNotFound(Throwable e) {
+        for (Throwable cause = e; Objects.nonNull(cause); cause = cause.getCause())
+            if (cause instanceof BlobStorageException
+                    && BlobErrorCode.CONTAINER_NOT_FOUND.equals(((BlobStorageException) cause).getErrorCode()))
+                return true;
+        return false;
+    }
+
+    /**
+     * Container clients with the time their container was last verified to exist.
+     */
+    private static final class VerifiedContainer {
+
+        private final BlobContainerClient client;
+
+        private final BlobContainerAsyncClient asyncClient;
+
+        private final long verifiedAt = System.nanoTime();
+
+        private VerifiedContainer(BlobContainerClient client, BlobContainerAsyncClient asyncClient) {
+            this.client = client;
+            this.asyncClient = asyncClient;
+        }
+
+        private boolean isExpired(long intervalNanos) {
+            return intervalNanos > 0 && System.nanoTime() - verifiedAt > intervalNanos;
+        }
+    }
+}
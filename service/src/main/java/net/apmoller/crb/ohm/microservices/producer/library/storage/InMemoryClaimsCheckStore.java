@@ -0,0 +1,96 @@
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Claims check store keeping the payloads on the heap, for tests and benchmarks. Holds the last
+ * claims-check.store.memory.max-entries payloads, older ones are dropped.
+ */
+@Component
+@ConditionalOnProperty(name = ConfigConstants.CLAIMS_CHECK_STORE, havingValue = "memory")
+public class InMemoryClaimsCheckStore implements ClaimsCheckStore {
+
+    public static final String LOCATION_PREFIX = "memory://claims-check/";
+
+    @Value("${claims-check.store.memory.max-entries:100}")
+    private int maxEntries = 100;
+
+    private final Map<String, StoredPayload> payloads = Collections
+            .synchronizedMap(new LinkedHashMap<String, StoredPayload>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, StoredPayload> eldest) {
+                    return size() > maxEntries;
+                }
+            });
+
+    @Override
+    public String store(String name, Map<String, String> metadata, PayloadWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        String location = LOCATION_PREFIX + name;
+        payloads.put(location, new StoredPayload(out.toByteArray(),
+                Objects.isNull(metadata) ? Collections.emptyMap() : new HashMap<>(metadata)));
+        return location;
+    }
+
+    @Override
+    public CompletableFuture<String> storeAsync(String name, Map<String, String> metadata, PayloadWriter writer) {
+        try {
+            return CompletableFuture.completedFuture(store(name, metadata, writer));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Method returns the payload stored at the location, or null if there is none.
+     *
+     * @param location - location returned by store
+     */
+    public byte[] getPayload(String location) {
+        StoredPayload payload = payloads.get(location);
+        return Objects.isNull(payload) ? null : payload.data;
+    }
+
+    /**
+     * Method returns the metadata stored with the payload at the location, or null if there is no payload.
+     *
+     * @param location - location returned by store
+     */
+    public Map<String, String> getMetadata(String location) {
+        StoredPayload payload = payloads.get(location);
+        return Objects.isNull(payload) ? null : Collections.unmodifiableMap(payload.metadata);
+    }
+
+    public int size() {
+        return payloads.size();
+    }
+
+    public void clear() {
+        payloads.clear();
+    }
+
+    private static final class StoredPayload {
+
+        private final byte[] data;
+
+        private final Map<String, String> metadata;
+
+        private StoredPayload(byte[] data, Map<String, String> metadata) {
+            this.data = data;
+            this.metadata = metadata;
+        }
+    }
+}
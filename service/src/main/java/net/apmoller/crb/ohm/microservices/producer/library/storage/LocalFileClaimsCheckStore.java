@@ -0,0 +1,151 @@
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Claims check store writing each payload to a file in a local directory, for environments without Azure and for
+ * benchmarks. Payloads are written through a FileChannel, or through memory mapped regions of the file with
+ * claims-check.store.local.memory-mapped, to a temporary file which is moved in place once complete. Metadata is
+ * written next to the payload as a properties file.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = ConfigConstants.CLAIMS_CHECK_STORE, havingValue = "local")
+public class LocalFileClaimsCheckStore implements ClaimsCheckStore {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Value("${claims-check.store.local.directory:${java.io.tmpdir}/claims-check}")
+    private String directory;
+
+    @Value("${claims-check.store.local.memory-mapped:false}")
+    private boolean memoryMapped;
+
+    @Value("${claims-check.store.local.map-region-size:8388608}")
+    private int mapRegionSize;
+
+    @Autowired
+    private PublishExecutor publishExecutor;
+
+    private Path root;
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = Files.createDirectories(Paths.get(directory));
+        log.info("Storing claims check payloads in {}", root.toAbsolutePath());
+    }
+
+    @Override
+    public String store(String name, Map<String, String> metadata, PayloadWriter writer) throws IOException {
+        Path target = root.resolve(name + ".dat");
+        // unique per write, content addressed names are written concurrently when the same payload is sent twice
+        Path temp = Files.createTempFile(root, name + ".", ".dat.tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    OutputStream out = memoryMapped ? new MappedOutputStream(channel, mapRegionSize)
+                            : new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)) {
+                writer.writeTo(out);
+            }
+            if (Objects.nonNull(metadata) && !metadata.isEmpty())
+                writeMetadata(root.resolve(name + ".properties"), metadata);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return target.toUri().toString();
+    }
+
+    @Override
+    public CompletableFuture<String> storeAsync(String name, Map<String, String> metadata, PayloadWriter writer) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return store(name, metadata, writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, publishExecutor.executor());
+    }
+
+    private static void writeMetadata(Path path, Map<String, String> metadata) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(metadata);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            properties.store(out, null);
+        }
+    }
+
+    /**
+     * Stream writing into memory mapped regions of the file, mapping the next region when one is full. The file is
+     * cut to the written length on close, as the last region is mapped beyond it.
+     */
+    private static final class MappedOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+
+        private final int regionSize;
+
+        private MappedByteBuffer region;
+
+        private long position;
+
+        private MappedOutputStream(FileChannel channel, int regionSize) {
+            this.channel = channel;
+            this.regionSize = regionSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            nextRegionIfFull();
+            region.put((byte) b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                nextRegionIfFull();
+                int n = Math.min(len, region.remaining());
+                region.put(b, off, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            region = null;
+            channel.truncate(position);
+        }
+
+        private void nextRegionIfFull() throws IOException {
+            if (Objects.isNull(region) || !region.hasRemaining())
+                region = channel.map(FileChannel.MapMode.READ_WRITE, position, regionSize);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Adapts a blocking {@link ClaimsCheckStore.PayloadWriter} to the Flux the async blob client uploads. The writer runs on a
+ * bounded elastic thread and blocks until the uploader requests more chunks, so the payload is held in memory only
+ * as far as the upload buffers reach.
+ */
+final class PayloadFlux {
+
+    private PayloadFlux() {
+        // Private constructor
+    }
+
+    /**
+     * Method returns a Flux of the chunks the writer writes. Each subscription runs the writer again.
+     *
+     * @param writer - writes the payload
+     * @param chunkSize - size of the emitted chunks
+     */
+    static Flux<ByteBuffer> of(ClaimsCheckStore.PayloadWriter writer, int chunkSize) {
+        return Flux.<ByteBuffer>create(sink -> {
+            Demand demand = new Demand();
+            sink.onRequest(demand::add);
+            sink.onDispose(demand::cancel);
+            ChunkingOutputStream out = new ChunkingOutputStream(sink, demand, chunkSize);
+            try {
+                writer.writeTo(out);
+                // emits the last chunk, only if the writer succeeded
+                out.close();
+            } catch (IOException | RuntimeException e) {
+                sink.error(e);
+                return;
+            }
+            sink.complete();
+            // requests must not be queued on the worker, which is blocked in the writer until they arrive
+        }).subscribeOn(Schedulers.boundedElastic(), false);
+    }
+
+    /**
+     * Chunks requested by the uploader and not emitted yet. Requests adding up past the permits a Semaphore can hold
+     * make the demand unbounded, as a request of Long.MAX_VALUE does.
+     */
+    private static final class Demand {
+
+        private final Semaphore permits = new Semaphore(0);
+
+        private volatile boolean unbounded;
+
+        private volatile boolean cancelled;
+
+        private synchronized void add(long n) {
+            if (unbounded)
+                return;
+            if (n < Integer.MAX_VALUE - permits.availablePermits()) {
+                permits.release((int) n);
+                return;
+            }
+            unbounded = true;
+            // wakes a writer waiting for demand, it does not wait again
+            if (permits.availablePermits() == 0)
+                permits.release();
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            if (permits.availablePermits() < Integer.MAX_VALUE)
+                permits.release();
+        }
+
+        private void await() throws IOException {
+            try {
+                if (!unbounded)
+                    permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the upload");
+            }
+            if (cancelled)
+                throw new IOException("Upload cancelled");
+        }
+    }
+
+    /**
+     * Stream cutting what is written into chunks, emitted when full and on close. A new buffer is used for each chunk,
+     * as the uploader may keep a chunk after it was emitted.
+     */
+    private static final class ChunkingOutputStream extends OutputStream {
+
+        private final FluxSink<ByteBuffer> sink;
+
+        private final Demand demand;
+
+        private final int chunkSize;
+
+        private byte[] buffer;
+
+        private int count;
+
+        private ChunkingOutputStream(FluxSink<ByteBuffer> sink, Demand demand, int chunkSize) {
+            this.sink = sink;
+            this.demand = demand;
+            this.chunkSize = chunkSize;
+            this.buffer = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == chunkSize)
+                emit();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == chunkSize)
+                    emit();
+                int n = Math.min(len, chunkSize - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (count > 0)
+                emit();
+        }
+
+        private void emit() throws IOException {
+            demand.await();
+            sink.next(ByteBuffer.wrap(buffer, 0, count));
+            buffer = new byte[chunkSize];
+            count = 0;
+        }
+    }
+}
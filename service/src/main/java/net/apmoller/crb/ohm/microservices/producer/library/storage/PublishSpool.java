@@ -0,0 +1,521 @@
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Local append only spool of records which could not be published, enabled with kafka.producer.spool.enabled. Records
+ * are appended to memory mapped segment files of kafka.producer.spool.segment-bytes under
+ * kafka.producer.spool.directory, so spooled payloads are held by the page cache instead of the heap. Each entry is
+ * written as
+ *
+ * <pre>
+ * int length | int crc32c | record
+ * </pre>
+ *
+ * with the length written last, so a partly written entry reads as the end of the segment. The index file holds the
+ * segment and offset of the first record not yet published again. The SpoolDrainer reads records from there in the
+ * order they were appended and commits the position once they are acknowledged, so a record is published at least
+ * once, also across restarts. Segments behind the committed position are deleted.
+ * <p>
+ * String payloads are stored as UTF-8, other payloads with Java serialization, which Avro specific records support.
+ * Reading them back may only create Avro specific records and java.* types, other payloads are dropped by the drainer.
+ * The directory is created readable by its owner only, and one owned by another user is refused, as whoever can write
+ * the spool decides what is published. The SpoolDrainer forces appends to disk every
+ * kafka.producer.spool.force-interval-ms, so a batch of appends shares one force.
+ */
+@Slf4j
+@Component
+public class PublishSpool {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String INDEX_FILE = "spool.index";
+
+    private static final int ENTRY_HEADER_BYTES = 8;
+
+    private static final byte NULL_VALUE = 0;
+
+    private static final byte UTF8_VALUE = 1;
+
+    private static final byte JAVA_VALUE = 2;
+
+    private static final Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+
+    private static final ObjectInputFilter PAYLOAD_FILTER = PublishSpool::filterPayloadClass;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${kafka.producer.spool.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.producer.spool.directory:${java.io.tmpdir}/producer-library-spool}")
+    private String directory;
+
+    @Value("${kafka.producer.spool.segment-bytes:67108864}")
+    private int segmentBytes = 67108864;
+
+    @Value("${kafka.producer.spool.max-bytes:1073741824}")
+    private long maxBytes = 1073741824L;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private final AtomicLong pendingRecords = new AtomicLong();
+
+    private final AtomicLong pendingBytes = new AtomicLong();
+
+    private Path root;
+
+    private FileChannel indexChannel;
+
+    private MappedByteBuffer index;
+
+    private long readSegment;
+
+    private int readOffset;
+
+    private boolean indexDirty;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled)
+            return;
+        root = openDirectory(Paths.get(directory));
+        indexChannel = FileChannel.open(root.resolve(INDEX_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, 16);
+        readSegment = index.getLong(0);
+        readOffset = (int) index.getLong(8);
+        openSegments();
+        Gauge.builder(ConfigConstants.SPOOL_RECORDS, pendingRecords, AtomicLong::get).register(registry);
+        Gauge.builder(ConfigConstants.SPOOL_BYTES, pendingBytes, AtomicLong::get).register(registry);
+        log.info("Publish spool in {} holds {} records, {} bytes", root.toAbsolutePath(), pendingRecords.get(),
+                pendingBytes.get());
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() throws IOException {
+        if (!enabled)
+            return;
+        force();
+        for (Segment segment : segments.values())
+            segment.channel.close();
+        indexChannel.close();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long pendingRecords() {
+        return pendingRecords.get();
+    }
+
+    public long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * Method appends the record to the spool.
+     *
+     * @param producerRecord - record with its headers, to be published to its topic once possible
+     * @return false if the spool is full
+     * @throws IOException - when the record could not be serialized or a segment could not be created
+     */
+    public boolean append(ProducerRecord<String, ?> producerRecord) throws IOException {
+        if (!enabled)
+            return false;
+        byte[] entry = encode(producerRecord);
+        int entryBytes = ENTRY_HEADER_BYTES + entry.length;
+        if (entryBytes > segmentBytes)
+            throw new IOException(String.format(
+                    "Record of %d bytes for topic %s does not fit a spool segment of %d bytes", entry.length,
+                    producerRecord.topic(), segmentBytes));
+        CRC32C crc = new CRC32C();
+        crc.update(entry);
+        synchronized (this) {
+            if (pendingBytes.get() + entryBytes > maxBytes) {
+                registry.counter(ConfigConstants.SPOOL_REJECTED_TOTAL).increment();
+                return false;
+            }
+            Segment segment = segments.lastEntry().getValue();
+            if (segment.writeOffset + entryBytes > segmentBytes)
+                segment = newSegment(segment.id + 1);
+            MappedByteBuffer buffer = segment.buffer;
+            int offset = segment.writeOffset;
+            buffer.putInt(offset + 4, (int) crc.getValue());
+            put(buffer, offset + ENTRY_HEADER_BYTES, entry);
+            buffer.putInt(offset, entry.length);
+            segment.writeOffset = offset + entryBytes;
+            segment.dirty = true;
+            pendingRecords.incrementAndGet();
+            pendingBytes.addAndGet(entryBytes);
+        }
+        registry.counter(ConfigConstants.SPOOL_APPENDED_TOTAL).increment();
+        return true;
+    }
+
+    /**
+     * Method reads up to max records from the committed position, in the order they were appended. Reading does not
+     * move the position, see {@link #commit(SpooledRecord)}.
+     *
+     * @param max - maximum number of records
+     */
+    public synchronized List<SpooledRecord> read(int max) {
+        List<SpooledRecord> records = new ArrayList<>(Math.min(max, 1024));
+        if (!enabled)
+            return records;
+        long segmentId = readSegment;
+        int offset = readOffset;
+        while (records.size() < max) {
+            Segment segment = segments.get(segmentId);
+            if (Objects.isNull(segment))
+                break;
+            if (offset >= segment.writeOffset) {
+                Long next = segments.higherKey(segmentId);
+                if (Objects.isNull(next))
+                    break;
+                segmentId = next;
+                offset = 0;
+                continue;
+            }
+            int length = segment.buffer.getInt(offset);
+            byte[] entry = get(segment.buffer, offset + ENTRY_HEADER_BYTES, length);
+            offset += ENTRY_HEADER_BYTES + length;
+            try {
+                records.add(new SpooledRecord(decode(entry), segmentId, offset));
+            } catch (IOException | ClassNotFoundException e) {
+                // the entry passed its crc when the segment was opened, it can only fail on a missing payload class
+                // or one the payload filter rejects
+                log.error("Dropping spooled record of segment {} which can not be read", segmentId, e);
+                records.add(new SpooledRecord(null, segmentId, offset));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Method moves the committed position past the record, which was read with {@link #read(int)} and published, and
+     * all records before it. Segments left behind are deleted.
+     *
+     * @param spooledRecord - last published record
+     */
+    public synchronized void commit(SpooledRecord spooledRecord) throws IOException {
+        long released = 0;
+        long releasedRecords = 0;
+        for (Map.Entry<Long, Segment> entry : segments.headMap(spooledRecord.segmentId, true).entrySet()) {
+            Segment segment = entry.getValue();
+            int from = segment.id == readSegment ? readOffset : 0;
+            int to = segment.id == spooledRecord.segmentId ? spooledRecord.nextOffset : segment.writeOffset;
+            released += to - from;
+            releasedRecords += countEntries(segment, from, to);
+        }
+        readSegment = spooledRecord.segmentId;
+        readOffset = spooledRecord.nextOffset;
+        index.putLong(0, readSegment);
+        index.putLong(8, readOffset);
+        indexDirty = true;
+        pendingBytes.addAndGet(-released);
+        pendingRecords.addAndGet(-releasedRecords);
+        while (segments.firstKey() < readSegment) {
+            Segment segment = segments.pollFirstEntry().getValue();
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        }
+    }
+
+    /**
+     * Method forces appended records and the committed position to disk, if anything changed since the last force.
+     */
+    public synchronized void force() {
+        if (!enabled)
+            return;
+        for (Segment segment : segments.values()) {
+            if (segment.dirty) {
+                segment.buffer.force();
+                segment.dirty = false;
+            }
+        }
+        if (indexDirty) {
+            index.force();
+            indexDirty = false;
+        }
+    }
+
+    /**
+     * Method creates the directory readable by its owner only, or checks that an existing one belongs to this user.
+     */
+    private static Path openDirectory(Path path) throws IOException {
+        if (!path.getFileSystem().supportedFileAttributeViews().contains("posix"))
+            return Files.createDirectories(path);
+        Path directory = Files.createDirectories(path, PosixFilePermissions.asFileAttribute(DIRECTORY_PERMISSIONS));
+        UserPrincipal owner = Files.getOwner(directory);
+        UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        if (!owner.equals(user))
+            throw new IOException(String.format("Spool directory %s is owned by %s, not by %s", directory,
+                    owner.getName(), user.getName()));
+        return directory;
+    }
+
+    private static ObjectInputFilter.Status filterPayloadClass(ObjectInputFilter.FilterInfo info) {
+        Class<?> serialClass = info.serialClass();
+        if (Objects.isNull(serialClass))
+            return ObjectInputFilter.Status.UNDECIDED;
+        while (serialClass.isArray())
+            serialClass = serialClass.getComponentType();
+        if (serialClass.isPrimitive() || serialClass.getName().startsWith("java.")
+                || SpecificRecordBase.class.isAssignableFrom(serialClass))
+            return ObjectInputFilter.Status.ALLOWED;
+        return ObjectInputFilter.Status.REJECTED;
+    }
+
+    private void openSegments() throws IOException {
+        try (Stream<Path> files = Files.list(root)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length()));
+                    if (id < readSegment)
+                        Files.deleteIfExists(path);
+                    else
+                        segments.put(id, openSegment(id, path));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            readOffset = 0;
+            newSegment(readSegment);
+        }
+        if (!segments.containsKey(readSegment)) {
+            readSegment = segments.firstKey();
+            readOffset = 0;
+        }
+        for (Segment segment : segments.values()) {
+            int from = segment.id == readSegment ? readOffset : 0;
+            pendingBytes.addAndGet(Math.max(0, segment.writeOffset - from));
+            pendingRecords.addAndGet(countEntries(segment, from, segment.writeOffset));
+        }
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        Segment segment = openSegment(id, root.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Method maps the segment and finds its end, the first entry which is empty or fails its crc, e.g. one torn by a
+     * crash while it was written.
+     */
+    private Segment openSegment(long id, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        int offset = 0;
+        CRC32C crc = new CRC32C();
+        while (offset + ENTRY_HEADER_BYTES <= segmentBytes) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + ENTRY_HEADER_BYTES + length > segmentBytes)
+                break;
+            byte[] entry = get(buffer, offset + ENTRY_HEADER_BYTES, length);
+            crc.reset();
+            crc.update(entry);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                log.warn("Spool segment {} ends with a torn record at offset {}, it is dropped", path, offset);
+                break;
+            }
+            offset += ENTRY_HEADER_BYTES + length;
+        }
+        // later appends overwrite a torn record, its length is cleared so it is not read meanwhile
+        if (offset + 4 <= segmentBytes)
+            buffer.putInt(offset, 0);
+        return new Segment(id, path, channel, buffer, offset);
+    }
+
+    private static void put(ByteBuffer buffer, int offset, byte[] source) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put(source);
+    }
+
+    private static byte[] get(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        byte[] target = new byte[length];
+        view.get(target);
+        return target;
+    }
+
+    private static long countEntries(Segment segment, int from, int to) {
+        long count = 0;
+        for (int offset = from; offset < to; offset += ENTRY_HEADER_BYTES + segment.buffer.getInt(offset))
+            count++;
+        return count;
+    }
+
+    private static byte[] encode(ProducerRecord<String, ?> producerRecord) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeBytes(out, producerRecord.topic().getBytes(StandardCharsets.UTF_8));
+        writeBytes(out, Objects.isNull(producerRecord.key()) ? null
+                : producerRecord.key().getBytes(StandardCharsets.UTF_8));
+        out.writeInt(Objects.isNull(producerRecord.partition()) ? -1 : producerRecord.partition());
+        Header[] headers = producerRecord.headers().toArray();
+        out.writeInt(headers.length);
+        for (Header header : headers) {
+            writeBytes(out, header.key().getBytes(StandardCharsets.UTF_8));
+            writeBytes(out, header.value());
+        }
+        Object value = producerRecord.value();
+        if (Objects.isNull(value)) {
+            out.writeByte(NULL_VALUE);
+        } else if (value instanceof String) {
+            out.writeByte(UTF8_VALUE);
+            writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else {
+            out.writeByte(JAVA_VALUE);
+            out.flush();
+            ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes);
+            objectOutputStream.writeObject(value);
+            objectOutputStream.flush();
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static ProducerRecord<String, Object> decode(byte[] entry) throws IOException, ClassNotFoundException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(entry);
+        DataInputStream in = new DataInputStream(bytes);
+        String topic = new String(readBytes(in), StandardCharsets.UTF_8);
+        byte[] key = readBytes(in);
+        int partition = in.readInt();
+        RecordHeaders headers = new RecordHeaders();
+        int headerCount = in.readInt();
+        for (int i = 0; i < headerCount; i++)
+            headers.add(new String(readBytes(in), StandardCharsets.UTF_8), readBytes(in));
+        Object value;
+        byte valueType = in.readByte();
+        if (valueType == UTF8_VALUE)
+            value = new String(readBytes(in), StandardCharsets.UTF_8);
+        else if (valueType == JAVA_VALUE)
+            value = readPayload(bytes);
+        else
+            value = null;
+        return new ProducerRecord<>(topic, partition < 0 ? null : partition, null,
+                Objects.isNull(key) ? null : new String(key, StandardCharsets.UTF_8), value, headers);
+    }
+
+    private static Object readPayload(ByteArrayInputStream bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(bytes)) {
+            in.setObjectInputFilter(PAYLOAD_FILTER);
+            return in.readObject();
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (Objects.isNull(value)) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    /**
+     * A record read from the spool with the position after it.
+     */
+    @Getter
+    public static final class SpooledRecord {
+
+        /** The record, null if it could not be read back. */
+        private final ProducerRecord<String, Object> producerRecord;
+
+        private final long segmentId;
+
+        private final int nextOffset;
+
+        private SpooledRecord(ProducerRecord<String, Object> producerRecord, long segmentId, int nextOffset) {
+            this.producerRecord = producerRecord;
+            this.segmentId = segmentId;
+            this.nextOffset = nextOffset;
+        }
+    }
+
+    private static final class Segment {
+
+        private final long id;
+
+        private final Path path;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private int writeOffset;
+
+        private boolean dirty;
+
+        private Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer, int writeOffset) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.writeOffset = writeOffset;
+        }
+    }
+}
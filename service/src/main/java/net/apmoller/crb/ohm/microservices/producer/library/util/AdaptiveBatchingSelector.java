@@ -0,0 +1,296 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class picks the producer a record is sent with when kafka.producer.adaptive-batching.enabled is set. linger.ms and
+ * batch.size are fixed for the life of a producer, so instead of retuning one producer each template is copied into
+ * three profiles:
+ * <ul>
+ * <li>latency - linger.ms 0, for topics with few records, which are sent as soon as they arrive</li>
+ * <li>throughput - kafka.producer.adaptive-batching.linger-ms and batch-size, for busy topics, whose records fill
+ * larger batches</li>
+ * <li>large - linger.ms 0, records of large-record-bytes or more, so multi-MB documents do not hold up the batches of
+ * small notifications</li>
+ * </ul>
+ * Each topic moves between latency and throughput on its arrival rate, measured over window-ms. When a topic moves, the
+ * producer of the previous profile is flushed before records are sent through the new one, so they do not overtake
+ * records still lingering. Records of different size classes use different producers and are not kept in order.
+ */
+@Slf4j
+@Component
+public class AdaptiveBatchingSelector<T> {
+
+    public enum Profile {
+        LATENCY, THROUGHPUT, LARGE
+    }
+
+    private static final double RATE_SMOOTHING = 0.5;
+
+    private static final CompletableFuture<Void> DRAINED = CompletableFuture.completedFuture(null);
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private PayloadSizeEstimator payloadSizeEstimator;
+
+    @Autowired
+    private ProducerPool<T> producerPool;
+
+    @Value("${kafka.producer.adaptive-batching.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.producer.adaptive-batching.linger-ms:20}")
+    private int lingerMs = 20;
+
+    @Value("${kafka.producer.adaptive-batching.batch-size:262144}")
+    private int batchSize = 262144;
+
+    @Value("${kafka.producer.adaptive-batching.large-record-bytes:1048576}")
+    private long largeRecordBytes = 1048576;
+
+    @Value("${kafka.producer.adaptive-batching.busy-rate:500}")
+    private double busyRate = 500;
+
+    @Value("${kafka.producer.adaptive-batching.idle-rate:100}")
+    private double idleRate = 100;
+
+    @Value("${kafka.producer.adaptive-batching.window-ms:1000}")
+    private long windowMs = 1000;
+
+    @Value("${kafka.producer.batch-size:16384}")
+    private int defaultBatchSize = 16384;
+
+    private final Map<KafkaTemplate<String, T>, ProfileTemplates> profiles = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Method returns the template of the profile the record is sent with, or the routed template when adaptive
+     * batching is disabled.
+     *
+     * @param kafkaTemplate - template chosen by the TemplateRouter
+     * @param producerRecord - producer record to be sent on topic
+     */
+    public KafkaTemplate<String, T> select(KafkaTemplate<String, T> kafkaTemplate, ProducerRecord<String, T> producerRecord) {
+        if (!enabled)
+            return kafkaTemplate;
+        ProfileTemplates profileTemplates = profiles.computeIfAbsent(kafkaTemplate, ProfileTemplates::new);
+        if (payloadSizeEstimator.estimate(producerRecord.value()) >= largeRecordBytes)
+            return profileTemplates.get(Profile.LARGE);
+        return profileTemplates.topics.computeIfAbsent(producerRecord.topic(), topic -> new TopicState(topic, profileTemplates))
+                .select();
+    }
+
+    /**
+     * Method returns the profile records of the topic are currently sent with, null if none was sent yet.
+     *
+     * @param kafkaTemplate - template chosen by the TemplateRouter
+     * @param topic - topic name
+     */
+    public Profile currentProfile(KafkaTemplate<String, T> kafkaTemplate, String topic) {
+        ProfileTemplates profileTemplates = profiles.get(kafkaTemplate);
+        TopicState state = Objects.isNull(profileTemplates) ? null : profileTemplates.topics.get(topic);
+        return Objects.isNull(state) ? null : state.profile;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        profiles.values().forEach(ProfileTemplates::destroy);
+    }
+
+    /**
+     * The three profile copies of a template. A producer factory which can not be copied, e.g. one without
+     * configuration properties, is used as it is for all profiles.
+     */
+    private final class ProfileTemplates {
+
+        private final Map<Profile, ProfileTemplate> templates = new EnumMap<>(Profile.class);
+
+        private final Map<String, TopicState> topics = new ConcurrentHashMap<>();
+
+        private ProfileTemplates(KafkaTemplate<String, T> kafkaTemplate) {
+            try {
+                templates.put(Profile.LATENCY, copy(kafkaTemplate, Profile.LATENCY, 0, defaultBatchSize));
+                templates.put(Profile.THROUGHPUT, copy(kafkaTemplate, Profile.THROUGHPUT, lingerMs, batchSize));
+                templates.put(Profile.LARGE, copy(kafkaTemplate, Profile.LARGE, 0, defaultBatchSize));
+            } catch (UnsupportedOperationException ex) {
+                log.warn("Producer factory {} can not be copied, adaptive batching is not applied to its records",
+                        kafkaTemplate.getProducerFactory().getClass().getName());
+                destroy();
+                for (Profile profile : Profile.values())
+                    templates.put(profile, new ProfileTemplate(kafkaTemplate, profile, 0, 0, false));
+            }
+        }
+
+        private ProfileTemplate copy(KafkaTemplate<String, T> kafkaTemplate, Profile profile, int linger, int size) {
+            Map<String, Object> overrides = Map.of(ProducerConfig.LINGER_MS_CONFIG, linger,
+                    ProducerConfig.BATCH_SIZE_CONFIG, size);
+            ProfileTemplate profileTemplate = new ProfileTemplate(
+                    new KafkaTemplate<>(kafkaTemplate.getProducerFactory(), overrides), profile, linger, size, true);
+            Gauge.builder(ConfigConstants.ADAPTIVE_BATCHING_BATCH_FILL_RATIO, profileTemplate,
+                    ProfileTemplate::batchFillRatio).tag("profile", profile.name().toLowerCase(Locale.ROOT))
+                    .register(registry);
+            return profileTemplate;
+        }
+
+        private KafkaTemplate<String, T> get(Profile profile) {
+            ProfileTemplate profileTemplate = templates.get(profile);
+            if (!profileTemplate.used)
+                profileTemplate.used = true;
+            return profileTemplate.kafkaTemplate;
+        }
+
+        private void destroy() {
+            templates.values().forEach(ProfileTemplate::destroy);
+        }
+    }
+
+    /**
+     * A template with the linger.ms and batch.size of a profile.
+     */
+    private final class ProfileTemplate {
+
+        private final KafkaTemplate<String, T> kafkaTemplate;
+
+        private final Profile profile;
+
+        private final int linger;
+
+        private final int size;
+
+        private final boolean copied;
+
+        private volatile boolean used;
+
+        private ProfileTemplate(KafkaTemplate<String, T> kafkaTemplate, Profile profile, int linger, int size,
+                boolean copied) {
+            this.kafkaTemplate = kafkaTemplate;
+            this.profile = profile;
+            this.linger = linger;
+            this.size = size;
+            this.copied = copied;
+        }
+
+        /**
+         * Average batch size of the producer relative to its batch.size, 0 until the profile is used, so the gauge
+         * does not create a producer.
+         */
+        private double batchFillRatio() {
+            if (!used || size <= 0)
+                return 0;
+            double batchSizeAvg = ProducerMetrics.value(kafkaTemplate, "batch-size-avg");
+            return Double.isNaN(batchSizeAvg) ? 0 : batchSizeAvg / size;
+        }
+
+        private void destroy() {
+            ProducerFactory<String, T> producerFactory = kafkaTemplate.getProducerFactory();
+            if (copied && producerFactory instanceof DisposableBean) {
+                try {
+                    ((DisposableBean) producerFactory).destroy();
+                } catch (Exception ex) {
+                    log.warn("Failed to close the {} producer", profile, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Arrival rate and current profile of a topic. The rate is counted over windows of window-ms and smoothed, the
+     * first record after a window has passed updates it and decides the profile.
+     */
+    private final class TopicState {
+
+        private final String topic;
+
+        private final ProfileTemplates profileTemplates;
+
+        private final LongAdder arrivals = new LongAdder();
+
+        private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+        private volatile double rate;
+
+        private volatile Profile profile = Profile.LATENCY;
+
+        private volatile CompletableFuture<Void> drained = DRAINED;
+
+        private TopicState(String topic, ProfileTemplates profileTemplates) {
+            this.topic = topic;
+            this.profileTemplates = profileTemplates;
+            Gauge.builder(ConfigConstants.ADAPTIVE_BATCHING_ARRIVAL_RATE, this, state -> state.rate)
+                    .tag("topic", topic).register(registry);
+            Gauge.builder(ConfigConstants.ADAPTIVE_BATCHING_LINGER_MS, this,
+                    state -> profileTemplates.templates.get(state.profile).linger).tag("topic", topic)
+                    .register(registry);
+            Gauge.builder(ConfigConstants.ADAPTIVE_BATCHING_BATCH_SIZE, this,
+                    state -> profileTemplates.templates.get(state.profile).size).tag("topic", topic)
+                    .register(registry);
+        }
+
+        private KafkaTemplate<String, T> select() {
+            arrivals.increment();
+            long now = System.currentTimeMillis();
+            long start = windowStart.get();
+            if (now - start >= windowMs && windowStart.compareAndSet(start, now))
+                endWindow(arrivals.sumThenReset(), now - start);
+            CompletableFuture<Void> pending = drained;
+            if (!pending.isDone())
+                pending.join();
+            return profileTemplates.get(profile);
+        }
+
+        /**
+         * Called by one thread per window. A window with no records is only seen once a record arrives, which then
+         * counts as the only record over the whole gap, so a topic coming back from idle is sent without linger.
+         */
+        private void endWindow(long count, long elapsed) {
+            double observed = count * 1000.0 / elapsed;
+            rate = elapsed >= 2 * windowMs ? observed : RATE_SMOOTHING * observed + (1 - RATE_SMOOTHING) * rate;
+            Profile previous = profile;
+            Profile next = previous;
+            if (previous == Profile.LATENCY && rate >= busyRate)
+                next = Profile.THROUGHPUT;
+            else if (previous == Profile.THROUGHPUT && rate <= idleRate)
+                next = Profile.LATENCY;
+            if (next == previous)
+                return;
+            log.debug("Moving records of topic {} from the {} to the {} profile at {} records/s", topic, previous, next,
+                    rate);
+            CompletableFuture<Void> flushed = new CompletableFuture<>();
+            drained = flushed;
+            profile = next;
+            try {
+                producerPool.flush(profileTemplates.templates.get(previous).kafkaTemplate);
+            } finally {
+                // records wait for the flush, so the window restarts after it instead of counting it as idle time
+                windowStart.set(System.currentTimeMillis());
+                flushed.complete(null);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Default TemplateRouter. The template of each payload class is resolved once, from an explicit registration or
+ * from the payload schema (strings go to the JSON template, everything else to the Avro template), and cached in a
+ * ClassValue for the following records.
+ */
+@Slf4j
+@Component
+@ConditionalOnMissingBean(value = TemplateRouter.class, ignored = ClassValueTemplateRouter.class)
+public class ClassValueTemplateRouter<T> implements TemplateRouter<T> {
+
+    @Autowired
+    private KafkaTemplate<String, T> kafkaTemplateAvro;
+
+    @Autowired
+    private KafkaTemplate<String, T> kafkaTemplateJson;
+
+    private final Map<Class<?>, KafkaTemplate<String, T>> registeredTemplates = new ConcurrentHashMap<>();
+
+    private final ClassValue<KafkaTemplate<String, T>> routes = new ClassValue<>() {
+        @Override
+        protected KafkaTemplate<String, T> computeValue(Class<?> type) {
+            KafkaTemplate<String, T> kafkaTemplate = registeredTemplates.get(type);
+            if (Objects.isNull(kafkaTemplate))
+                kafkaTemplate = SchemaCache.isStringPayload(type) ? kafkaTemplateJson : kafkaTemplateAvro;
+            log.info("Routing payload type {} to {} template", type.getName(),
+                    kafkaTemplate == kafkaTemplateJson ? "json" : "avro");
+            return kafkaTemplate;
+        }
+    };
+
+    @Override
+    public KafkaTemplate<String, T> route(ProducerRecord<String, T> producerRecord) {
+        return routes.get(producerRecord.value().getClass());
+    }
+
+    @Override
+    public void register(Class<?> payloadType, KafkaTemplate<String, T> kafkaTemplate) {
+        registeredTemplates.put(payloadType, kafkaTemplate);
+        routes.remove(payloadType);
+    }
+}
@@ -3,6 +3,9 @@ package net.apmoller.crb.ohm.microservices.producer.library.util;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.compression.ClaimsCheckFormat;
+import net.apmoller.crb.ohm.microservices.producer.library.compression.NonClosingOutputStream;
+import net.apmoller.crb.ohm.microservices.producer.library.compression.PayloadCodec;
 import net.bytebuddy.implementation.bytecode.Throw;
 import org.springframework.stereotype.Component;
 
@@ -10,6 +13,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.zip.DeflaterOutputStream;
@@ -111,7 +115,39 @@ public class CompressionUtil {
         return result;
     }
 
-    //this method will be used for decompressing gzip data
-
+    /**
+     * Method writes the payload gzip compressed to the stream, in the format of gzipCompress. The serialized and the
+     * compressed payload are never held in memory as a whole, so the stream can upload while the payload is written.
+     * The stream is not closed.
+     *
+     * @param uncompressedData - payload
+     * @param target - stream receiving the compressed payload
+     *
+     * @throws IOException
+     */
+    public static void gzipCompress(Object uncompressedData, OutputStream target) throws IOException {
+        compress(uncompressedData, ClaimsCheckFormat.JAVA, PayloadCodec.GZIP, 0, target);
+    }
 
+    /**
+     * Method writes the payload serialized in the format and compressed with the codec to the stream, without
+     * holding the serialized or compressed payload in memory as a whole. The stream is not closed.
+     *
+     * @param payload - payload
+     * @param format - serialization of the payload
+     * @param codec - codec applied to the serialized payload
+     * @param level - codec level
+     * @param target - stream receiving the compressed payload
+     *
+     * @throws IOException
+     */
+    public static void compress(Object payload, ClaimsCheckFormat format, PayloadCodec codec, int level,
+            OutputStream target) throws IOException {
+        try (OutputStream out = codec.compressingStream(new NonClosingOutputStream(target), level)) {
+            format.write(payload, out);
+        } catch (IOException e) {
+            log.error("Error occured while streaming payload as {} with {}", format, codec, e);
+            throw e;
+        }
+    }
 }
@@ -0,0 +1,145 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.KafkaHeaderValidationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class encodes the Kafka headers map from input into record headers. Headers with repeated values, such as source
+ * system and message type, are encoded once and kept in a bounded cache, byte[] values are passed through as they are.
+ * The cached headers are shared between records, so their values must not be modified.
+ */
+@Slf4j
+@Component
+public class HeaderEncoder {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Header>> cache = new ConcurrentHashMap<>();
+
+    private final AtomicInteger cachedHeaders = new AtomicInteger();
+
+    @Value("${kafka.producer.header-cache.max-entries:1024}")
+    private int maxEntries;
+
+    @Value("${kafka.producer.header-cache.max-value-length:256}")
+    private int maxValueLength;
+
+    @Value("${kafka.producer.header-cache.excluded-headers:" + ConfigConstants.HEADER_CORRELATION_ID + "}")
+    private String[] excludedHeaders = { ConfigConstants.HEADER_CORRELATION_ID };
+
+    /**
+     * Method adds the encoded headers to the producer record headers.
+     *
+     * @param headers - Producer record header
+     * @param kafkaHeader - Kafka headers map from input
+     */
+    public void addHeaders(Headers headers, Map<String, Object> kafkaHeader) {
+        if (CollectionUtils.isEmpty(kafkaHeader))
+            throw new KafkaHeaderValidationException(ConfigConstants.INVALID_KAFKA_HEADER_MAP_ERROR_MSG);
+        kafkaHeader.forEach((k, v) -> headers.add(header(k, v)));
+    }
+
+    /**
+     * Method returns the record header for a header key and value. String values are encoded as UTF-8, byte[] values
+     * are used as they are.
+     *
+     * @param key - header key
+     * @param value - header value
+     */
+    public Header header(String key, Object value) {
+        if (Objects.isNull(value))
+            throw new KafkaHeaderValidationException(
+                    String.format(ConfigConstants.INVALID_KAFKA_HEADER_VALUE_ERROR_MSG, key));
+        if (value instanceof byte[])
+            return new RecordHeader(key, (byte[]) value);
+        String text = value.toString();
+        if (text.length() > maxValueLength || isExcluded(key))
+            return new RecordHeader(key, text.getBytes(StandardCharsets.UTF_8));
+        ConcurrentMap<String, Header> values = cache.get(key);
+        if (Objects.isNull(values))
+            values = cache.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        Header header = values.get(text);
+        if (Objects.isNull(header)) {
+            header = new RecordHeader(key, text.getBytes(StandardCharsets.UTF_8));
+            if (cachedHeaders.incrementAndGet() > maxEntries) {
+                // values which are not repeated have filled the cache, start over rather than tracking usage
+                log.debug("Header cache reached {} entries, clearing it", maxEntries);
+                cache.clear();
+                cachedHeaders.set(0);
+            } else if (Objects.nonNull(values.putIfAbsent(text, header))) {
+                cachedHeaders.decrementAndGet();
+            }
+        }
+        return header;
+    }
+
+    private boolean isExcluded(String key) {
+        for (String excludedHeader : excludedHeaders)
+            if (excludedHeader.equals(key))
+                return true;
+        return false;
+    }
+
+    /**
+     * Method encodes a set of headers which is the same for many records, e.g. the source system and message type of a
+     * producer, once. The returned template adds the encoded headers to each record without encoding them again.
+     *
+     * @param kafkaHeader - Kafka headers map shared by the records
+     */
+    public HeaderTemplate template(Map<String, Object> kafkaHeader) {
+        if (CollectionUtils.isEmpty(kafkaHeader))
+            throw new KafkaHeaderValidationException(ConfigConstants.INVALID_KAFKA_HEADER_MAP_ERROR_MSG);
+        List<Header> encoded = new ArrayList<>(kafkaHeader.size());
+        kafkaHeader.forEach((k, v) -> {
+            if (Objects.isNull(v))
+                throw new KafkaHeaderValidationException(
+                        String.format(ConfigConstants.INVALID_KAFKA_HEADER_VALUE_ERROR_MSG, k));
+            encoded.add(new RecordHeader(k, v instanceof byte[] ? (byte[]) v
+                    : v.toString().getBytes(StandardCharsets.UTF_8)));
+        });
+        return new HeaderTemplate(Collections.unmodifiableList(encoded));
+    }
+
+    /**
+     * Pre-encoded headers which are added to any number of records. The producer makes the headers of a record read
+     * only once it is sent, so the headers themselves are reused rather than the RecordHeaders holding them.
+     */
+    public static final class HeaderTemplate {
+
+        private final List<Header> headers;
+
+        private HeaderTemplate(List<Header> headers) {
+            this.headers = headers;
+        }
+
+        /**
+         * Method adds the pre-encoded headers to the producer record headers.
+         *
+         * @param recordHeaders - Producer record header
+         */
+        public Headers applyTo(Headers recordHeaders) {
+            for (int i = 0; i < headers.size(); i++)
+                recordHeaders.add(headers.get(i));
+            return recordHeaders;
+        }
+
+        public List<Header> getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.claimscheck.request.ClaimsCheckRequestPayload;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.InFlightLimitExceededException;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class bounds the records handed to the producer and not yet acknowledged, enabled with
+ * kafka.producer.in-flight.enabled. A record takes one of max-records permits and its estimated size from max-bytes
+ * before it is sent, and gives them back when its send completes, so the records held by the producer's buffer and
+ * the futures waiting on them stay within known limits. When a record does not fit, kafka.producer.in-flight.policy
+ * decides:
+ * <ul>
+ * <li>block - default, the caller waits up to block-timeout-ms for permits, then the send fails</li>
+ * <li>reject - the send fails at once</li>
+ * <li>spill - the payload is moved to claims check, where only its small reference record is sent. Reference records
+ * themselves wait like with block</li>
+ * </ul>
+ * A failed acquire throws InFlightLimitExceededException, which is not retried and not sent to the DLT, as the DLT
+ * record would meet the same limit. The size is the lower bound of PayloadSizeEstimator, and a record larger than
+ * max-bytes takes all of it, so it is sent alone instead of never.
+ */
+@Slf4j
+@Component
+public class InFlightLimiter {
+
+    public enum Policy {
+        BLOCK, REJECT, SPILL
+    }
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private PayloadSizeEstimator payloadSizeEstimator;
+
+    @Value("${kafka.producer.in-flight.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.producer.in-flight.max-records:10000}")
+    private int maxRecords = 10000;
+
+    @Value("${kafka.producer.in-flight.max-bytes:33554432}")
+    private int maxBytes = 33554432;
+
+    @Value("${kafka.producer.in-flight.policy:block}")
+    private String configuredPolicy = "block";
+
+    @Value("${kafka.producer.in-flight.block-timeout-ms:1000}")
+    private long blockTimeoutMs = 1000;
+
+    private Policy policy = Policy.BLOCK;
+
+    private Semaphore records;
+
+    private Semaphore bytes;
+
+    @PostConstruct
+    public void init() {
+        policy = Policy.valueOf(configuredPolicy.trim().toUpperCase(Locale.ROOT));
+        records = new Semaphore(maxRecords);
+        bytes = new Semaphore(maxBytes);
+        if (!enabled)
+            return;
+        Gauge.builder(ConfigConstants.IN_FLIGHT_RECORDS, this, InFlightLimiter::inFlightRecords).register(registry);
+        Gauge.builder(ConfigConstants.IN_FLIGHT_BYTES, this, InFlightLimiter::inFlightBytes).register(registry);
+        log.info("In-flight limit of {} records and {} bytes, policy {}", maxRecords, maxBytes, policy);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public int inFlightRecords() {
+        return maxRecords - records.availablePermits();
+    }
+
+    public int inFlightBytes() {
+        return maxBytes - bytes.availablePermits();
+    }
+
+    /**
+     * Method takes the permits of a record about to be sent, see {@link #release(int)}.
+     *
+     * @param producerRecord - producer record to be sent on topic
+     * @return bytes taken, 0 when the limiter is disabled
+     * @throws InFlightLimitExceededException - when the record does not fit within the limits
+     */
+    public int acquire(ProducerRecord<String, ?> producerRecord) {
+        if (!enabled)
+            return 0;
+        int size = (int) Math.max(1, Math.min(maxBytes, estimate(producerRecord)));
+        if (tryAcquire(size, 0))
+            return size;
+        // a claims check reference record can not be spilled again
+        boolean spill = policy == Policy.SPILL && !(producerRecord.value() instanceof ClaimsCheckRequestPayload);
+        if (policy != Policy.REJECT && !spill) {
+            long startedAt = System.nanoTime();
+            boolean acquired = tryAcquire(size, TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs));
+            registry.timer(ConfigConstants.IN_FLIGHT_WAIT).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            if (acquired)
+                return size;
+        }
+        registry.counter(ConfigConstants.IN_FLIGHT_REJECTED_TOTAL, "policy", policy.name().toLowerCase(Locale.ROOT))
+                .increment();
+        throw new InFlightLimitExceededException(String.format(
+                "In-flight limit of %d records and %d bytes reached, record for topic %s %s", maxRecords, maxBytes,
+                producerRecord.topic(), spill ? "moved to claims check" : "not sent"), spill);
+    }
+
+    /**
+     * Method gives back the permits of a record once its send has completed.
+     *
+     * @param size - bytes returned by {@link #acquire(ProducerRecord)}
+     */
+    public void release(int size) {
+        if (!enabled)
+            return;
+        bytes.release(size);
+        records.release();
+    }
+
+    private boolean tryAcquire(int size, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        try {
+            if (!records.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS))
+                return false;
+            if (bytes.tryAcquire(size, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS))
+                return true;
+            records.release();
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private long estimate(ProducerRecord<String, ?> producerRecord) {
+        long keySize = Objects.isNull(producerRecord.key()) ? 0 : producerRecord.key().length();
+        return keySize + payloadSizeEstimator.estimate(producerRecord.value());
+    }
+}
@@ -5,23 +5,34 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.*;
+import net.apmoller.crb.ohm.microservices.producer.library.models.PublishContext;
 import net.apmoller.crb.ohm.microservices.producer.library.services.ConfigValidator;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.PublishSpool;
 import org.apache.avro.Schema;
-import org.apache.avro.reflect.ReflectData;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.header.Headers;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
-import org.springframework.util.CollectionUtils;
+import org.springframework.transaction.TransactionTimedOutException;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
 
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
 
 @Slf4j
 @Component
@@ -36,9 +47,57 @@ public class MessagePublisherUtil<T> {
     @Autowired
     private ConfigValidator<T> configValidator;
 
+    @Autowired
+    private TemplateRouter<T> templateRouter;
+
+    @Autowired
+    private HeaderEncoder headerEncoder;
+
+    @Autowired
+    private ProducerProfiles<T> producerProfiles;
+
+    @Autowired
+    private AdaptiveBatchingSelector<T> adaptiveBatchingSelector;
+
+    @Autowired
+    private ProducerPool<T> producerPool;
+
+    @Autowired
+    private TransactionalBatcher<T> transactionalBatcher;
+
+    @Autowired
+    private InFlightLimiter inFlightLimiter;
+
+    @Autowired
+    private TopicCircuitBreaker topicCircuitBreaker;
+
+    @Autowired
+    private RetryBudget retryBudget;
+
+    @Autowired
+    private PublishExecutor publishExecutor;
+
+    @Autowired
+    private PublishSpool publishSpool;
+
     @Autowired
     private ApplicationContext context;
 
+    @Value("${spring.retry.maximum.attempts:3}")
+    private int maxAttempts;
+
+    @Value("${spring.retry.backoff.delay:100}")
+    private long backoffDelay;
+
+    @Value("${spring.retry.backoff.multiplier:2}")
+    private double backoffMultiplier;
+
+    @Value("${spring.retry.backoff.maxdelay:600}")
+    private long backoffMaxDelay;
+
+    @Value("${spring.retry.backoff.jitter:0.5}")
+    private double backoffJitter;
+
     /**
      * Method sends message to kafka and returns the Success or Failure case.
      *
@@ -50,8 +109,7 @@ public class MessagePublisherUtil<T> {
         String correlationId = configValidator.getCorrelationId(kafkaHeader);
         try {
             addHeaders(producerRecord.headers(), kafkaHeader);
-            Schema schema = ReflectData.get().getSchema(producerRecord.value().getClass());
-            ListenableFuture<SendResult<String, T>> future = getKafkaTemplate(schema).send(producerRecord);
+            ListenableFuture<SendResult<String, T>> future = send(producerRecord);
             future.addCallback(new ListenableFutureCallback<>() {
                 @Override
                 public void onSuccess(SendResult<String, T> result) {
@@ -72,20 +130,229 @@ public class MessagePublisherUtil<T> {
         }
     }
 
+    /**
+     * Method sends message to kafka without blocking and returns a future which completes once the broker has
+     * acknowledged the record, or exceptionally when the send fails.
+     *
+     * @param producerRecord - producer record to be sent on topic
+     * @param kafkaHeader - Kafka headers map from input
+     */
+    public CompletableFuture<SendResult<String, T>> publishOnTopicAsync(ProducerRecord<String, T> producerRecord,
+            Map<String, Object> kafkaHeader) {
+
+        CompletableFuture<SendResult<String, T>> result = new CompletableFuture<>();
+        String correlationId = configValidator.getCorrelationId(kafkaHeader);
+        try {
+            addHeaders(producerRecord.headers(), kafkaHeader);
+            ListenableFuture<SendResult<String, T>> future = send(producerRecord);
+            future.addCallback(new ListenableFutureCallback<>() {
+                @Override
+                public void onSuccess(SendResult<String, T> sendResult) {
+                    log.info("Sent Payload with Correlation-Id {} to kafka topic:[{}] on partition:[{}] with offset=[{}]", correlationId,
+                            producerRecord.topic(), sendResult.getRecordMetadata().partition(), sendResult.getRecordMetadata().offset());
+                    result.complete(sendResult);
+                }
+
+                @Override
+                public void onFailure(Throwable ex) {
+                    log.error("Unable to send Payload with Correlation-Id {} to kafka topic:[{}] due to : {}", correlationId, producerRecord.topic(), ex);
+                    result.completeExceptionally(ex);
+                }
+            });
+        } catch (Exception ex) {
+            log.error("Exception occurred while pushing Payload with Correlation-Id {} ", correlationId, ex);
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * Method sends message to kafka without blocking and retries retriable failures with exponential backoff
+     * (spring.retry.* properties). The backoff is scheduled, so no thread is parked while waiting.
+     *
+     * @param producerTopic - target topic name
+     * @param message - payload
+     * @param kafkaHeader - Kafka headers map from input
+     */
+    public CompletableFuture<SendResult<String, T>> publishWithRetryAsync(String producerTopic, T message,
+            Map<String, Object> kafkaHeader) {
+        return publishWithRetryAsync(PublishContext.start(configValidator.getCorrelationId(kafkaHeader), producerTopic),
+                message, kafkaHeader);
+    }
+
+    private CompletableFuture<SendResult<String, T>> publishWithRetryAsync(PublishContext publishContext, T message,
+            Map<String, Object> kafkaHeader) {
+        // A record can't be resent once its headers are read only, so every attempt gets a fresh one
+        return publishOnTopicAsync(new ProducerRecord<>(publishContext.getTopic(), message), kafkaHeader)
+                .handle((result, ex) -> {
+                    if (Objects.isNull(ex))
+                        return CompletableFuture.completedFuture(result);
+                    Throwable cause = unwrap(ex);
+                    if (publishContext.getAttempt() >= maxAttempts || !isRetriable(cause)
+                            || !retryBudget.tryAcquire())
+                        return CompletableFuture.<SendResult<String, T>>failedFuture(cause);
+                    long delay = backoffDelayFor(publishContext.getAttempt());
+                    PublishContext nextAttempt = publishContext.nextAttempt();
+                    log.info("Retrying Payload with Correlation-Id {} to kafka topic: {} in {} ms, attempt {} of {}",
+                            nextAttempt.getCorrelationId(), nextAttempt.getTopic(), delay, nextAttempt.getAttempt(),
+                            maxAttempts);
+                    return publishExecutor.schedule(delay)
+                            .thenCompose(ignored -> publishWithRetryAsync(nextAttempt, message, kafkaHeader));
+                }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Method sends a record read back from the PublishSpool, with the headers it was spooled with.
+     *
+     * @param producerRecord - spooled producer record
+     */
+    public CompletableFuture<SendResult<String, T>> publishSpooledAsync(ProducerRecord<String, T> producerRecord) {
+        CompletableFuture<SendResult<String, T>> result = new CompletableFuture<>();
+        try {
+            send(producerRecord).addCallback(result::complete, result::completeExceptionally);
+        } catch (Exception ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    /**
+     * Method returns the exponential backoff of the attempt, reduced by a random share of up to
+     * spring.retry.backoff.jitter, so records failing together during a broker stall are not all retried at once.
+     */
+    private long backoffDelayFor(int attempt) {
+        long delay = Math.min((long) (backoffDelay * Math.pow(backoffMultiplier, attempt - 1d)), backoffMaxDelay);
+        if (backoffJitter <= 0)
+            return delay;
+        return (long) (delay * (1 - Math.min(backoffJitter, 1) * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * Method checks if the failure is one the producer retries, matching the exceptions of the @Retryable flows.
+     */
+    public static boolean isRetriable(Throwable ex) {
+        return hasCause(ex, TimeoutException.class) || hasCause(ex, TransactionTimedOutException.class);
+    }
+
+    /**
+     * Method checks if the failure was caused by a record exceeding the producer or broker size limits.
+     */
+    public static boolean isRecordTooLarge(Throwable ex) {
+        return hasCause(ex, RecordTooLargeException.class);
+    }
+
+    /**
+     * Method checks if the payload was turned away by the in-flight limit with the spill policy, and is to be moved
+     * to claims check.
+     */
+    public static boolean isSpilled(Throwable ex) {
+        for (Throwable cause = ex; Objects.nonNull(cause); cause = cause.getCause()) {
+            if (cause instanceof InFlightLimitExceededException)
+                return ((InFlightLimitExceededException) cause).isSpill();
+            if (cause.getCause() == cause)
+                break;
+        }
+        return false;
+    }
+
+    private static boolean hasCause(Throwable ex, Class<? extends Throwable> type) {
+        for (Throwable cause = ex; Objects.nonNull(cause); cause = cause.getCause()) {
+            if (type.isInstance(cause))
+                return true;
+            if (cause.getCause() == cause)
+                break;
+        }
+        return false;
+    }
+
+    /**
+     * Method rethrows the failure of a send that already failed before the caller got its future back, so the
+     * blocking flows keep reporting synchronous failures (validation, serialization, buffer full) as exceptions.
+     *
+     * @param future - future returned by publishOnTopicAsync
+     */
+    public static void rethrowIfFailed(CompletableFuture<?> future) {
+        if (!future.isCompletedExceptionally())
+            return;
+        try {
+            future.join();
+        } catch (CompletionException | CancellationException ex) {
+            Throwable cause = unwrap(ex);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new KafkaException(cause);
+        }
+    }
+
+    /**
+     * Method strips the wrappers added by CompletableFuture so the original failure is reported.
+     */
+    public static Throwable unwrap(Throwable ex) {
+        Throwable cause = ex;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && Objects.nonNull(cause.getCause()))
+            cause = cause.getCause();
+        return cause;
+    }
+
     /**
      * Method adds headers to the producerRecord.
      *
      * @param headers - Producer record header
      * @param kafkaHeader - Kafka headers map from input
      */
-    private void addHeaders(Headers headers, Map<String, Object> kafkaHeader) {
-        if (CollectionUtils.isEmpty(kafkaHeader))
-            throw new KafkaHeaderValidationException(ConfigConstants.INVALID_KAFKA_HEADER_MAP_ERROR_MSG);
-        kafkaHeader.forEach((k, v) -> {
-            if (Objects.isNull(v))
-                throw new KafkaHeaderValidationException(String.format(ConfigConstants.INVALID_KAFKA_HEADER_VALUE_ERROR_MSG, k));
-            headers.add(k, v.toString().getBytes(StandardCharsets.UTF_8));
-        });
+    public void addHeaders(Headers headers, Map<String, Object> kafkaHeader) {
+        headerEncoder.addHeaders(headers, kafkaHeader);
+    }
+
+    private ListenableFuture<SendResult<String, T>> send(ProducerRecord<String, T> producerRecord) {
+        if (!inFlightLimiter.isEnabled())
+            return sendThroughBreaker(producerRecord);
+        int size = inFlightLimiter.acquire(producerRecord);
+        ListenableFuture<SendResult<String, T>> future;
+        try {
+            future = sendThroughBreaker(producerRecord);
+        } catch (RuntimeException ex) {
+            inFlightLimiter.release(size);
+            throw ex;
+        }
+        future.addCallback(result -> inFlightLimiter.release(size), ex -> inFlightLimiter.release(size));
+        return future;
+    }
+
+    private ListenableFuture<SendResult<String, T>> sendThroughBreaker(ProducerRecord<String, T> producerRecord) {
+        if (!topicCircuitBreaker.isEnabled())
+            return doSend(producerRecord);
+        String topic = producerRecord.topic();
+        topicCircuitBreaker.acquire(topic);
+        ListenableFuture<SendResult<String, T>> future;
+        try {
+            future = doSend(producerRecord);
+        } catch (RuntimeException ex) {
+            topicCircuitBreaker.onResult(topic, ex);
+            throw ex;
+        }
+        future.addCallback(result -> topicCircuitBreaker.onResult(topic, null),
+                ex -> topicCircuitBreaker.onResult(topic, ex));
+        return future;
+    }
+
+    private ListenableFuture<SendResult<String, T>> doSend(ProducerRecord<String, T> producerRecord) {
+        if (transactionalBatcher.isEnabled()) {
+            // a transactional producer is shared by the records of a commit batch, so it is not batched or pooled
+            KafkaTemplate<String, T> kafkaTemplate = producerProfiles.select(templateRouter.route(producerRecord),
+                    producerRecord);
+            return transactionalBatcher.send(kafkaTemplate, producerRecord);
+        }
+        return route(producerRecord).send(producerRecord);
+    }
+
+    private KafkaTemplate<String, T> route(ProducerRecord<String, T> producerRecord) {
+        // routed by payload type, then the topic's profile, the batching profile and the pooled producer
+        KafkaTemplate<String, T> kafkaTemplate = producerProfiles.select(templateRouter.route(producerRecord),
+                producerRecord);
+        kafkaTemplate = adaptiveBatchingSelector.select(kafkaTemplate, producerRecord);
+        return producerPool.select(kafkaTemplate, producerRecord);
     }
 
     /**
@@ -95,6 +362,38 @@ public class MessagePublisherUtil<T> {
         return schema.getName().equalsIgnoreCase("String") ? kafkaTemplateJson : kafkaTemplateAvro;
     }
 
+    /**
+     * Method appends the message to the PublishSpool when it could be sent neither to its topic nor to the DLT, so
+     * the SpoolDrainer publishes it once the topic is available again. Failures the message itself causes, invalid
+     * input or a record too large, and records turned away by the in-flight limit are not spooled.
+     *
+     * @param e - failure of the publish
+     * @param topic - target topic name
+     * @param message - payload
+     * @param kafkaHeader - Kafka headers map from input
+     * @return true if the message was spooled
+     */
+    public boolean spool(Throwable e, String topic, T message, Map<String, Object> kafkaHeader) {
+        if (!publishSpool.isEnabled() || Objects.isNull(topic) || isRecordTooLarge(e)
+                || e instanceof InFlightLimitExceededException
+                || (e instanceof RuntimeException && configValidator.isInputValidationException((RuntimeException) e)))
+            return false;
+        String correlationId = configValidator.getCorrelationId(kafkaHeader);
+        try {
+            ProducerRecord<String, T> producerRecord = new ProducerRecord<>(topic, message);
+            addHeaders(producerRecord.headers(), kafkaHeader);
+            if (publishSpool.append(producerRecord)) {
+                log.info("Spooled Payload with Correlation-Id {} for kafka topic: {}", correlationId, topic);
+                return true;
+            }
+            log.error("Spool is full, Payload with Correlation-Id {} for kafka topic: {} is not spooled",
+                    correlationId, topic);
+        } catch (IOException | RuntimeException ex) {
+            log.error("Unable to spool Payload with Correlation-Id {} for kafka topic: {}", correlationId, topic, ex);
+        }
+        return false;
+    }
+
     /**
      * Method to publish the Message on DLT Topic for single producer flow.
      */
@@ -110,6 +409,10 @@ public class MessagePublisherUtil<T> {
                 correlationId, e.getClass().getName());
             throw e;
         }
+        if (e instanceof CircuitBreakerOpenException || e instanceof InFlightLimitExceededException) {
+            log.info("Payload with Correlation-Id {} not sent to DLT, {}", correlationId, e.getMessage());
+            throw e;
+        }
         try {
             dltTopic = context.getEnvironment().resolvePlaceholders(ConfigConstants.DLT);
             if (configValidator.dltTopicIsPresent(dltTopic)) {
@@ -142,6 +445,10 @@ public class MessagePublisherUtil<T> {
                 correlationId, e.getClass().getName());
             throw e;
         }
+        if (e instanceof CircuitBreakerOpenException || e instanceof InFlightLimitExceededException) {
+            log.info("Payload with Correlation-Id {} not sent to DLT, {}", correlationId, e.getMessage());
+            throw e;
+        }
         try {
             if (configValidator.dltTopicPresent(topics)) {
                 dltTopic = topics.get(ConfigConstants.DEAD_LETTER_TOPIC_KEY);
@@ -158,4 +465,48 @@ public class MessagePublisherUtil<T> {
         }
     }
 
+    /**
+     * Method to publish the Message on DLT Topic for single producer flow without blocking.
+     */
+    public CompletableFuture<SendResult<String, T>> produceMessageToDltAsync(Throwable e, T message,
+            Map<String, Object> kafkaHeader) {
+        String dltTopic = context.getEnvironment().resolvePlaceholders(ConfigConstants.DLT);
+        return publishToDltAsync(e, configValidator.dltTopicIsPresent(dltTopic) ? dltTopic : null, message,
+                kafkaHeader);
+    }
+
+    /**
+     * Method to publish the Message on DLT Topic for multiple producer flow without blocking.
+     */
+    public CompletableFuture<SendResult<String, T>> produceMessageToDltAsync(Throwable e, Map<String, String> topics,
+            T message, Map<String, Object> kafkaHeader) {
+        return publishToDltAsync(e,
+                configValidator.dltTopicPresent(topics) ? topics.get(ConfigConstants.DEAD_LETTER_TOPIC_KEY) : null,
+                message, kafkaHeader);
+    }
+
+    private CompletableFuture<SendResult<String, T>> publishToDltAsync(Throwable e, String dltTopic, T message,
+            Map<String, Object> kafkaHeader) {
+        String correlationId = configValidator.getCorrelationId(kafkaHeader);
+        if (e instanceof RuntimeException && configValidator.isInputValidationException((RuntimeException) e)) {
+            log.info("Throwing validation exception for Payload with Correlation-Id {}: {}",
+                correlationId, e.getClass().getName());
+            return CompletableFuture.failedFuture(e);
+        }
+        if (e instanceof CircuitBreakerOpenException || e instanceof InFlightLimitExceededException) {
+            log.info("Payload with Correlation-Id {} not sent to DLT, {}", correlationId, e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+        if (Objects.isNull(dltTopic)) {
+            log.info("DLT not added in config or input topic map");
+            return CompletableFuture.failedFuture(e);
+        }
+        return publishOnTopicAsync(new ProducerRecord<>(dltTopic, message), kafkaHeader).whenComplete((result, ex) -> {
+            if (Objects.isNull(ex))
+                log.info("Published Payload with Correlation-Id {} to dead letter topic: {}", correlationId, dltTopic);
+            else
+                log.error("Exception while posting Payload with Correlation-Id {} to DLT: {} ", correlationId, dltTopic, ex);
+        });
+    }
+
 }
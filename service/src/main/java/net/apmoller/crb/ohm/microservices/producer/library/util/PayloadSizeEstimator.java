@@ -0,0 +1,91 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.generic.IndexedRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Class estimates the serialized size of a payload before it is sent, so that payloads which can never fit into
+ * kafka.producer.max.request.size are routed to claims check without a wasted serialize and send round trip.
+ */
+@Slf4j
+@Component
+public class PayloadSizeEstimator {
+
+    @Value("${kafka.producer.max.request.size:15000000}")
+    private int maxRequestSize;
+
+    @Value("${kafka.producer.size-check.enabled:true}")
+    private boolean sizeCheckEnabled;
+
+    /**
+     * Method checks if the payload together with its headers is bigger than the max request size. The estimate is a
+     * lower bound of the serialized size, so a payload is never routed to claims check when it could have been sent.
+     *
+     * @param message - payload
+     * @param kafkaHeader - Kafka headers map from input
+     */
+    public boolean exceedsMaxRequestSize(Object message, Map<String, Object> kafkaHeader) {
+        if (!sizeCheckEnabled || Objects.isNull(message))
+            return false;
+        long estimatedSize = estimate(message) + estimateHeaders(kafkaHeader);
+        if (estimatedSize > maxRequestSize) {
+            log.info("Estimated payload size {} bytes exceeds max request size {} bytes", estimatedSize, maxRequestSize);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Method returns the minimum number of bytes the payload needs once serialized.
+     *
+     * @param value - payload or one of its fields
+     */
+    public long estimate(Object value) {
+        if (Objects.isNull(value))
+            return 0;
+        if (value instanceof CharSequence)
+            // every char takes at least one byte in UTF-8
+            return ((CharSequence) value).length();
+        if (value instanceof byte[])
+            return ((byte[]) value).length;
+        if (value instanceof ByteBuffer)
+            return ((ByteBuffer) value).remaining();
+        if (value instanceof IndexedRecord) {
+            IndexedRecord indexedRecord = (IndexedRecord) value;
+            long size = 0;
+            int fields = indexedRecord.getSchema().getFields().size();
+            for (int i = 0; i < fields; i++)
+                size += estimate(indexedRecord.get(i));
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = 0;
+            for (Object item : (Collection<?>) value)
+                size += estimate(item);
+            return size;
+        }
+        if (value instanceof Map) {
+            long size = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+                size += estimate(entry.getKey()) + estimate(entry.getValue());
+            return size;
+        }
+        return 1;
+    }
+
+    private long estimateHeaders(Map<String, Object> kafkaHeader) {
+        if (Objects.isNull(kafkaHeader))
+            return 0;
+        long size = 0;
+        for (Map.Entry<String, Object> entry : kafkaHeader.entrySet())
+            size += estimate(entry.getKey()) + estimate(entry.getValue());
+        return size;
+    }
+}
@@ -0,0 +1,36 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.util.Map;
+
+/**
+ * Reads the client metrics of the producer behind a template, for gauges derived from them.
+ */
+final class ProducerMetrics {
+
+    static final String PRODUCER_METRICS_GROUP = "producer-metrics";
+
+    private ProducerMetrics() {
+        // Private constructor
+    }
+
+    /**
+     * Method returns the value of a producer-metrics metric of the template's producer, NaN if it is not reported.
+     * Creates the producer if the template has none yet.
+     *
+     * @param kafkaTemplate - template of the producer
+     * @param name - metric name, e.g. batch-size-avg
+     */
+    static double value(KafkaTemplate<?, ?> kafkaTemplate, String name) {
+        for (Map.Entry<MetricName, ? extends Metric> metric : kafkaTemplate.metrics().entrySet()) {
+            if (name.equals(metric.getKey().name()) && PRODUCER_METRICS_GROUP.equals(metric.getKey().group())) {
+                Object value = metric.getValue().metricValue();
+                return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+}
@@ -0,0 +1,177 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class spreads the records of a template over kafka.producer.pool.size producers, so sends are not limited by the
+ * sender thread and record accumulator of a single producer. A record goes to the producer picked by its partition
+ * when set, otherwise by the hash of its key, so records of a key or partition always use the same producer and stay
+ * in order. Records without key or partition go to the producer of the sending thread. A pool size of 1, the default,
+ * sends every record with the template as before.
+ */
+@Slf4j
+@Component
+public class ProducerPool<T> {
+
+    private static final String DEFAULT_CLIENT_ID = "producer-library";
+
+    private final AtomicInteger poolNumber = new AtomicInteger();
+
+    private final Map<KafkaTemplate<String, T>, List<PooledProducer>> pools = new ConcurrentHashMap<>();
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${kafka.producer.pool.size:1}")
+    private int size = 1;
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Method returns the pooled template the record is sent with, or the template itself when the pool size is 1.
+     *
+     * @param kafkaTemplate - template chosen for the record
+     * @param producerRecord - producer record to be sent on topic
+     */
+    public KafkaTemplate<String, T> select(KafkaTemplate<String, T> kafkaTemplate, ProducerRecord<String, T> producerRecord) {
+        if (size <= 1)
+            return kafkaTemplate;
+        List<PooledProducer> pool = pools.computeIfAbsent(kafkaTemplate, this::newPool);
+        return pool.get(indexOf(producerRecord, pool.size())).use();
+    }
+
+    /**
+     * Method flushes the producers the records of the template were sent with, the pooled ones if it has a pool.
+     *
+     * @param kafkaTemplate - template chosen for the records
+     */
+    public void flush(KafkaTemplate<String, T> kafkaTemplate) {
+        List<PooledProducer> pool = size <= 1 ? null : pools.get(kafkaTemplate);
+        if (Objects.isNull(pool)) {
+            kafkaTemplate.flush();
+            return;
+        }
+        for (PooledProducer pooled : pool)
+            if (pooled.used)
+                pooled.kafkaTemplate.flush();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pools.values().forEach(pool -> pool.forEach(PooledProducer::destroy));
+    }
+
+    private static int indexOf(ProducerRecord<String, ?> producerRecord, int poolSize) {
+        if (poolSize == 1)
+            return 0;
+        if (Objects.nonNull(producerRecord.partition()))
+            return Math.floorMod(producerRecord.partition(), poolSize);
+        if (Objects.nonNull(producerRecord.key()))
+            return Math.floorMod(spread(producerRecord.key().hashCode()), poolSize);
+        return Math.floorMod(spread(Long.hashCode(Thread.currentThread().getId())), poolSize);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Method copies the template's producer factory into size factories, which differ only in client.id, so each has
+     * its own producer. A factory which can not be copied is used as it is, as a pool of one.
+     */
+    private List<PooledProducer> newPool(KafkaTemplate<String, T> kafkaTemplate) {
+        ProducerFactory<String, T> producerFactory = kafkaTemplate.getProducerFactory();
+        List<PooledProducer> pool = new ArrayList<>(size);
+        String clientIdPrefix;
+        try {
+            Object clientId = producerFactory.getConfigurationProperties().get(ProducerConfig.CLIENT_ID_CONFIG);
+            clientIdPrefix = (Objects.isNull(clientId) ? DEFAULT_CLIENT_ID : clientId.toString()) + "-pool"
+                    + poolNumber.incrementAndGet() + "-";
+            for (int i = 0; i < size; i++) {
+                PooledProducer pooled = new PooledProducer(new KafkaTemplate<>(producerFactory,
+                        Map.of(ProducerConfig.CLIENT_ID_CONFIG, clientIdPrefix + i)), true);
+                pool.add(pooled);
+                Gauge.builder(ConfigConstants.PRODUCER_POOL_BUFFER_UTILIZATION, pooled,
+                        PooledProducer::bufferUtilization).tag("client-id", clientIdPrefix + i).register(registry);
+            }
+        } catch (UnsupportedOperationException ex) {
+            log.warn("Producer factory {} can not be copied, its records are not spread over a producer pool",
+                    producerFactory.getClass().getName());
+            pool.forEach(PooledProducer::destroy);
+            return Collections.singletonList(new PooledProducer(kafkaTemplate, false));
+        }
+        log.info("Created a pool of {} producers with client ids {}0 to {}{}", size, clientIdPrefix, clientIdPrefix,
+                size - 1);
+        return Collections.unmodifiableList(pool);
+    }
+
+    /**
+     * A template of the pool, with its own producer factory unless the template could not be copied.
+     */
+    private final class PooledProducer {
+
+        private final KafkaTemplate<String, T> kafkaTemplate;
+
+        private final boolean copied;
+
+        private volatile boolean used;
+
+        private PooledProducer(KafkaTemplate<String, T> kafkaTemplate, boolean copied) {
+            this.kafkaTemplate = kafkaTemplate;
+            this.copied = copied;
+        }
+
+        private KafkaTemplate<String, T> use() {
+            if (!used)
+                used = true;
+            return kafkaTemplate;
+        }
+
+        /**
+         * Share of the producer's buffer.memory holding records not sent yet, 0 until the producer is used, so the
+         * gauge does not create a producer.
+         */
+        private double bufferUtilization() {
+            if (!used)
+                return 0;
+            double total = ProducerMetrics.value(kafkaTemplate, "buffer-total-bytes");
+            double available = ProducerMetrics.value(kafkaTemplate, "buffer-available-bytes");
+            if (Double.isNaN(total) || Double.isNaN(available) || total <= 0)
+                return 0;
+            return (total - available) / total;
+        }
+
+        private void destroy() {
+            ProducerFactory<String, T> producerFactory = kafkaTemplate.getProducerFactory();
+            if (copied && producerFactory instanceof DisposableBean) {
+                try {
+                    ((DisposableBean) producerFactory).destroy();
+                } catch (Exception ex) {
+                    log.warn("Failed to close pooled producer", ex);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named producer profiles, each overriding producer properties for the topics bound to it, e.g. acks=1 for
+ * notifications and zstd compression for claims check records:
+ *
+ * <pre>
+ * kafka.producer.profiles:
+ *   notifications:
+ *     topic-keys: notification-topic
+ *     properties:
+ *       acks: 1
+ *   claims-check:
+ *     topics: claims-check-orders, claims-check-invoices
+ *     properties:
+ *       compression.type: zstd
+ * </pre>
+ *
+ * Topic keys are the keys of the topic map (notification-topic, retry-topic, dead-letter-topic, claimscheck-topic,
+ * claimscheck-dlt) and resolve to the topic configured under kafka.notification. A profile copies the template the
+ * record was routed to, so Avro and JSON records of a profile keep their serializers, and the copy is created once per
+ * template. Records of topics without a profile are sent with the routed template.
+ */
+@Slf4j
+@Component
+public class ProducerProfiles<T> implements EnvironmentAware {
+
+    public static final String PROFILES_PREFIX = "kafka.producer.profiles";
+
+    private static final String NOTIFICATION_TOPIC_PROPERTY = "kafka.notification.topic";
+
+    private static final String TOPIC_PROPERTY_PREFIX = "kafka.notification.";
+
+    private Environment environment;
+
+    private Map<String, Profile> topicProfiles = Collections.emptyMap();
+
+    private final List<Profile> profiles = new ArrayList<>();
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    public void init() {
+        Map<String, ProfileProperties> boundProfiles = Binder.get(environment)
+                .bind(PROFILES_PREFIX, Bindable.mapOf(String.class, ProfileProperties.class))
+                .orElse(Collections.emptyMap());
+        Map<String, Profile> profilesByTopic = new HashMap<>();
+        boundProfiles.forEach((name, properties) -> {
+            Profile profile = new Profile(name, new HashMap<>(properties.getProperties()));
+            profiles.add(profile);
+            List<String> topics = topicsOf(name, properties);
+            for (String topic : topics) {
+                Profile bound = profilesByTopic.putIfAbsent(topic, profile);
+                if (Objects.nonNull(bound))
+                    throw new IllegalStateException(String.format("Topic %s is bound to producer profiles %s and %s",
+                            topic, bound.name, name));
+            }
+            log.info("Producer profile {} overrides {} for topics {}", name, properties.getProperties().keySet(),
+                    topics);
+        });
+        topicProfiles = profilesByTopic;
+    }
+
+    /**
+     * Method returns the template of the profile bound to the record's topic, or the routed template if the topic has
+     * no profile.
+     *
+     * @param kafkaTemplate - template chosen by the TemplateRouter
+     * @param producerRecord - producer record to be sent on topic
+     */
+    public KafkaTemplate<String, T> select(KafkaTemplate<String, T> kafkaTemplate, ProducerRecord<String, T> producerRecord) {
+        if (topicProfiles.isEmpty())
+            return kafkaTemplate;
+        Profile profile = topicProfiles.get(producerRecord.topic());
+        return Objects.isNull(profile) ? kafkaTemplate : profile.templateFor(kafkaTemplate);
+    }
+
+    /**
+     * Method returns the name of the profile bound to the topic, null if there is none.
+     *
+     * @param topic - topic name
+     */
+    public String profileOf(String topic) {
+        Profile profile = topicProfiles.get(topic);
+        return Objects.isNull(profile) ? null : profile.name;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        profiles.forEach(Profile::destroy);
+    }
+
+    private List<String> topicsOf(String name, ProfileProperties properties) {
+        List<String> topics = new ArrayList<>(properties.getTopics());
+        for (String topicKey : properties.getTopicKeys()) {
+            String property = ConfigConstants.NOTIFICATION_TOPIC_KEY.equals(topicKey) ? NOTIFICATION_TOPIC_PROPERTY
+                    : TOPIC_PROPERTY_PREFIX + topicKey;
+            String topic = environment.getProperty(property);
+            if (Objects.isNull(topic) || topic.isBlank())
+                log.warn("Producer profile {} is bound to topic key {}, but {} is not set", name, topicKey, property);
+            else
+                topics.add(topic);
+        }
+        return topics;
+    }
+
+    /**
+     * Properties of a profile under kafka.producer.profiles.&lt;name&gt;.
+     */
+    @Getter
+    @Setter
+    public static class ProfileProperties {
+
+        /** Topic names bound to the profile. */
+        private List<String> topics = new ArrayList<>();
+
+        /** Topic map keys bound to the profile, resolved to the topics configured under kafka.notification. */
+        private List<String> topicKeys = new ArrayList<>();
+
+        /** Producer properties overriding those of the template, e.g. acks or compression.type. */
+        private Map<String, String> properties = new HashMap<>();
+    }
+
+    /**
+     * A profile with its copies of the templates records of its topics were routed to.
+     */
+    private final class Profile {
+
+        private final String name;
+
+        private final Map<String, Object> overrides;
+
+        private final Map<KafkaTemplate<String, T>, KafkaTemplate<String, T>> templates = new ConcurrentHashMap<>();
+
+        private Profile(String name, Map<String, Object> overrides) {
+            this.name = name;
+            this.overrides = overrides;
+        }
+
+        private KafkaTemplate<String, T> templateFor(KafkaTemplate<String, T> kafkaTemplate) {
+            KafkaTemplate<String, T> profileTemplate = templates.get(kafkaTemplate);
+            return Objects.nonNull(profileTemplate) ? profileTemplate
+                    : templates.computeIfAbsent(kafkaTemplate, this::copy);
+        }
+
+        private KafkaTemplate<String, T> copy(KafkaTemplate<String, T> kafkaTemplate) {
+            if (overrides.isEmpty())
+                return kafkaTemplate;
+            Map<String, Object> copyOverrides = overrides;
+            String transactionIdPrefix = kafkaTemplate.getProducerFactory().getTransactionIdPrefix();
+            if (Objects.nonNull(transactionIdPrefix)) {
+                // a copy with the same transactional.id would fence the producers of the template
+                copyOverrides = new HashMap<>(overrides);
+                copyOverrides.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionIdPrefix + name + "-");
+            }
+            try {
+                return new KafkaTemplate<>(kafkaTemplate.getProducerFactory(), copyOverrides);
+            } catch (UnsupportedOperationException ex) {
+                log.warn("Producer factory {} can not be copied, producer profile {} is not applied to its records",
+                        kafkaTemplate.getProducerFactory().getClass().getName(), name);
+                return kafkaTemplate;
+            }
+        }
+
+        private void destroy() {
+            templates.forEach((kafkaTemplate, profileTemplate) -> {
+                if (profileTemplate != kafkaTemplate && profileTemplate.getProducerFactory() instanceof DisposableBean) {
+                    try {
+                        ((DisposableBean) profileTemplate.getProducerFactory()).destroy();
+                    } catch (Exception ex) {
+                        log.warn("Failed to close the producer of profile {}", name, ex);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import net.apmoller.crb.ohm.microservices.producer.library.models.PublishContext;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.support.RetrySynchronizationManager;
+
+import java.util.Objects;
+
+/**
+ * Class binds the PublishContext to the Spring Retry context of a @Retryable call, so every attempt and the @Recover
+ * method of the same call see the same correlation ID and start time. The retry context belongs to the call, not to
+ * the service bean, so concurrent calls never share a PublishContext.
+ */
+public final class PublishContextHolder {
+
+    private static final String ATTRIBUTE = PublishContext.class.getName();
+
+    private PublishContextHolder() {
+        // Private constructor
+    }
+
+    /**
+     * Method returns the context for the current attempt: a new context on the first attempt, the context of the
+     * first attempt with the attempt number updated on retries. Outside of a retry a new context is returned.
+     *
+     * @param correlationId - correlation ID of the payload
+     * @param topic - target topic
+     */
+    public static PublishContext startAttempt(String correlationId, String topic) {
+        RetryContext retryContext = RetrySynchronizationManager.getContext();
+        if (Objects.isNull(retryContext))
+            return PublishContext.start(correlationId, topic);
+        PublishContext publishContext = (PublishContext) retryContext.getAttribute(ATTRIBUTE);
+        publishContext = Objects.isNull(publishContext) ? PublishContext.start(correlationId, topic)
+                : publishContext.withAttempt(retryContext.getRetryCount() + 1);
+        retryContext.setAttribute(ATTRIBUTE, publishContext);
+        return publishContext;
+    }
+
+    /**
+     * Method returns the context of the current retry call, for the @Recover method, or a new context when no attempt
+     * has stored one, e.g. when the validation failed before the first send.
+     *
+     * @param correlationId - correlation ID of the payload
+     * @param topic - target topic
+     */
+    public static PublishContext current(String correlationId, String topic) {
+        RetryContext retryContext = RetrySynchronizationManager.getContext();
+        PublishContext publishContext = Objects.isNull(retryContext) ? null
+                : (PublishContext) retryContext.getAttribute(ATTRIBUTE);
+        return Objects.isNull(publishContext) ? PublishContext.start(correlationId, topic) : publishContext;
+    }
+}
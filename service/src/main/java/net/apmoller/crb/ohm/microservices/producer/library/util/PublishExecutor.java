@@ -0,0 +1,296 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Class decides which threads run the blocking parts of publishing: the send itself, retry backoff and the claims
+ * check blob upload. Configured with kafka.producer.executor.mode:
+ * <ul>
+ * <li>caller - default, the send runs on the caller thread and async stages on the common pool, as before</li>
+ * <li>bounded - a dedicated pool of kafka.producer.executor.pool-size threads with a queue of
+ * kafka.producer.executor.queue-capacity tasks, tasks beyond that are rejected</li>
+ * <li>virtual - a virtual thread per task, falls back to bounded on a JVM without virtual threads</li>
+ * </ul>
+ * In bounded and virtual mode the sync produceMessages hands the payload to the executor after validation and returns,
+ * so request threads are never held by the send, the retry backoff or a blob upload.
+ * <p>
+ * Retry backoff is waited out on a scheduler thread, kafka.producer.retry.scheduler-threads, which hands the next
+ * attempt to the executor when the delay has passed. With kafka.producer.retry.mode set to scheduled, the sync
+ * produceMessages also uses these scheduled retries in caller mode, instead of @Retryable parking the caller thread
+ * for the backoff.
+ */
+@Slf4j
+@Component
+public class PublishExecutor {
+
+    public enum Mode {
+        CALLER, BOUNDED, VIRTUAL
+    }
+
+    public enum RetryMode {
+        BLOCKING, SCHEDULED
+    }
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${kafka.producer.executor.mode:caller}")
+    private String configuredMode;
+
+    @Value("${kafka.producer.executor.pool-size:16}")
+    private int poolSize;
+
+    @Value("${kafka.producer.executor.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Value("${kafka.producer.retry.mode:blocking}")
+    private String configuredRetryMode;
+
+    @Value("${kafka.producer.retry.scheduler-threads:1}")
+    private int schedulerThreads = 1;
+
+    private final AtomicInteger queuedTasks = new AtomicInteger();
+
+    private final AtomicInteger activeTasks = new AtomicInteger();
+
+    private final AtomicInteger scheduledRetries = new AtomicInteger();
+
+    private Mode mode = Mode.CALLER;
+
+    private RetryMode retryMode = RetryMode.BLOCKING;
+
+    private ScheduledThreadPoolExecutor retryScheduler;
+
+    private ExecutorService executorService;
+
+    private ExecutorService overflowExecutor;
+
+    private Executor executor = ForkJoinPool.commonPool();
+
+    private Executor stageExecutor = ForkJoinPool.commonPool();
+
+    @PostConstruct
+    public void init() {
+        mode = Mode.valueOf(configuredMode.trim().toUpperCase(Locale.ROOT));
+        if (mode == Mode.VIRTUAL) {
+            executorService = newVirtualThreadPerTaskExecutor();
+            if (Objects.isNull(executorService)) {
+                log.warn("Virtual threads are not available on this JVM, using a bounded executor of {} threads",
+                        poolSize);
+                mode = Mode.BOUNDED;
+            }
+        }
+        if (mode == Mode.BOUNDED)
+            executorService = newBoundedExecutor();
+        if (Objects.nonNull(executorService)) {
+            overflowExecutor = newOverflowExecutor();
+            executor = this::execute;
+            stageExecutor = this::executeStage;
+            Gauge.builder(ConfigConstants.PRODUCER_EXECUTOR_QUEUE_DEPTH, queuedTasks, AtomicInteger::get)
+                    .tag("mode", mode.name().toLowerCase(Locale.ROOT)).register(registry);
+            Gauge.builder(ConfigConstants.PRODUCER_EXECUTOR_ACTIVE_TASKS, activeTasks, AtomicInteger::get)
+                    .tag("mode", mode.name().toLowerCase(Locale.ROOT)).register(registry);
+        }
+        retryMode = RetryMode.valueOf(configuredRetryMode.trim().toUpperCase(Locale.ROOT));
+        retryScheduler = newRetryScheduler();
+        Gauge.builder(ConfigConstants.PRODUCER_RETRY_SCHEDULED, scheduledRetries, AtomicInteger::get)
+                .register(registry);
+        log.info("Publish executor mode: {}, retry mode: {}", mode, retryMode);
+    }
+
+    /**
+     * Method shuts down the scheduler, waiting up to 30 seconds for the retries already scheduled, then the executor
+     * and the overflow executor. The scheduled retries hand their attempt to the executor, so it is shut down only once
+     * they have. A retry which fails again after that gets a failed future instead of a new delay.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (Objects.nonNull(retryScheduler)) {
+            retryScheduler.shutdown();
+            if (!retryScheduler.awaitTermination(30, TimeUnit.SECONDS))
+                log.warn("{} scheduled retries still waiting at shutdown", scheduledRetries.get());
+        }
+        if (Objects.nonNull(executorService))
+            executorService.shutdown();
+        if (Objects.nonNull(overflowExecutor))
+            overflowExecutor.shutdown();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Method tells if publishing is moved off the caller thread, i.e. the mode is bounded or virtual.
+     */
+    public boolean isOffloading() {
+        return mode != Mode.CALLER;
+    }
+
+    public RetryMode getRetryMode() {
+        return retryMode;
+    }
+
+    /**
+     * Method tells if the sync produceMessages hands the payload to the async pipeline, whose retries are scheduled,
+     * i.e. the mode is bounded or virtual or the retry mode is scheduled.
+     */
+    public boolean isSchedulingRetries() {
+        return isOffloading() || retryMode == RetryMode.SCHEDULED;
+    }
+
+    /**
+     * Method returns the executor for blocking stages chained to a send, so they do not run on the producer network
+     * thread completing it. In caller mode this is the common pool, which async stages used before. A stage rejected
+     * by a full executor runs on an unbounded overflow executor instead: an async stage whose executor throws is never
+     * completed, and running it on the completing thread could block the network thread on a send needing the
+     * buffer.memory only that thread frees.
+     */
+    public Executor executor() {
+        return stageExecutor;
+    }
+
+    /**
+     * Method returns a future which completes on {@link #executor()} once the delay has passed, or exceptionally when
+     * the executor rejects it, so a retry waiting for a full executor fails instead of being lost.
+     *
+     * @param delay - delay in milliseconds
+     */
+    public CompletableFuture<Void> schedule(long delay) {
+        CompletableFuture<Void> timer = new CompletableFuture<>();
+        scheduledRetries.incrementAndGet();
+        try {
+            retryScheduler.schedule(() -> {
+                scheduledRetries.decrementAndGet();
+                try {
+                    executor.execute(() -> timer.complete(null));
+                } catch (RuntimeException ex) {
+                    timer.completeExceptionally(ex);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException ex) {
+            scheduledRetries.decrementAndGet();
+            timer.completeExceptionally(ex);
+        }
+        return timer;
+    }
+
+    /**
+     * Method starts an async publish stage. In caller mode the stage starts on the caller thread, otherwise on the
+     * executor. A stage which throws, or a task rejected by a full executor, gives a failed future.
+     *
+     * @param stage - supplier of the publish stage
+     */
+    public <R> CompletableFuture<R> submit(Supplier<CompletableFuture<R>> stage) {
+        if (!isOffloading()) {
+            try {
+                return stage.get();
+            } catch (RuntimeException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+        }
+        try {
+            return CompletableFuture.supplyAsync(stage, executor).thenCompose(Function.identity());
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    private void execute(Runnable task) {
+        queuedTasks.incrementAndGet();
+        try {
+            executorService.execute(() -> {
+                queuedTasks.decrementAndGet();
+                activeTasks.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    activeTasks.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException ex) {
+            queuedTasks.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    private void executeStage(Runnable task) {
+        try {
+            execute(task);
+        } catch (RejectedExecutionException ex) {
+            overflowExecutor.execute(task);
+        }
+    }
+
+    private ExecutorService newBoundedExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "producer-library-publish-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Method creates the executor for stages the bounded or virtual executor rejects. Its threads are created only
+     * while the executor is full and time out after 60 seconds.
+     */
+    private static ExecutorService newOverflowExecutor() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "producer-library-overflow-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private ScheduledThreadPoolExecutor newRetryScheduler() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "producer-library-retry-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(schedulerThreads, threadFactory);
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * Method creates Executors.newVirtualThreadPerTaskExecutor() reflectively, the library is built for Java 11.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+}
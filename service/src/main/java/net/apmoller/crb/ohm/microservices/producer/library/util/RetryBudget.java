@@ -0,0 +1,94 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * Token bucket limiting the retries of all publish flows together, enabled with kafka.producer.retry-budget.enabled.
+ * The bucket holds up to capacity tokens and gains tokens-per-second, each retry takes one. When the bucket is empty,
+ * a failed send is not retried but handed to the recovery of its flow at once, so an outage does not multiply the
+ * load on the brokers by spring.retry.maximum.attempts.
+ */
+@Slf4j
+@Component
+public class RetryBudget {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${kafka.producer.retry-budget.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.producer.retry-budget.capacity:100}")
+    private double capacity = 100;
+
+    @Value("${kafka.producer.retry-budget.tokens-per-second:10}")
+    private double tokensPerSecond = 10;
+
+    @Value("${spring.retry.maximum.attempts:3}")
+    private int maxAttempts = 3;
+
+    private double tokens;
+
+    private long refilledAt;
+
+    @PostConstruct
+    public void init() {
+        tokens = capacity;
+        refilledAt = System.nanoTime();
+        if (enabled)
+            Gauge.builder(ConfigConstants.RETRY_BUDGET_TOKENS, this, RetryBudget::availableTokens).register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Method takes a token for a retry.
+     *
+     * @return true if the retry may be made, always true when the budget is disabled
+     */
+    public boolean tryAcquire() {
+        if (!enabled)
+            return true;
+        synchronized (this) {
+            refill();
+            if (tokens >= 1) {
+                tokens--;
+                return true;
+            }
+        }
+        registry.counter(ConfigConstants.RETRY_BUDGET_EXHAUSTED_TOTAL).increment();
+        return false;
+    }
+
+    /**
+     * Method takes a token for the retry following a failed attempt of a @Retryable flow. The last attempt is not
+     * followed by a retry and takes no token.
+     *
+     * @param attempt - attempt which failed, starting at 1
+     * @return true if the attempt may be retried
+     */
+    public boolean allowsRetry(int attempt) {
+        return attempt >= maxAttempts || tryAcquire();
+    }
+
+    public synchronized double availableTokens() {
+        refill();
+        return tokens;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerSecond / 1_000_000_000d);
+        refilledAt = now;
+    }
+}
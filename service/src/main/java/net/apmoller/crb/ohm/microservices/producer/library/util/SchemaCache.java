@@ -0,0 +1,40 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import org.apache.avro.Schema;
+import org.apache.avro.reflect.ReflectData;
+
+/**
+ * Class keeps the Avro schema of each payload class, so the reflection done by ReflectData runs once per class
+ * instead of once per message.
+ */
+public final class SchemaCache {
+
+    private static final ClassValue<Schema> SCHEMAS = new ClassValue<>() {
+        @Override
+        protected Schema computeValue(Class<?> type) {
+            return ReflectData.get().getSchema(type);
+        }
+    };
+
+    private SchemaCache() {
+        // Private constructor
+    }
+
+    /**
+     * Method returns the Avro schema of the payload class.
+     *
+     * @param type - payload class
+     */
+    public static Schema schemaFor(Class<?> type) {
+        return SCHEMAS.get(type);
+    }
+
+    /**
+     * Method checks if the payload class is sent as a plain string rather than an Avro record.
+     *
+     * @param type - payload class
+     */
+    public static boolean isStringPayload(Class<?> type) {
+        return schemaFor(type).getName().equalsIgnoreCase("String");
+    }
+}
@@ -0,0 +1,159 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.PublishSpool;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.PublishSpool.SpooledRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.SerializationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class publishes the records of the PublishSpool again, in the order they were spooled. Every
+ * kafka.producer.spool.drain-interval-ms it reads up to drain-batch-size records, sends the first one alone to find
+ * out if the cluster is back, then the others, and commits the spool position up to the first record which failed.
+ * Records after a failed one stay spooled and are sent again by the next drain, so a record may be published more than
+ * once. Records which can never be published, e.g. too large or not serializable, are dropped and counted.
+ * <p>
+ * The drainer also forces spool appends to disk every kafka.producer.spool.force-interval-ms.
+ */
+@Slf4j
+@Component
+public class SpoolDrainer<T> {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private PublishSpool publishSpool;
+
+    @Autowired
+    private MessagePublisherUtil<T> messagePublisherUtil;
+
+    @Value("${kafka.producer.spool.drain-interval-ms:1000}")
+    private long drainIntervalMs = 1000;
+
+    @Value("${kafka.producer.spool.drain-batch-size:500}")
+    private int drainBatchSize = 500;
+
+    @Value("${kafka.producer.spool.force-interval-ms:200}")
+    private long forceIntervalMs = 200;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        if (!publishSpool.isEnabled())
+            return;
+        // forcing has its own thread, so appends are forced while a drain waits for the cluster
+        AtomicInteger threadNumber = new AtomicInteger();
+        scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "producer-library-spool-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::force, forceIntervalMs, forceIntervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::drainAll, drainIntervalMs, drainIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (Objects.isNull(scheduler))
+            return;
+        scheduler.shutdown();
+        scheduler.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Method drains batches until the spool is empty or a record fails.
+     */
+    private void drainAll() {
+        try {
+            int drained;
+            do {
+                drained = drain();
+            } while (drained == drainBatchSize);
+        } catch (RuntimeException | IOException e) {
+            log.error("Unexpected failure draining the publish spool", e);
+        }
+    }
+
+    /**
+     * Method publishes one batch of spooled records.
+     *
+     * @return number of records committed
+     */
+    public int drain() throws IOException {
+        List<SpooledRecord> records = publishSpool.read(drainBatchSize);
+        if (records.isEmpty())
+            return 0;
+        List<CompletableFuture<SendResult<String, T>>> sends = new ArrayList<>(records.size());
+        sends.add(send(records.get(0)));
+        if (!completes(sends.get(0), records.get(0)))
+            return 0;
+        for (int i = 1; i < records.size(); i++)
+            sends.add(send(records.get(i)));
+        int committed = 1;
+        while (committed < records.size() && completes(sends.get(committed), records.get(committed)))
+            committed++;
+        publishSpool.commit(records.get(committed - 1));
+        registry.counter(ConfigConstants.SPOOL_DRAINED_TOTAL).increment(committed);
+        log.info("Published {} spooled records, {} remain spooled", committed, publishSpool.pendingRecords());
+        return committed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<SendResult<String, T>> send(SpooledRecord spooledRecord) {
+        if (Objects.isNull(spooledRecord.getProducerRecord()))
+            return CompletableFuture.failedFuture(new SerializationException("Spooled record can not be read"));
+        // the payload type was erased when it was spooled, it is sent with the template routed for its value
+        ProducerRecord<String, ?> producerRecord = spooledRecord.getProducerRecord();
+        return messagePublisherUtil.publishSpooledAsync((ProducerRecord<String, T>) producerRecord);
+    }
+
+    /**
+     * Method waits for the send and tells if the spool position may move past the record, i.e. it was published or can
+     * never be.
+     */
+    private boolean completes(CompletableFuture<SendResult<String, T>> send, SpooledRecord spooledRecord) {
+        try {
+            send.join();
+            return true;
+        } catch (CompletionException e) {
+            Throwable cause = MessagePublisherUtil.unwrap(e);
+            if (MessagePublisherUtil.isRecordTooLarge(cause) || cause instanceof SerializationException) {
+                log.error("Dropping spooled record of segment {} which can not be published",
+                        spooledRecord.getSegmentId(), cause);
+                registry.counter(ConfigConstants.SPOOL_DROPPED_TOTAL).increment();
+                return true;
+            }
+            log.warn("Spooled records can not be published yet: {}", cause.getMessage());
+            return false;
+        }
+    }
+
+    private void force() {
+        try {
+            publishSpool.force();
+        } catch (RuntimeException e) {
+            log.error("Unable to force the publish spool to disk", e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.kafka.core.KafkaTemplate;
+
+/**
+ * Chooses the KafkaTemplate a record is sent with. Implementations are called for every record, so they should
+ * resolve the template without per message reflection.
+ */
+public interface TemplateRouter<T> {
+
+    /**
+     * Method returns the template the record has to be sent with.
+     *
+     * @param producerRecord - producer record to be sent on topic
+     */
+    KafkaTemplate<String, T> route(ProducerRecord<String, T> producerRecord);
+
+    /**
+     * Method registers the template to be used for a payload type, overriding the schema based choice.
+     *
+     * @param payloadType - payload class
+     * @param kafkaTemplate - template used for records with this payload class
+     */
+    void register(Class<?> payloadType, KafkaTemplate<String, T> kafkaTemplate);
+}
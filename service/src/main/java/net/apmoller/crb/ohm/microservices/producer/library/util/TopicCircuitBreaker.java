@@ -0,0 +1,247 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.CircuitBreakerOpenException;
+import org.apache.kafka.common.errors.RetriableException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionTimedOutException;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per topic circuit breaker, enabled with kafka.producer.circuit-breaker.enabled. A topic whose sends fail with broker
+ * errors (retriable exceptions such as timeouts or not enough replicas) at failure-rate-threshold or more, over at
+ * least minimum-calls sends within window-ms, is opened: its records fail at once with CircuitBreakerOpenException
+ * instead of waiting for a timeout, being retried and then sent to the DLT on the same failing cluster. After open-ms
+ * the breaker lets half-open-calls records through, closes when all of them succeed and opens again otherwise.
+ * Failures caused by the record itself, e.g. its size or serialization, do not count.
+ */
+@Slf4j
+@Component
+public class TopicCircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${kafka.producer.circuit-breaker.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.producer.circuit-breaker.failure-rate-threshold:0.5}")
+    private double failureRateThreshold = 0.5;
+
+    @Value("${kafka.producer.circuit-breaker.minimum-calls:20}")
+    private int minimumCalls = 20;
+
+    @Value("${kafka.producer.circuit-breaker.window-ms:10000}")
+    private long windowMs = 10000;
+
+    @Value("${kafka.producer.circuit-breaker.open-ms:5000}")
+    private long openMs = 5000;
+
+    @Value("${kafka.producer.circuit-breaker.half-open-calls:5}")
+    private int halfOpenCalls = 5;
+
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Method checks that a record may be sent to the topic.
+     *
+     * @param topic - topic name
+     * @throws CircuitBreakerOpenException - when the breaker of the topic is open
+     */
+    public void acquire(String topic) {
+        if (!enabled)
+            return;
+        Breaker breaker = breakerOf(topic);
+        if (!breaker.tryAcquire()) {
+            registry.counter(ConfigConstants.CIRCUIT_BREAKER_REJECTED_TOTAL, "topic", topic).increment();
+            throw new CircuitBreakerOpenException(String.format(
+                    "Circuit breaker of kafka topic %s is open, record not sent", topic));
+        }
+    }
+
+    /**
+     * Method records the result of a send to the topic.
+     *
+     * @param topic - topic name
+     * @param ex - failure of the send, null if it succeeded
+     */
+    public void onResult(String topic, Throwable ex) {
+        if (!enabled)
+            return;
+        if (Objects.isNull(ex))
+            breakerOf(topic).onSuccess();
+        else if (isBrokerFailure(ex))
+            breakerOf(topic).onFailure();
+        else
+            breakerOf(topic).onIgnored();
+    }
+
+    /**
+     * Method returns the state of the breaker of the topic, closed for a topic without sends.
+     *
+     * @param topic - topic name
+     */
+    public State stateOf(String topic) {
+        Breaker breaker = breakers.get(topic);
+        return Objects.isNull(breaker) ? State.CLOSED : breaker.state;
+    }
+
+    private static boolean isBrokerFailure(Throwable ex) {
+        for (Throwable cause = ex; Objects.nonNull(cause); cause = cause.getCause()) {
+            if (cause instanceof RetriableException || cause instanceof TransactionTimedOutException)
+                return true;
+            if (cause.getCause() == cause)
+                break;
+        }
+        return false;
+    }
+
+    private Breaker breakerOf(String topic) {
+        Breaker breaker = breakers.get(topic);
+        return Objects.nonNull(breaker) ? breaker : breakers.computeIfAbsent(topic, Breaker::new);
+    }
+
+    /**
+     * Breaker of a topic. Closed sends only count, state changes are synchronized.
+     */
+    private final class Breaker {
+
+        private final String topic;
+
+        private final LongAdder calls = new LongAdder();
+
+        private final LongAdder failures = new LongAdder();
+
+        private final AtomicInteger probes = new AtomicInteger();
+
+        private final AtomicInteger probeSuccesses = new AtomicInteger();
+
+        private volatile State state = State.CLOSED;
+
+        private volatile long windowStart = System.currentTimeMillis();
+
+        private volatile long openedAt;
+
+        private Breaker(String topic) {
+            this.topic = topic;
+            Gauge.builder(ConfigConstants.CIRCUIT_BREAKER_STATE, this, breaker -> breaker.state.ordinal())
+                    .tag("topic", topic).register(registry);
+        }
+
+        private boolean tryAcquire() {
+            State current = state;
+            if (current == State.CLOSED)
+                return true;
+            if (current == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < openMs)
+                    return false;
+                halfOpen();
+            }
+            return takeProbe();
+        }
+
+        /**
+         * Method takes one of the probes left, never counting below zero, so a probe given back is taken again rather
+         * than paying off the rejected records.
+         */
+        private boolean takeProbe() {
+            int left;
+            do {
+                left = probes.get();
+                if (left <= 0)
+                    return false;
+            } while (!probes.compareAndSet(left, left - 1));
+            return true;
+        }
+
+        private void onSuccess() {
+            if (state == State.HALF_OPEN) {
+                if (probeSuccesses.incrementAndGet() >= halfOpenCalls)
+                    close();
+                return;
+            }
+            count(false);
+        }
+
+        private void onFailure() {
+            if (state == State.HALF_OPEN) {
+                open();
+                return;
+            }
+            count(true);
+        }
+
+        private void onIgnored() {
+            // a probe failing for its own record neither closes nor opens the breaker, it is given back
+            if (state == State.HALF_OPEN)
+                probes.updateAndGet(left -> Math.min(left + 1, halfOpenCalls));
+        }
+
+        private void count(boolean failed) {
+            long now = System.currentTimeMillis();
+            if (now - windowStart >= windowMs)
+                resetWindow(now);
+            calls.increment();
+            if (!failed)
+                return;
+            failures.increment();
+            long callCount = calls.sum();
+            if (callCount >= minimumCalls && failures.sum() >= failureRateThreshold * callCount)
+                open();
+        }
+
+        private synchronized void resetWindow(long now) {
+            if (now - windowStart < windowMs)
+                return;
+            calls.reset();
+            failures.reset();
+            windowStart = now;
+        }
+
+        private synchronized void open() {
+            if (state == State.OPEN)
+                return;
+            probes.set(0);
+            openedAt = System.currentTimeMillis();
+            state = State.OPEN;
+            log.warn("Circuit breaker of kafka topic {} opened, records fail fast for {} ms", topic, openMs);
+        }
+
+        private synchronized void halfOpen() {
+            if (state != State.OPEN || System.currentTimeMillis() - openedAt < openMs)
+                return;
+            probes.set(halfOpenCalls);
+            probeSuccesses.set(0);
+            state = State.HALF_OPEN;
+            log.info("Circuit breaker of kafka topic {} half open, letting {} records through", topic, halfOpenCalls);
+        }
+
+        private synchronized void close() {
+            if (state != State.HALF_OPEN)
+                return;
+            calls.reset();
+            failures.reset();
+            windowStart = System.currentTimeMillis();
+            state = State.CLOSED;
+            log.info("Circuit breaker of kafka topic {} closed", topic);
+        }
+    }
+}
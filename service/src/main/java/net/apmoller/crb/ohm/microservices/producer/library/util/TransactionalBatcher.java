@@ -0,0 +1,274 @@
+package net.apmoller.crb.ohm.microservices.producer.library.util;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class groups the records of many publish calls into Kafka transactions when kafka.producer.transactions.enabled is
+ * set. Records are queued per template and a committer thread of the template sends up to batch-size of them, or what
+ * arrived within max-wait-ms, in one transaction. The future of a record completes once its transaction is committed,
+ * so a record is never reported as sent when it was aborted. Records queued while a transaction commits go into the
+ * next one, so the commit cost is shared by all records arriving during a commit.
+ * <p>
+ * A transaction fails as a whole. When records of an aborted transaction failed on their own, e.g. for their size,
+ * only those are failed and the others are sent again in a new transaction. A record whose send throws, e.g. for its
+ * serialization, aborts the transaction at once, the records after it are not sent and go into the new transaction.
+ */
+@Slf4j
+@Component
+public class TransactionalBatcher<T> {
+
+    private static final long IDLE_POLL_MS = 100;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Value("${kafka.producer.transactions.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.producer.transactions.batch-size:100}")
+    private int batchSize = 100;
+
+    @Value("${kafka.producer.transactions.max-wait-ms:10}")
+    private long maxWaitMs = 10;
+
+    @Value("${kafka.producer.transactions.queue-capacity:10000}")
+    private int queueCapacity = 10000;
+
+    private final Map<KafkaTemplate<String, T>, Committer> committers = new ConcurrentHashMap<>();
+
+    private final AtomicInteger committerNumber = new AtomicInteger();
+
+    private volatile boolean running = true;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Method queues the record for the next transaction of the template. The returned future completes when the
+     * transaction is committed, or fails when the record could not be queued or its transaction was aborted.
+     *
+     * @param kafkaTemplate - transactional template the record is sent with
+     * @param producerRecord - producer record to be sent on topic
+     */
+    public ListenableFuture<SendResult<String, T>> send(KafkaTemplate<String, T> kafkaTemplate,
+            ProducerRecord<String, T> producerRecord) {
+        PendingRecord<T> pending = new PendingRecord<>(producerRecord);
+        if (!running) {
+            pending.future.setException(new KafkaException("Transactional batcher is shut down"));
+            return pending.future;
+        }
+        Committer committer = committers.computeIfAbsent(kafkaTemplate, Committer::new);
+        if (!committer.queue.offer(pending)) {
+            registry.counter(ConfigConstants.TRANSACTION_REJECTED_TOTAL).increment();
+            pending.future.setException(new KafkaException(String.format(
+                    "Transaction queue of %d records is full, record for topic %s rejected", queueCapacity,
+                    producerRecord.topic())));
+        } else if (!running && committer.queue.remove(pending)) {
+            // shut down while queuing, the committer may have drained its queue already
+            pending.future.setException(new KafkaException("Transactional batcher is shut down"));
+        }
+        return pending.future;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        for (Committer committer : committers.values())
+            committer.thread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    private static final class PendingRecord<T> {
+
+        private final ProducerRecord<String, T> producerRecord;
+
+        private final SettableListenableFuture<SendResult<String, T>> future = new SettableListenableFuture<>();
+
+        private PendingRecord(ProducerRecord<String, T> producerRecord) {
+            this.producerRecord = producerRecord;
+        }
+    }
+
+    /**
+     * Queue and committer thread of a template. Queued records are still committed on shutdown.
+     */
+    private final class Committer implements Runnable {
+
+        private final KafkaTemplate<String, T> kafkaTemplate;
+
+        private final BlockingQueue<PendingRecord<T>> queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        private final Thread thread;
+
+        private Committer(KafkaTemplate<String, T> kafkaTemplate) {
+            this.kafkaTemplate = kafkaTemplate;
+            this.thread = new Thread(this, "producer-library-transactions-" + committerNumber.incrementAndGet());
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        @Override
+        public void run() {
+            List<PendingRecord<T>> batch = new ArrayList<>(batchSize);
+            while (running || !queue.isEmpty()) {
+                try {
+                    if (collect(batch))
+                        commit(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (RuntimeException e) {
+                    log.error("Unexpected failure committing a transaction of {} records", batch.size(), e);
+                    batch.forEach(pending -> pending.future.setException(e));
+                } finally {
+                    batch.clear();
+                }
+            }
+            PendingRecord<T> pending;
+            while (Objects.nonNull(pending = queue.poll()))
+                pending.future.setException(new KafkaException("Transactional batcher is shut down"));
+        }
+
+        /**
+         * Method waits for a first record, then collects records until the batch is full or max-wait-ms has passed.
+         */
+        private boolean collect(List<PendingRecord<T>> batch) throws InterruptedException {
+            PendingRecord<T> first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+            if (Objects.isNull(first))
+                return false;
+            batch.add(first);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            while (batch.size() < batchSize) {
+                queue.drainTo(batch, batchSize - batch.size());
+                long remaining = deadline - System.nanoTime();
+                if (batch.size() >= batchSize || remaining <= 0)
+                    break;
+                PendingRecord<T> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (Objects.isNull(next))
+                    break;
+                batch.add(next);
+            }
+            return true;
+        }
+
+        /**
+         * Method commits the batch, sending the records of an aborted transaction again as long as each attempt leaves
+         * out a record which failed on its own.
+         */
+        private void commit(List<PendingRecord<T>> batch) {
+            List<PendingRecord<T>> remaining = batch;
+            while (!remaining.isEmpty())
+                remaining = commitOnce(remaining);
+        }
+
+        /**
+         * Method sends the records in one transaction and returns the records to be sent again when it was aborted.
+         */
+        private List<PendingRecord<T>> commitOnce(List<PendingRecord<T>> batch) {
+            List<ListenableFuture<SendResult<String, T>>> sends = new ArrayList<>(batch.size());
+            List<PendingRecord<T>> sent = new ArrayList<>(batch.size());
+            try {
+                kafkaTemplate.executeInTransaction(operations -> {
+                    for (PendingRecord<T> pending : batch) {
+                        try {
+                            sends.add(operations.send(pending.producerRecord));
+                        } catch (RuntimeException e) {
+                            // e.g. serialization, the producer fails the transaction so the rest is not sent
+                            pending.future.setException(e);
+                            throw e;
+                        }
+                        sent.add(pending);
+                    }
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                registry.counter(ConfigConstants.TRANSACTION_ABORT_TOTAL).increment();
+                return aborted(batch, sent, sends, e);
+            }
+            registry.counter(ConfigConstants.TRANSACTION_COMMIT_TOTAL).increment();
+            registry.summary(ConfigConstants.TRANSACTION_BATCH_SIZE).record(sent.size());
+            for (int i = 0; i < sent.size(); i++)
+                complete(sent.get(i), sends.get(i));
+            return Collections.emptyList();
+        }
+
+        /**
+         * Method fails the records which failed on their own and returns the others, sent or not, to be sent again.
+         * When none failed on its own, all of them are failed with the abort cause.
+         */
+        private List<PendingRecord<T>> aborted(List<PendingRecord<T>> batch, List<PendingRecord<T>> sent,
+                List<ListenableFuture<SendResult<String, T>>> sends, RuntimeException abortCause) {
+            List<PendingRecord<T>> retry = new ArrayList<>(batch.size());
+            for (int i = 0; i < sent.size(); i++) {
+                Throwable recordFailure = failureOf(sends.get(i));
+                if (Objects.nonNull(recordFailure))
+                    sent.get(i).future.setException(recordFailure);
+                else
+                    retry.add(sent.get(i));
+            }
+            // a record whose send threw is failed already, the records after it were never sent
+            List<PendingRecord<T>> unsent = batch.subList(sent.size(), batch.size());
+            if (!unsent.isEmpty() && unsent.get(0).future.isDone())
+                retry.addAll(unsent.subList(1, unsent.size()));
+            if (!retry.isEmpty() && retry.size() < batch.size()) {
+                log.info("Transaction aborted for {} failed records, sending the other {} again",
+                        batch.size() - retry.size(), retry.size());
+                return retry;
+            }
+            log.error("Transaction of {} records aborted", batch.size(), abortCause);
+            // also fails the records never sent when the transaction could not begin
+            batch.forEach(pending -> pending.future.setException(abortCause));
+            return Collections.emptyList();
+        }
+
+        private void complete(PendingRecord<T> pending, ListenableFuture<SendResult<String, T>> send) {
+            try {
+                // the transaction is committed, so the send has completed
+                pending.future.set(send.get());
+            } catch (ExecutionException e) {
+                pending.future.setException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.future.setException(e);
+            }
+        }
+
+        private Throwable failureOf(ListenableFuture<SendResult<String, T>> send) {
+            if (!send.isDone())
+                return null;
+            try {
+                send.get();
+                return null;
+            } catch (ExecutionException e) {
+                return e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return e;
+            }
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package net.apmoller.crb.ohm.microservices.producer.library.compression;
 
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
 import net.apmoller.crb.ohm.microservices.producer.library.util.CompressionUtil;
 import net.apmoller.ohm.adapter.avro.model.EventNotificationsAdapterModel;
 import net.minidev.json.JSONObject;
+import org.apache.avro.file.DataFileConstants;
 import org.junit.Before;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -13,9 +15,12 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -80,4 +85,62 @@ public class CustomSerializerTest {
         JSONObject message = new JSONObject();
         assertThrows(Exception.class, () -> customSerializer.serialize(null, null, message));
     }
+
+    @Test
+    public void testStringPayloadWithZstdCodec() throws IOException {
+        CustomSerializer serializer = new CustomSerializer();
+        serializer.configureCodecs(Map.of(ConfigConstants.SERIALIZER_STRING_CODEC_CONFIG, "zstd:6"));
+        String message = TestPayload.jsonPayload();
+        byte[] compressedPayload = serializer.serialize("test", null, message);
+        Assertions.assertEquals(PayloadCodec.ZSTD.getMarker(), compressedPayload[0]);
+        Assertions.assertEquals(message, new String(PayloadCodec.decode(compressedPayload), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTopicCodecOverridesPayloadTypeCodec() throws IOException {
+        CustomSerializer serializer = new CustomSerializer();
+        serializer.configureCodecs(Map.of(ConfigConstants.SERIALIZER_STRING_CODEC_CONFIG, "snappy",
+                ConfigConstants.SERIALIZER_TOPIC_CODEC_CONFIG_PREFIX + "lz4-topic", "lz4"));
+        String message = TestPayload.jsonPayload();
+        Assertions.assertEquals(PayloadCodec.LZ4.getMarker(), serializer.serialize("lz4-topic", null, message)[0]);
+        byte[] compressedPayload = serializer.serialize("test", null, message);
+        Assertions.assertEquals(PayloadCodec.SNAPPY.getMarker(), compressedPayload[0]);
+        Assertions.assertEquals(message, new String(PayloadCodec.decode(compressedPayload), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testAvroPayloadWithCodecIsAvroContainer() throws IOException {
+        CustomSerializer serializer = new CustomSerializer();
+        serializer.configureCodecs(Map.of(ConfigConstants.SERIALIZER_CODEC_CONFIG, "deflate"));
+        EventNotificationsAdapterModel avro = EventNotificationsAdapterModel.newBuilder()
+                .setResponse(TestPayload.jsonPayload()).setCorrelationId("TESTCORRELATIONID1234567890")
+                .setMessageType("xml").setMessageId("TESTMESSAGEID1234567890").setSourceSystem("docbroker")
+                .setResponseConsumers(List.of("documentservice")).build();
+        byte[] compressedPayload = serializer.serialize("test", null, avro);
+        Assertions.assertEquals(PayloadCodec.DEFLATE.getMarker(), compressedPayload[0]);
+        byte[] container = PayloadCodec.decode(compressedPayload);
+        Assertions.assertArrayEquals(DataFileConstants.MAGIC, Arrays.copyOf(container, DataFileConstants.MAGIC.length));
+    }
+
+    @Test
+    public void testDecodeWithoutCodecMarker() throws IOException {
+        byte[] legacyPayload = CompressionUtil.compress(TestPayload.jsonPayload());
+        assertThrows(IllegalArgumentException.class, () -> PayloadCodec.decode(legacyPayload));
+    }
+
+    @Test
+    public void testAvroPayloadWithSingleObjectEncoding() throws IOException {
+        CustomSerializer serializer = new CustomSerializer();
+        serializer.configureAvroEncoding(Map.of(ConfigConstants.SERIALIZER_AVRO_ENCODING_CONFIG, "single-object"));
+        EventNotificationsAdapterModel avro = EventNotificationsAdapterModel.newBuilder()
+                .setResponse(TestPayload.jsonPayload()).setCorrelationId("TESTCORRELATIONID1234567890")
+                .setMessageType("xml").setMessageId("TESTMESSAGEID1234567890").setSourceSystem("docbroker")
+                .setResponseConsumers(List.of("documentservice")).build();
+        byte[] singleObjectPayload = serializer.serialize("test", null, avro);
+        Assertions.assertEquals(avro, EventNotificationsAdapterModel.fromByteBuffer(ByteBuffer.wrap(singleObjectPayload)));
+        // no schema header, so a small record stays small
+        avro.setResponse("{}");
+        Assertions.assertTrue(serializer.serialize("test", null, avro).length < new CustomSerializer().serialize("test",
+                null, avro).length);
+    }
 }
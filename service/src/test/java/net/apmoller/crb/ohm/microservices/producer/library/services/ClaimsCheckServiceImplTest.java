@@ -0,0 +1,204 @@
+package net.apmoller.crb.ohm.microservices.producer.library.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.claimscheck.request.ClaimsCheckRequestPayload;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.ClaimsCheckFailedException;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.DLTException;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.ClaimsCheckDedupIndex;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.InMemoryClaimsCheckStore;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.ohm.adapter.avro.model.EventNotificationsAdapterModel;
+import org.apache.avro.SchemaNormalization;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@SpringBootTest(classes = { ClaimsCheckServiceImpl.class, InMemoryClaimsCheckStore.class, ClaimsCheckDedupIndex.class,
+        PublishExecutor.class, SimpleMeterRegistry.class }, properties = { "claims-check.store=memory",
+        "claims-check.naming=content-hash", "events-payload.file-name=test_", "claims-check.payload.format=schema",
+        "claims-check.payload.codec=zstd:3" })
+@ActiveProfiles({ "test" })
+public class ClaimsCheckServiceImplTest {
+
+    @MockBean
+    private MessagePublisherUtil<Object> messagePublisherUtil;
+
+    @MockBean
+    private ConfigValidator<Object> configValidator;
+
+    @Autowired
+    private ClaimsCheckServiceImpl<Object> claimsCheckService;
+
+    @SpyBean
+    private InMemoryClaimsCheckStore store;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void clearStore() {
+        store.clear();
+        Mockito.clearInvocations(store);
+    }
+
+    @Test
+    void testDuplicatePayloadStoredOnce() throws Exception {
+        double hits = dedupHits();
+        ClaimsCheckRequestPayload first = claimsCheckService.streamToAzureBlob("duplicate payload");
+        ClaimsCheckRequestPayload second = claimsCheckService.streamToAzureBlob("duplicate payload");
+        Assertions.assertEquals(first.getClaimsCheckBlobUrl(), second.getClaimsCheckBlobUrl());
+        Assertions.assertEquals(1, store.size());
+        Assertions.assertEquals(hits + 1, dedupHits());
+        Mockito.verify(store, Mockito.times(1)).store(Mockito.anyString(), Mockito.anyMap(), Mockito.any());
+        Assertions.assertNotNull(store.getMetadata(first.getClaimsCheckBlobUrl().toString())
+                .get(ConfigConstants.BLOB_METADATA_CONTENT_HASH));
+    }
+
+    @Test
+    void testDuplicatePayloadStoredOnceAsync() throws Exception {
+        double hits = dedupHits();
+        ClaimsCheckRequestPayload first = claimsCheckService.uploadToAzureBlobAsync("duplicate async payload").get();
+        ClaimsCheckRequestPayload second = claimsCheckService.uploadToAzureBlobAsync("duplicate async payload").get();
+        Assertions.assertEquals(first.getClaimsCheckBlobUrl(), second.getClaimsCheckBlobUrl());
+        Assertions.assertEquals(1, store.size());
+        Assertions.assertEquals(hits + 1, dedupHits());
+        Mockito.verify(store, Mockito.times(1)).storeAsync(Mockito.anyString(), Mockito.anyMap(), Mockito.any());
+    }
+
+    @Test
+    void testDifferentPayloadsStoredSeparately() throws Exception {
+        String first = claimsCheckService.uploadToAzureBlobAsync("first payload").get().getClaimsCheckBlobUrl().toString();
+        String second = claimsCheckService.uploadToAzureBlobAsync("second payload").get().getClaimsCheckBlobUrl().toString();
+        Assertions.assertNotEquals(first, second);
+        Assertions.assertEquals(2, store.size());
+    }
+
+    @Test
+    void testJavaFormatRecordedInPayloadAndMetadata() {
+        ClaimsCheckRequestPayload payload = claimsCheckService.streamToAzureBlob(Collections.singletonMap("key", "value"));
+        assertFormatRecorded(payload, "java", null);
+    }
+
+    @Test
+    void testUtf8FormatRecordedInPayloadAndMetadata() {
+        ClaimsCheckRequestPayload payload = claimsCheckService.streamToAzureBlob("text payload");
+        assertFormatRecorded(payload, "utf8", null);
+    }
+
+    @Test
+    void testAvroFormatRecordedInPayloadAndMetadata() throws Exception {
+        EventNotificationsAdapterModel avro = EventNotificationsAdapterModel.newBuilder().setResponse("avro payload")
+                .setCorrelationId("DUMMYHEXID").setMessageType("xml").setMessageId("DUMMYMESSAGEID")
+                .setSourceSystem("docbroker").setResponseConsumers(Collections.singletonList("documentservice")).build();
+        ClaimsCheckRequestPayload payload = claimsCheckService.uploadToAzureBlobAsync(avro).get();
+        assertFormatRecorded(payload, "avro",
+                SchemaNormalization.parsingFingerprint64(EventNotificationsAdapterModel.getClassSchema()));
+    }
+
+    @Test
+    void testFailedClaimsCheckRecordMovedToClaimsCheckDlt() {
+        Map<String, String> topics = claimsCheckTopics();
+        Mockito.when(configValidator.claimsCheckDltPresent(topics)).thenReturn(true);
+        Mockito.when(messagePublisherUtil.publishOnTopicAsync(Mockito.argThat(sentTo("claims")), Mockito.anyMap()))
+                .thenReturn(CompletableFuture.failedFuture(new TimeoutException("claims check topic unavailable")));
+        Mockito.when(messagePublisherUtil.publishOnTopicAsync(Mockito.argThat(sentTo("claims-dlt")), Mockito.anyMap()))
+                .thenReturn(CompletableFuture.completedFuture(new SendResult<>(null, null)));
+
+        Assertions.assertThrows(DLTException.class, () -> claimsCheckService
+                .handleClaimsCheckAfterGettingMemoryIssue(new HashMap<>(), topics, "claims check dlt payload"));
+        Mockito.verify(messagePublisherUtil, Mockito.never()).publishOnTopic(Mockito.any(), Mockito.anyMap());
+    }
+
+    @Test
+    void testFailedClaimsCheckDltRecordFailsClaimsCheck() {
+        Map<String, String> topics = claimsCheckTopics();
+        TimeoutException dltFailure = new TimeoutException("claims check dlt unavailable");
+        Mockito.when(configValidator.claimsCheckDltPresent(topics)).thenReturn(true);
+        Mockito.when(messagePublisherUtil.publishOnTopicAsync(Mockito.argThat(sentTo("claims")), Mockito.anyMap()))
+                .thenReturn(CompletableFuture.failedFuture(new TimeoutException("claims check topic unavailable")));
+        Mockito.when(messagePublisherUtil.publishOnTopicAsync(Mockito.argThat(sentTo("claims-dlt")), Mockito.anyMap()))
+                .thenReturn(CompletableFuture.failedFuture(dltFailure));
+
+        ClaimsCheckFailedException ex = Assertions.assertThrows(ClaimsCheckFailedException.class, () -> claimsCheckService
+                .handleClaimsCheckAfterGettingMemoryIssue(new HashMap<>(), topics, "claims check failed payload"));
+        Assertions.assertEquals(dltFailure, ex.getCause());
+    }
+
+    @Test
+    void testClaimsCheckDltSentOffProducerNetworkThread() throws Exception {
+        Map<String, String> topics = claimsCheckTopics();
+        CompletableFuture<SendResult<String, Object>> claimsCheckSend = new CompletableFuture<>();
+        AtomicReference<String> dltThread = new AtomicReference<>();
+        Mockito.when(configValidator.claimsCheckDltPresent(topics)).thenReturn(true);
+        Mockito.when(messagePublisherUtil.publishOnTopicAsync(Mockito.argThat(sentTo("claims")), Mockito.anyMap()))
+                .thenReturn(claimsCheckSend);
+        Mockito.when(messagePublisherUtil.publishOnTopicAsync(Mockito.argThat(sentTo("claims-dlt")), Mockito.anyMap()))
+                .thenAnswer(invocation -> {
+                    dltThread.set(Thread.currentThread().getName());
+                    return CompletableFuture.completedFuture(new SendResult<>(null, null));
+                });
+
+        CompletableFuture<RecordMetadata> outcome = claimsCheckService
+                .handleClaimsCheckAfterGettingMemoryIssueAsync(new HashMap<>(), topics, "network thread payload");
+        Mockito.verify(messagePublisherUtil, Mockito.timeout(5000))
+                .publishOnTopicAsync(Mockito.argThat(sentTo("claims")), Mockito.anyMap());
+        Thread networkThread = new Thread(
+                () -> claimsCheckSend.completeExceptionally(new TimeoutException("claims check topic unavailable")),
+                "kafka-producer-network-thread | producer-1");
+        networkThread.start();
+        networkThread.join(5000);
+
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class, () -> outcome.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(ex.getCause() instanceof DLTException);
+        Assertions.assertNotEquals(networkThread.getName(), dltThread.get());
+    }
+
+    private static Map<String, String> claimsCheckTopics() {
+        Map<String, String> topics = new HashMap<>();
+        topics.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY, "claims");
+        topics.put(ConfigConstants.CLAIMS_CHECK_DLT_KEY, "claims-dlt");
+        return topics;
+    }
+
+    private static ArgumentMatcher<ProducerRecord<String, Object>> sentTo(String topic) {
+        return producerRecord -> Objects.nonNull(producerRecord) && topic.equals(producerRecord.topic());
+    }
+
+    private double dedupHits() {
+        return meterRegistry.counter(ConfigConstants.CLAIMS_CHECK_DEDUP_HIT_TOTAL).count();
+    }
+
+    private void assertFormatRecorded(ClaimsCheckRequestPayload payload, String format, Long schemaFingerprint) {
+        Assertions.assertEquals(format, payload.getPayloadFormat());
+        Assertions.assertEquals("zstd", payload.getPayloadCodec());
+        Assertions.assertEquals(schemaFingerprint, payload.getSchemaFingerprint());
+        Map<String, String> metadata = store.getMetadata(payload.getClaimsCheckBlobUrl().toString());
+        Assertions.assertEquals(format, metadata.get(ConfigConstants.BLOB_METADATA_PAYLOAD_FORMAT));
+        Assertions.assertEquals("zstd", metadata.get(ConfigConstants.BLOB_METADATA_PAYLOAD_CODEC));
+        Assertions.assertEquals(schemaFingerprint == null ? null : schemaFingerprint.toString(),
+                metadata.get(ConfigConstants.BLOB_METADATA_SCHEMA_FINGERPRINT));
+    }
+}
@@ -15,6 +15,7 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -254,4 +255,11 @@ public class ConfigValidatorTest<T> {
         headerMap.put("Batch-Id", "test");
         assertEquals("", validator.getCorrelationId(headerMap));
     }
+
+    @Test
+    void testPreEncodedCorrelationId() {
+        Map<String, Object> headerMap = new HashMap<>();
+        headerMap.put("X-Correlation-ID", "2134234987605".getBytes(StandardCharsets.UTF_8));
+        assertEquals("2134234987605", validator.getCorrelationId(headerMap));
+    }
 }
@@ -5,10 +5,17 @@ import io.micrometer.core.instrument.MeterRegistry;
 import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.ClaimsCheckFailedException;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.DLTException;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.PayloadValidationException;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.TopicNameValidationException;
+import net.apmoller.crb.ohm.microservices.producer.library.models.SendOutcome;
 import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.RecordTooLargeException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.junit.jupiter.api.BeforeEach;
@@ -19,20 +26,29 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.ApplicationContext;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.retry.annotation.EnableRetry;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 @EnableRetry
 @ExtendWith(SpringExtension.class)
-@SpringBootTest(classes = { KafkaProducerServiceImpl.class })
+@SpringBootTest(classes = { KafkaProducerServiceImpl.class, PublishExecutor.class, RetryBudget.class })
 @ActiveProfiles({ "test" })
 public class KafkaProducerServiceTest<T> {
 
@@ -54,6 +70,9 @@ public class KafkaProducerServiceTest<T> {
     @MockBean
     private MeterRegistry registry;
 
+    @MockBean
+    private PayloadSizeEstimator payloadSizeEstimator;
+
     @Value("${spring.retry.maximum.attempts}")
     Integer retryCount;
 
@@ -65,6 +84,8 @@ public class KafkaProducerServiceTest<T> {
         kafkaHeader.put("X-DOCBROKER-Correlation-ID", "DUMMYHEXID");
         Counter counter = mock(Counter.class);
         when(registry.counter(any())).thenReturn(counter);
+        when(messagePublisherUtil.publishOnTopicAsync(any(ProducerRecord.class), anyMap()))
+                .thenReturn(new CompletableFuture<>());
     }
 
     @Test
@@ -75,7 +96,7 @@ public class KafkaProducerServiceTest<T> {
         topicMap.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, "dlt");
         kafkaProducerService.produceMessages(topicMap, (T) payload, kafkaHeader);
         verify(validator, times(1)).validateInputsForMultipleProducerFlow(topicMap, (T) payload);
-        verify(messagePublisherUtil, times(1)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(1)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
     }
 
     @Test
@@ -90,7 +111,7 @@ public class KafkaProducerServiceTest<T> {
         assertThrows(TopicNameValidationException.class,
                 () -> kafkaProducerService.produceMessages(topicMap, (T) payload, kafkaHeader));
         verify(validator, times(1)).validateInputsForMultipleProducerFlow(topicMap, (T) payload);
-        verify(messagePublisherUtil, times(0)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(0)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
     }
 
     @Test
@@ -99,13 +120,13 @@ public class KafkaProducerServiceTest<T> {
         Map<String, String> topicMap = new HashMap<>();
         topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
         topicMap.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, "dlt");
-        doThrow(TimeoutException.class).when(messagePublisherUtil).publishOnTopic(any(ProducerRecord.class), anyMap());
+        doThrow(TimeoutException.class).when(messagePublisherUtil).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         doThrow(TimeoutException.class).when(messagePublisherUtil).produceMessageToDlt(any(TimeoutException.class),
                 anyMap(), (T) anyString(), anyMap());
         assertThrows(RuntimeException.class,
                 () -> kafkaProducerService.produceMessages(topicMap, (T) payload, kafkaHeader));
         verify(validator, times(retryCount)).validateInputsForMultipleProducerFlow(topicMap, (T) payload);
-        verify(messagePublisherUtil, times(retryCount)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(retryCount)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
     }
 
     @Test
@@ -118,11 +139,11 @@ public class KafkaProducerServiceTest<T> {
         topicMap.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY, "claim");
         RecordTooLargeException recordTooLargeException = new RecordTooLargeException("record too large");
         KafkaException kafkaException = new KafkaException(recordTooLargeException);
-        doThrow(kafkaException).when(messagePublisherUtil).publishOnTopic(any(ProducerRecord.class), anyMap());
+        doThrow(kafkaException).when(messagePublisherUtil).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         doNothing().when(claimsCheckService).handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topicMap,
                 (T) payload);
         kafkaProducerService.produceMessages(topicMap, (T) payload, kafkaHeader);
-        verify(messagePublisherUtil, times(1)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(1)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         verify(claimsCheckService, times(1)).handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topicMap,
                 (T) payload);
     }
@@ -137,12 +158,12 @@ public class KafkaProducerServiceTest<T> {
         // topicMap.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY, "claim");
         RecordTooLargeException recordTooLargeException = new RecordTooLargeException("record too large");
         KafkaException kafkaException = new KafkaException(recordTooLargeException);
-        doThrow(kafkaException).when(messagePublisherUtil).publishOnTopic(any(ProducerRecord.class), anyMap());
+        doThrow(kafkaException).when(messagePublisherUtil).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         doThrow(ClaimsCheckFailedException.class).when(claimsCheckService)
                 .handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topicMap, (T) payload);
         assertThrows(ClaimsCheckFailedException.class,
                 () -> kafkaProducerService.produceMessages(topicMap, (T) payload, kafkaHeader));
-        verify(messagePublisherUtil, times(1)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(1)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         verify(claimsCheckService, times(1)).handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topicMap,
                 (T) payload);
     }
@@ -153,7 +174,7 @@ public class KafkaProducerServiceTest<T> {
         Map<String, String> topicMap = new HashMap<>();
         topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
         topicMap.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, "dlt");
-        doThrow(TimeoutException.class).when(messagePublisherUtil).publishOnTopic(any(ProducerRecord.class), anyMap());
+        doThrow(TimeoutException.class).when(messagePublisherUtil).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         doThrow(TimeoutException.class).when(messagePublisherUtil).produceMessageToDlt(any(TimeoutException.class),
                 anyMap(), (T) anyString(), anyMap());
         assertThrows(TimeoutException.class,
@@ -161,11 +182,169 @@ public class KafkaProducerServiceTest<T> {
         verify(messagePublisherUtil, times(1)).produceMessageToDlt(any(TimeoutException.class), anyMap(), any(),
                 anyMap());
         verify(validator, times(retryCount)).validateInputsForMultipleProducerFlow(topicMap, (T) payload);
-        verify(messagePublisherUtil, times(3)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(3)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
 
         doNothing().when(messagePublisherUtil).produceMessageToDlt(any(TimeoutException.class),
                 anyMap(), (T) anyString(), anyMap());
         assertThrows(DLTException.class,
                 () -> kafkaProducerService.produceMessages(topicMap, (T) payload, kafkaHeader));
     }
+
+    @Test
+    void testPostingMessageOnTopicAsync() {
+        String payload = "test";
+        Map<String, String> topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("test-topic", 0), 1L, 0L, 0L, 0L, 0, 0);
+        SendResult<String, T> sendResult = new SendResult<>(new ProducerRecord<>("test-topic", (T) payload), recordMetadata);
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) payload, kafkaHeader))
+                .thenReturn(CompletableFuture.completedFuture(sendResult));
+        assertEquals(recordMetadata, kafkaProducerService.produceMessagesAsync(topicMap, (T) payload, kafkaHeader).join());
+        verify(validator, times(1)).validateInputsForMultipleProducerFlow(topicMap, (T) payload);
+    }
+
+    @Test
+    void testClaimsCheckAsyncWhenRecordTooLargeOnAck() {
+        String payload = "test";
+        Map<String, String> topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY, "claim");
+        RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("claim", 0), 1L, 0L, 0L, 0L, 0, 0);
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) payload, kafkaHeader)).thenReturn(
+                CompletableFuture.failedFuture(new KafkaException(new RecordTooLargeException("record too large"))));
+        when(claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topicMap, (T) payload))
+                .thenReturn(CompletableFuture.completedFuture(recordMetadata));
+        assertEquals(recordMetadata, kafkaProducerService.produceMessagesAsync(topicMap, (T) payload, kafkaHeader).join());
+        verify(messagePublisherUtil, times(0)).produceMessageToDltAsync(any(), anyMap(), any(), anyMap());
+    }
+
+    @Test
+    void testDltAsyncWhenRetriesExhausted() {
+        String payload = "test";
+        Map<String, String> topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, "dlt");
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) payload, kafkaHeader))
+                .thenReturn(CompletableFuture.failedFuture(timeoutException));
+        RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("dlt", 0), 1L, 0L, 0L, 0L, 0, 0);
+        SendResult<String, T> dltResult = new SendResult<>(new ProducerRecord<>("dlt", (T) payload), recordMetadata);
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, topicMap, (T) payload, kafkaHeader))
+                .thenReturn(CompletableFuture.completedFuture(dltResult));
+        CompletionException ex = assertThrows(CompletionException.class,
+                () -> kafkaProducerService.produceMessagesAsync(topicMap, (T) payload, kafkaHeader).join());
+        assertTrue(ex.getCause() instanceof DLTException);
+    }
+
+    @Test
+    void testDltAsyncRunsOffTheThreadCompletingTheSend() throws InterruptedException {
+        String payload = "test";
+        Map<String, String> topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, "dlt");
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        CompletableFuture<SendResult<String, T>> sendFuture = new CompletableFuture<>();
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) payload, kafkaHeader)).thenReturn(sendFuture);
+        RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("dlt", 0), 1L, 0L, 0L, 0L, 0, 0);
+        SendResult<String, T> dltResult = new SendResult<>(new ProducerRecord<>("dlt", (T) payload), recordMetadata);
+        AtomicReference<String> dltThread = new AtomicReference<>();
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, topicMap, (T) payload, kafkaHeader))
+                .thenAnswer(invocation -> {
+                    dltThread.set(Thread.currentThread().getName());
+                    return CompletableFuture.completedFuture(dltResult);
+                });
+
+        CompletableFuture<RecordMetadata> future = kafkaProducerService.produceMessagesAsync(topicMap, (T) payload,
+                kafkaHeader);
+        Thread networkThread = new Thread(() -> sendFuture.completeExceptionally(timeoutException),
+                "kafka-producer-network-thread | test");
+        networkThread.start();
+        networkThread.join();
+
+        CompletionException ex = assertThrows(CompletionException.class, future::join);
+        assertTrue(ex.getCause() instanceof DLTException);
+        assertNotEquals(networkThread.getName(), dltThread.get());
+    }
+
+    @Test
+    void testClaimsCheckWhenBrokerRejectsRecordAfterReturn() {
+        String payload = "test";
+        Map<String, String> topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY, "claim");
+        CompletableFuture<SendResult<String, T>> future = new CompletableFuture<>();
+        when(messagePublisherUtil.publishOnTopicAsync(any(ProducerRecord.class), anyMap())).thenReturn(future);
+        when(claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topicMap, (T) payload))
+                .thenReturn(new CompletableFuture<>());
+        kafkaProducerService.produceMessages(topicMap, (T) payload, kafkaHeader);
+        verify(claimsCheckService, times(0)).handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topicMap,
+                (T) payload);
+        future.completeExceptionally(new KafkaException(new RecordTooLargeException("record too large")));
+        verify(claimsCheckService, timeout(5000).times(1)).handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader,
+                topicMap, (T) payload);
+    }
+
+    @Test
+    void testClaimsCheckWithoutSendWhenPayloadExceedsMaxRequestSize() {
+        String payload = "test";
+        Map<String, String> topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY, "claim");
+        when(payloadSizeEstimator.exceedsMaxRequestSize(payload, kafkaHeader)).thenReturn(Boolean.TRUE);
+        kafkaProducerService.produceMessages(topicMap, (T) payload, kafkaHeader);
+        verify(messagePublisherUtil, times(0)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
+        verify(claimsCheckService, times(1)).handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topicMap,
+                (T) payload);
+    }
+
+    @Test
+    void testProduceBatchReturnsOutcomePerRecord() {
+        Map<String, String> topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, "dlt");
+        RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("test-topic", 0), 1L, 0L, 0L, 0L, 0, 0);
+        RecordMetadata dltMetadata = new RecordMetadata(new TopicPartition("dlt", 0), 1L, 0L, 0L, 0L, 0, 0);
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "first", kafkaHeader)).thenReturn(
+                CompletableFuture.completedFuture(new SendResult<>(new ProducerRecord<>("test-topic", (T) "first"), recordMetadata)));
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "second", kafkaHeader))
+                .thenReturn(CompletableFuture.failedFuture(timeoutException));
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, topicMap, (T) "second", kafkaHeader)).thenReturn(
+                CompletableFuture.completedFuture(new SendResult<>(new ProducerRecord<>("dlt", (T) "second"), dltMetadata)));
+        doThrow(PayloadValidationException.class).when(validator).payloadValidation(null);
+
+        List<SendOutcome> outcomes = kafkaProducerService.produceBatch(topicMap, Arrays.asList((T) "first", (T) "second", null),
+                Arrays.asList(kafkaHeader, kafkaHeader, kafkaHeader));
+
+        verify(validator, times(1)).validateInputsForBatchProducerFlow(topicMap);
+        assertEquals(3, outcomes.size());
+        assertEquals(SendOutcome.Status.SUCCESS, outcomes.get(0).getStatus());
+        assertEquals(SendOutcome.Status.DLT, outcomes.get(1).getStatus());
+        assertEquals(dltMetadata, outcomes.get(1).getRecordMetadata());
+        assertEquals(SendOutcome.Status.FAILED, outcomes.get(2).getStatus());
+    }
+
+    @Test
+    void testProduceBatchReportsClaimsCheckDltAsDlt() {
+        Map<String, String> topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY, "claim");
+        topicMap.put(ConfigConstants.CLAIMS_CHECK_DLT_KEY, "claim-dlt");
+        when(payloadSizeEstimator.exceedsMaxRequestSize("large", kafkaHeader)).thenReturn(Boolean.TRUE);
+        when(claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topicMap, (T) "large"))
+                .thenReturn(CompletableFuture.failedFuture(new DLTException("published to claims check DLT")));
+
+        List<SendOutcome> outcomes = kafkaProducerService.produceBatch(topicMap, List.of((T) "large"), List.of(kafkaHeader));
+
+        assertEquals(SendOutcome.Status.DLT, outcomes.get(0).getStatus());
+        assertTrue(outcomes.get(0).getException() instanceof DLTException);
+    }
+
+    @Test
+    void testProduceBatchWhenHeadersDoNotMatchMessages() {
+        Map<String, String> topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        assertThrows(PayloadValidationException.class, () -> kafkaProducerService.produceBatch(topicMap,
+                Arrays.asList((T) "first", (T) "second"), List.of(kafkaHeader)));
+    }
 }
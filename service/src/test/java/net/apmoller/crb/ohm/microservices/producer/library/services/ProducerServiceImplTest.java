@@ -9,6 +9,9 @@ import net.apmoller.crb.ohm.microservices.producer.library.exceptions.DLTExcepti
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.KafkaServerNotFoundException;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.TopicNameValidationException;
 import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.errors.RecordTooLargeException;
@@ -30,12 +33,13 @@ import org.springframework.transaction.TransactionTimedOutException;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
 @Slf4j
-@SpringBootTest(classes = { ProducerServiceImpl.class })
+@SpringBootTest(classes = { ProducerServiceImpl.class, PublishExecutor.class, RetryBudget.class })
 @ActiveProfiles({ "test" })
 public class ProducerServiceImplTest<T> {
 
@@ -48,6 +52,9 @@ public class ProducerServiceImplTest<T> {
     @MockBean
     private MeterRegistry registry;
 
+    @MockBean
+    private PayloadSizeEstimator payloadSizeEstimator;
+
     @MockBean
     private ConfigValidator<T> validate;
 
@@ -88,19 +95,21 @@ public class ProducerServiceImplTest<T> {
         kafkaHeader.put("X-DOCBROKER-Correlation-ID", "DUMMYHEXID");
         Counter counter = mock(Counter.class);
         when(registry.counter(any())).thenReturn(counter);
+        when(messagePublisherUtil.publishOnTopicAsync(any(ProducerRecord.class), anyMap()))
+                .thenReturn(new CompletableFuture<>());
     }
 
     @Test
     void testMessageSentToTopic() throws IOException {
         producerServiceImpl.produceMessages((T) message, kafkaHeader);
-        verify(messagePublisherUtil, times(1)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(1)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
     }
 
     @Test
     void testMessageSentToTopicFailure() {
-        doThrow(RuntimeException.class).when(messagePublisherUtil).publishOnTopic(any(ProducerRecord.class), anyMap());
+        doThrow(RuntimeException.class).when(messagePublisherUtil).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         assertThrows(RuntimeException.class, () -> producerServiceImpl.produceMessages((T) message, kafkaHeader));
-        verify(messagePublisherUtil, times(1)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(1)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
     }
 
     @Test
@@ -108,7 +117,7 @@ public class ProducerServiceImplTest<T> {
         doThrow(TopicNameValidationException.class).when(validate).validateInputs(any(), any());
         assertThrows(TopicNameValidationException.class,
                 () -> producerServiceImpl.produceMessages((T) message, kafkaHeader));
-        verify(messagePublisherUtil, times(0)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(0)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
     }
 
     @Test
@@ -116,7 +125,7 @@ public class ProducerServiceImplTest<T> {
         doThrow(KafkaServerNotFoundException.class).when(validate).validateInputs(any(), any());
         assertThrows(KafkaServerNotFoundException.class,
                 () -> producerServiceImpl.produceMessages((T) message, kafkaHeader));
-        verify(messagePublisherUtil, times(0)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(0)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
     }
 
     @Test
@@ -162,7 +171,7 @@ public class ProducerServiceImplTest<T> {
     void testTopicAuthorizationException() {
         org.apache.kafka.common.KafkaException kafkaException = new org.apache.kafka.common.KafkaException(
                 new TopicAuthorizationException("test"));
-        doThrow(kafkaException).when(messagePublisherUtil).publishOnTopic(any(ProducerRecord.class), anyMap());
+        doThrow(kafkaException).when(messagePublisherUtil).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         assertThrows(org.apache.kafka.common.KafkaException.class,
                 () -> producerServiceImpl.produceMessages((T) message, kafkaHeader));
     }
@@ -190,9 +199,9 @@ public class ProducerServiceImplTest<T> {
         KafkaException kafkaException = new KafkaException(recordTooLargeException);
         doNothing().when(claimsCheckService).handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topicMap,
                 (T) payload);
-        doThrow(kafkaException).when(messagePublisherUtil).publishOnTopic(any(ProducerRecord.class), anyMap());
+        doThrow(kafkaException).when(messagePublisherUtil).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         producerServiceImpl.produceMessages((T) payload, kafkaHeader);
-        verify(messagePublisherUtil, times(1)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(1)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         verify(claimsCheckService, times(1)).handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topicMap,
                 (T) payload);
 
@@ -208,10 +217,10 @@ public class ProducerServiceImplTest<T> {
         KafkaException kafkaException = new KafkaException(recordTooLargeException);
         doThrow(ClaimsCheckFailedException.class).when(claimsCheckService)
                 .handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topicMap, (T) payload);
-        doThrow(kafkaException).when(messagePublisherUtil).publishOnTopic(any(ProducerRecord.class), anyMap());
+        doThrow(kafkaException).when(messagePublisherUtil).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         assertThrows(ClaimsCheckFailedException.class,
                 () -> producerServiceImpl.produceMessages((T) payload, kafkaHeader));
-        verify(messagePublisherUtil, times(1)).publishOnTopic(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, times(1)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
         verify(claimsCheckService, times(1)).handleClaimsCheckAfterGettingMemoryIssue(kafkaHeader, topicMap,
                 (T) payload);
 
@@ -0,0 +1,161 @@
+package net.apmoller.crb.ohm.microservices.producer.library.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.models.SendOutcome;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+/**
+ * Sync produceMessages of both services with the publish executor in bounded mode: the call returns after validation
+ * and the send, retries and DLT handoff run on the executor.
+ */
+@SpringBootTest(classes = { ProducerServiceImpl.class, KafkaProducerServiceImpl.class, PublishExecutor.class,
+        RetryBudget.class }, properties = { "kafka.producer.executor.mode=bounded",
+                "kafka.producer.executor.pool-size=1", "kafka.producer.executor.queue-capacity=1",
+                "kafka.notification.topic=test-topic" })
+@ActiveProfiles({ "test" })
+public class ProducerServiceOffloadTest<T> {
+
+    @MockBean
+    private MeterRegistry registry;
+
+    @MockBean
+    private PayloadSizeEstimator payloadSizeEstimator;
+
+    @MockBean
+    private ConfigValidator<T> validator;
+
+    @MockBean
+    private ClaimsCheckServiceImpl<T> claimsCheckService;
+
+    @MockBean
+    private MessagePublisherUtil<T> messagePublisherUtil;
+
+    @Autowired
+    private ProducerServiceImpl<T> producerService;
+
+    @Autowired
+    private KafkaProducerServiceImpl<T> kafkaProducerService;
+
+    private final Map<String, Object> kafkaHeader = new HashMap<>();
+
+    private final Map<String, String> topicMap = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        when(registry.counter(any())).thenReturn(mock(Counter.class));
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, "dlt");
+    }
+
+    @Test
+    void testProduceMessagesSendsOnPublishThread() {
+        AtomicReference<String> sendThread = new AtomicReference<>();
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "test", kafkaHeader)).thenAnswer(invocation -> {
+            sendThread.set(Thread.currentThread().getName());
+            return new CompletableFuture<SendResult<String, T>>();
+        });
+
+        producerService.produceMessages((T) "test", kafkaHeader);
+
+        verify(messagePublisherUtil, timeout(5000)).publishWithRetryAsync("test-topic", (T) "test", kafkaHeader);
+        verify(messagePublisherUtil, never()).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
+        assertTrue(sendThread.get().startsWith("producer-library-publish-"));
+    }
+
+    @Test
+    void testProduceMessagesReturnsBeforeRecoveryAndHandsOffToDlt() {
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        CompletableFuture<SendResult<String, T>> sendFuture = new CompletableFuture<>();
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "test", kafkaHeader)).thenReturn(sendFuture);
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, (T) "test", kafkaHeader))
+                .thenReturn(new CompletableFuture<>());
+
+        producerService.produceMessages((T) "test", kafkaHeader);
+        verify(messagePublisherUtil, timeout(5000)).publishWithRetryAsync("test-topic", (T) "test", kafkaHeader);
+        verify(messagePublisherUtil, never()).produceMessageToDltAsync(any(), any(), anyMap());
+
+        sendFuture.completeExceptionally(timeoutException);
+        verify(messagePublisherUtil, timeout(5000)).produceMessageToDltAsync(timeoutException, (T) "test", kafkaHeader);
+    }
+
+    @Test
+    void testMultipleProducerFlowSendsOnPublishThread() {
+        AtomicReference<String> sendThread = new AtomicReference<>();
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "test", kafkaHeader)).thenAnswer(invocation -> {
+            sendThread.set(Thread.currentThread().getName());
+            return CompletableFuture.failedFuture(timeoutException);
+        });
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, topicMap, (T) "test", kafkaHeader))
+                .thenReturn(new CompletableFuture<>());
+
+        kafkaProducerService.produceMessages(topicMap, (T) "test", kafkaHeader);
+
+        verify(messagePublisherUtil, timeout(5000)).produceMessageToDltAsync(timeoutException, topicMap, (T) "test",
+                kafkaHeader);
+        verify(messagePublisherUtil, never()).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
+        assertTrue(sendThread.get().startsWith("producer-library-publish-"));
+    }
+
+    @Test
+    void testBatchLargerThanExecutorSentFromCallerThread() {
+        // five times pool-size plus queue-capacity, with one record failing over to the DLT
+        int size = 10;
+        RecordMetadata metadata = new RecordMetadata(new TopicPartition("test-topic", 0), 1L, 0L, 0L, 0L, 0, 0);
+        RecordMetadata dltMetadata = new RecordMetadata(new TopicPartition("dlt", 0), 1L, 0L, 0L, 0L, 0, 0);
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        Set<String> sendThreads = ConcurrentHashMap.newKeySet();
+        when(messagePublisherUtil.publishWithRetryAsync(eq("test-topic"), any(), eq(kafkaHeader))).thenAnswer(invocation -> {
+            sendThreads.add(Thread.currentThread().getName());
+            Thread.sleep(10);
+            if ("5".equals(invocation.getArgument(1)))
+                return CompletableFuture.failedFuture(timeoutException);
+            return CompletableFuture.completedFuture(
+                    new SendResult<>(new ProducerRecord<>("test-topic", invocation.<T> getArgument(1)), metadata));
+        });
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, topicMap, (T) "5", kafkaHeader)).thenReturn(
+                CompletableFuture.completedFuture(new SendResult<>(new ProducerRecord<>("dlt", (T) "5"), dltMetadata)));
+        List<T> messages = new ArrayList<>();
+        List<Map<String, Object>> kafkaHeaders = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            messages.add((T) String.valueOf(i));
+            kafkaHeaders.add(kafkaHeader);
+        }
+
+        List<SendOutcome> outcomes = kafkaProducerService.produceBatch(topicMap, messages, kafkaHeaders);
+
+        assertEquals(size, outcomes.size());
+        for (int i = 0; i < size; i++)
+            assertEquals(i == 5 ? SendOutcome.Status.DLT : SendOutcome.Status.SUCCESS, outcomes.get(i).getStatus());
+        assertEquals(Set.of(Thread.currentThread().getName()), sendThreads);
+    }
+}
@@ -0,0 +1,87 @@
+package net.apmoller.crb.ohm.microservices.producer.library.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.DLTException;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.retry.annotation.EnableRetry;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.*;
+
+/**
+ * @Retryable produceMessages of both services with a retry budget of one token: the first timeout is retried, the
+ * second finds the budget used up and goes to the DLT instead of being retried again.
+ */
+@EnableRetry
+@SpringBootTest(classes = { ProducerServiceImpl.class, KafkaProducerServiceImpl.class, PublishExecutor.class,
+        RetryBudget.class, SimpleMeterRegistry.class }, properties = { "kafka.notification.topic=test-topic",
+                "kafka.producer.retry-budget.enabled=true", "kafka.producer.retry-budget.capacity=1",
+                "kafka.producer.retry-budget.tokens-per-second=0.001" })
+@ActiveProfiles({ "test" })
+public class ProducerServiceRetryBudgetTest<T> {
+
+    @MockBean
+    private PayloadSizeEstimator payloadSizeEstimator;
+
+    @MockBean
+    private ConfigValidator<T> validator;
+
+    @MockBean
+    private ClaimsCheckServiceImpl<T> claimsCheckService;
+
+    @MockBean
+    private MessagePublisherUtil<T> messagePublisherUtil;
+
+    @Autowired
+    private RetryBudget retryBudget;
+
+    @Autowired
+    private ProducerService<T> producerService;
+
+    @Autowired
+    private KafkaProducerService<T> kafkaProducerService;
+
+    private final Map<String, Object> kafkaHeader = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(retryBudget, "tokens", 1d);
+        doThrow(new TimeoutException("timeout")).when(messagePublisherUtil)
+                .publishOnTopicAsync(any(ProducerRecord.class), anyMap());
+    }
+
+    @Test
+    void testExhaustedBudgetSendsToDltInsteadOfRetrying() {
+        assertThrows(DLTException.class, () -> producerService.produceMessages((T) "test", kafkaHeader));
+        verify(messagePublisherUtil, times(2)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil).produceMessageToDlt(any(KafkaException.class), eq((T) "test"), eq(kafkaHeader));
+    }
+
+    @Test
+    void testExhaustedBudgetSendsToDltInsteadOfRetryingInMultipleProducerFlow() {
+        Map<String, String> topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, "dlt");
+        assertThrows(DLTException.class, () -> kafkaProducerService.produceMessages(topicMap, (T) "test", kafkaHeader));
+        verify(messagePublisherUtil, times(2)).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil).produceMessageToDlt(any(KafkaException.class), eq(topicMap), eq((T) "test"),
+                eq(kafkaHeader));
+    }
+}
@@ -0,0 +1,112 @@
+package net.apmoller.crb.ohm.microservices.producer.library.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.mockito.Mockito.*;
+
+/**
+ * Sync produceMessages of both services with kafka.producer.retry.mode set to scheduled in caller mode: the first
+ * attempt runs on the caller thread through the async pipeline, whose retries are scheduled, and the call returns
+ * without waiting for them or the DLT handoff.
+ */
+@SpringBootTest(classes = { ProducerServiceImpl.class, KafkaProducerServiceImpl.class, PublishExecutor.class,
+        RetryBudget.class }, properties = { "kafka.producer.retry.mode=scheduled",
+                "kafka.notification.topic=test-topic" })
+@ActiveProfiles({ "test" })
+public class ProducerServiceScheduledRetryTest<T> {
+
+    @MockBean
+    private MeterRegistry registry;
+
+    @MockBean
+    private PayloadSizeEstimator payloadSizeEstimator;
+
+    @MockBean
+    private ConfigValidator<T> validator;
+
+    @MockBean
+    private ClaimsCheckServiceImpl<T> claimsCheckService;
+
+    @MockBean
+    private MessagePublisherUtil<T> messagePublisherUtil;
+
+    @Autowired
+    private PublishExecutor publishExecutor;
+
+    @Autowired
+    private ProducerServiceImpl<T> producerService;
+
+    @Autowired
+    private KafkaProducerServiceImpl<T> kafkaProducerService;
+
+    private final Map<String, Object> kafkaHeader = new HashMap<>();
+
+    private final Map<String, String> topicMap = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        when(registry.counter(any())).thenReturn(mock(Counter.class));
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, "dlt");
+    }
+
+    @Test
+    void testProduceMessagesUsesScheduledRetriesOnCallerThread() {
+        Assertions.assertFalse(publishExecutor.isOffloading());
+        Assertions.assertTrue(publishExecutor.isSchedulingRetries());
+        AtomicReference<String> sendThread = new AtomicReference<>();
+        CompletableFuture<SendResult<String, T>> sendFuture = new CompletableFuture<>();
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "test", kafkaHeader)).thenAnswer(invocation -> {
+            sendThread.set(Thread.currentThread().getName());
+            return sendFuture;
+        });
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, (T) "test", kafkaHeader))
+                .thenReturn(new CompletableFuture<>());
+
+        producerService.produceMessages((T) "test", kafkaHeader);
+        Assertions.assertEquals(Thread.currentThread().getName(), sendThread.get());
+        verify(messagePublisherUtil, never()).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
+        verify(messagePublisherUtil, never()).produceMessageToDltAsync(any(), any(), anyMap());
+
+        // the retries have run out, the DLT handoff is chained to the last failed attempt
+        sendFuture.completeExceptionally(timeoutException);
+        verify(messagePublisherUtil, timeout(5000)).produceMessageToDltAsync(timeoutException, (T) "test", kafkaHeader);
+    }
+
+    @Test
+    void testMultipleProducerFlowUsesScheduledRetries() {
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "test", kafkaHeader))
+                .thenReturn(CompletableFuture.failedFuture(timeoutException));
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, topicMap, (T) "test", kafkaHeader))
+                .thenReturn(new CompletableFuture<>());
+
+        kafkaProducerService.produceMessages(topicMap, (T) "test", kafkaHeader);
+
+        verify(messagePublisherUtil).publishWithRetryAsync("test-topic", (T) "test", kafkaHeader);
+        verify(messagePublisherUtil, timeout(5000)).produceMessageToDltAsync(timeoutException, topicMap, (T) "test",
+                kafkaHeader);
+        verify(messagePublisherUtil, never()).publishOnTopicAsync(any(ProducerRecord.class), anyMap());
+    }
+}
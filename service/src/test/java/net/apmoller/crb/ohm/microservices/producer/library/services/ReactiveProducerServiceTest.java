@@ -0,0 +1,237 @@
+package net.apmoller.crb.ohm.microservices.producer.library.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.DLTException;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.PayloadValidationException;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.SpooledException;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.TopicNameValidationException;
+import net.apmoller.crb.ohm.microservices.producer.library.models.SendOutcome;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = { ReactiveProducerServiceImpl.class, PublishExecutor.class })
+@ActiveProfiles({ "test" })
+public class ReactiveProducerServiceTest<T> {
+
+    @MockBean
+    private ConfigValidator<T> validator;
+
+    @MockBean
+    private MessagePublisherUtil<T> messagePublisherUtil;
+
+    @Autowired
+    private ReactiveProducerService<T> reactiveProducerService;
+
+    @MockBean
+    private ClaimsCheckServiceImpl<T> claimsCheckService;
+
+    @MockBean
+    private MeterRegistry registry;
+
+    @MockBean
+    private PayloadSizeEstimator payloadSizeEstimator;
+
+    Map<String, Object> kafkaHeader;
+
+    Map<String, String> topicMap;
+
+    @BeforeEach
+    void setUp() {
+        kafkaHeader = new HashMap<>();
+        kafkaHeader.put("X-DOCBROKER-Correlation-ID", "DUMMYHEXID");
+        topicMap = new HashMap<>();
+        topicMap.put(ConfigConstants.NOTIFICATION_TOPIC_KEY, "test-topic");
+        topicMap.put(ConfigConstants.DEAD_LETTER_TOPIC_KEY, "dlt");
+        topicMap.put(ConfigConstants.CLAIMS_CHECK_TOPIC_KEY, "claim");
+        Counter counter = mock(Counter.class);
+        when(registry.counter(any())).thenReturn(counter);
+    }
+
+    @Test
+    void testOutcomePerMessageInInputOrder() {
+        RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("test-topic", 0), 1L, 0L, 0L, 0L, 0, 0);
+        RecordMetadata dltMetadata = new RecordMetadata(new TopicPartition("dlt", 0), 1L, 0L, 0L, 0L, 0, 0);
+        RecordMetadata claimsCheckMetadata = new RecordMetadata(new TopicPartition("claim", 0), 1L, 0L, 0L, 0L, 0, 0);
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        CompletableFuture<SendResult<String, T>> first = new CompletableFuture<>();
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "first", kafkaHeader)).thenReturn(first);
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "second", kafkaHeader))
+                .thenReturn(CompletableFuture.failedFuture(timeoutException));
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, topicMap, (T) "second", kafkaHeader)).thenReturn(
+                CompletableFuture.completedFuture(new SendResult<>(new ProducerRecord<>("dlt", (T) "second"), dltMetadata)));
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "third", kafkaHeader)).thenReturn(
+                CompletableFuture.failedFuture(new KafkaException(new RecordTooLargeException("record too large"))));
+        when(claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topicMap, (T) "third"))
+                .thenReturn(CompletableFuture.completedFuture(claimsCheckMetadata));
+        doThrow(PayloadValidationException.class).when(validator).payloadValidation((T) "fourth");
+
+        Flux<SendOutcome> outcomes = reactiveProducerService.produceMessages(topicMap,
+                Flux.just((T) "first", (T) "second", (T) "third", (T) "fourth"), kafkaHeader);
+        verify(validator, times(0)).validateInputsForBatchProducerFlow(topicMap);
+        CompletableFuture.runAsync(() -> first.complete(
+                new SendResult<>(new ProducerRecord<>("test-topic", (T) "first"), recordMetadata)));
+        List<SendOutcome> results = outcomes.collectList().block();
+
+        verify(validator, times(1)).validateInputsForBatchProducerFlow(topicMap);
+        assertEquals(4, results.size());
+        for (int i = 0; i < results.size(); i++)
+            assertEquals(i, results.get(i).getIndex());
+        assertEquals(SendOutcome.Status.SUCCESS, results.get(0).getStatus());
+        assertEquals(recordMetadata, results.get(0).getRecordMetadata());
+        assertEquals(SendOutcome.Status.DLT, results.get(1).getStatus());
+        assertEquals(dltMetadata, results.get(1).getRecordMetadata());
+        assertEquals(SendOutcome.Status.CLAIMS_CHECK, results.get(2).getStatus());
+        assertEquals(claimsCheckMetadata, results.get(2).getRecordMetadata());
+        assertEquals(SendOutcome.Status.FAILED, results.get(3).getStatus());
+        verify(messagePublisherUtil, times(0)).publishWithRetryAsync("test-topic", (T) "fourth", kafkaHeader);
+    }
+
+    @Test
+    void testClaimsCheckWithoutSendWhenPayloadExceedsMaxRequestSize() {
+        RecordMetadata claimsCheckMetadata = new RecordMetadata(new TopicPartition("claim", 0), 1L, 0L, 0L, 0L, 0, 0);
+        when(payloadSizeEstimator.exceedsMaxRequestSize("large", kafkaHeader)).thenReturn(Boolean.TRUE);
+        when(claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topicMap, (T) "large"))
+                .thenReturn(CompletableFuture.completedFuture(claimsCheckMetadata));
+
+        List<SendOutcome> results = reactiveProducerService
+                .produceMessages(topicMap, Flux.just((T) "large"), kafkaHeader).collectList().block();
+
+        assertEquals(SendOutcome.Status.CLAIMS_CHECK, results.get(0).getStatus());
+        verify(messagePublisherUtil, times(0)).publishWithRetryAsync(anyString(), any(), anyMap());
+    }
+
+    @Test
+    void testSpoolWhenDltFails() {
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        KafkaException dltException = new KafkaException("dlt unavailable");
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "payload", kafkaHeader))
+                .thenReturn(CompletableFuture.failedFuture(timeoutException));
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, topicMap, (T) "payload", kafkaHeader))
+                .thenReturn(CompletableFuture.failedFuture(dltException));
+        when(messagePublisherUtil.spool(dltException, "test-topic", (T) "payload", kafkaHeader)).thenReturn(true);
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "lost", kafkaHeader))
+                .thenReturn(CompletableFuture.failedFuture(timeoutException));
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, topicMap, (T) "lost", kafkaHeader))
+                .thenReturn(CompletableFuture.failedFuture(dltException));
+
+        List<SendOutcome> results = reactiveProducerService
+                .produceMessages(topicMap, Flux.just((T) "payload", (T) "lost"), kafkaHeader).collectList().block();
+
+        assertEquals(SendOutcome.Status.SPOOLED, results.get(0).getStatus());
+        assertTrue(results.get(0).getException() instanceof SpooledException);
+        assertEquals(SendOutcome.Status.FAILED, results.get(1).getStatus());
+        assertEquals(dltException, results.get(1).getException());
+    }
+
+    @Test
+    void testTopicNameValidationFailsFlux() {
+        doThrow(TopicNameValidationException.class).when(validator).validateInputsForBatchProducerFlow(topicMap);
+        Flux<SendOutcome> outcomes = reactiveProducerService.produceMessages(topicMap, Flux.just((T) "payload"),
+                kafkaHeader);
+        assertThrows(TopicNameValidationException.class, () -> outcomes.collectList().block());
+        verify(messagePublisherUtil, times(0)).publishWithRetryAsync(anyString(), any(), anyMap());
+    }
+
+    @Test
+    void testLimitedRequestKeepsMaxInFlightSendsOutstanding() {
+        ReflectionTestUtils.setField(reactiveProducerService, "maxInFlight", 2);
+        try {
+            RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition("test-topic", 0), 1L, 0L, 0L, 0L, 0, 0);
+            CompletableFuture<SendResult<String, T>> first = new CompletableFuture<>();
+            when(messagePublisherUtil.publishWithRetryAsync(eq("test-topic"), any(), eq(kafkaHeader)))
+                    .thenReturn(new CompletableFuture<>());
+            when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "0", kafkaHeader)).thenReturn(first);
+
+            StepVerifier.create(reactiveProducerService.produceMessages(topicMap,
+                    Flux.just((T) "0", (T) "1", (T) "2", (T) "3", (T) "4"), kafkaHeader), 1)
+                    .then(() -> verify(messagePublisherUtil, timeout(5000).times(2))
+                            .publishWithRetryAsync(eq("test-topic"), any(), eq(kafkaHeader)))
+                    .then(() -> verify(messagePublisherUtil, after(200).times(2))
+                            .publishWithRetryAsync(eq("test-topic"), any(), eq(kafkaHeader)))
+                    .then(() -> first.complete(new SendResult<>(new ProducerRecord<>("test-topic", (T) "0"), recordMetadata)))
+                    .expectNextMatches(outcome -> outcome.getIndex() == 0 && outcome.isSuccess())
+                    .then(() -> verify(messagePublisherUtil, timeout(5000).times(3))
+                            .publishWithRetryAsync(eq("test-topic"), any(), eq(kafkaHeader)))
+                    .thenCancel().verify(Duration.ofSeconds(10));
+        } finally {
+            ReflectionTestUtils.setField(reactiveProducerService, "maxInFlight", 256);
+        }
+    }
+
+    @Test
+    void testRecoveryRunsOffProducerNetworkThread() throws InterruptedException {
+        RecordMetadata dltMetadata = new RecordMetadata(new TopicPartition("dlt", 0), 1L, 0L, 0L, 0L, 0, 0);
+        TimeoutException timeoutException = new TimeoutException("timeout");
+        CompletableFuture<SendResult<String, T>> sendFuture = new CompletableFuture<>();
+        AtomicReference<String> dltThread = new AtomicReference<>();
+        when(messagePublisherUtil.publishWithRetryAsync("test-topic", (T) "payload", kafkaHeader)).thenReturn(sendFuture);
+        when(messagePublisherUtil.produceMessageToDltAsync(timeoutException, topicMap, (T) "payload", kafkaHeader))
+                .thenAnswer(invocation -> {
+                    dltThread.set(Thread.currentThread().getName());
+                    return CompletableFuture.completedFuture(
+                            new SendResult<>(new ProducerRecord<>("dlt", (T) "payload"), dltMetadata));
+                });
+
+        Flux<SendOutcome> outcomes = reactiveProducerService.produceMessages(topicMap, Flux.just((T) "payload"),
+                kafkaHeader);
+        Thread networkThread = new Thread(() -> {
+            verify(messagePublisherUtil, timeout(5000)).publishWithRetryAsync("test-topic", (T) "payload", kafkaHeader);
+            sendFuture.completeExceptionally(timeoutException);
+        }, "kafka-producer-network-thread | producer-1");
+        networkThread.start();
+        List<SendOutcome> results = outcomes.collectList().block(Duration.ofSeconds(10));
+        networkThread.join(5000);
+
+        assertEquals(SendOutcome.Status.DLT, results.get(0).getStatus());
+        assertFalse(dltThread.get().startsWith("kafka-producer-network-thread"));
+    }
+
+    @Test
+    void testClaimsCheckDltIsReportedAsDlt() {
+        DLTException dltException = new DLTException("Successfully published Payload to Claims check DLT");
+        when(payloadSizeEstimator.exceedsMaxRequestSize("large", kafkaHeader)).thenReturn(Boolean.TRUE);
+        when(claimsCheckService.handleClaimsCheckAfterGettingMemoryIssueAsync(kafkaHeader, topicMap, (T) "large"))
+                .thenReturn(CompletableFuture.failedFuture(dltException));
+
+        List<SendOutcome> results = reactiveProducerService
+                .produceMessages(topicMap, Flux.just((T) "large"), kafkaHeader).collectList().block();
+
+        assertEquals(SendOutcome.Status.DLT, results.get(0).getStatus());
+        assertEquals(dltException, results.get(0).getException());
+    }
+}
@@ -0,0 +1,351 @@
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import com.azure.core.http.HttpClient;
+import com.azure.core.http.HttpHeaders;
+import com.azure.core.http.HttpRequest;
+import com.azure.core.http.HttpResponse;
+import com.azure.core.util.FluxUtil;
+import com.azure.storage.blob.BlobServiceAsyncClient;
+import com.azure.storage.blob.BlobServiceClient;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+import com.azure.storage.common.StorageSharedKeyCredential;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * FileService against the storage clients talking to an in-memory blob endpoint, which records the requests.
+ */
+@SpringBootTest(classes = { FileService.class, SimpleMeterRegistry.class, FileServiceTest.BlobEndpointConfig.class },
+        properties = { "azure.storage.container-name=claims", "azure.storage.upload.block-size=8388608",
+                "azure.storage.upload.max-buffer-size=8388608",
+                "azure.storage.container-cache.revalidate-interval-ms=2000" })
+@ActiveProfiles({ "test" })
+public class FileServiceTest {
+
+    private static final String ENDPOINT = "https://account.blob.core.windows.net";
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private FakeBlobEndpoint blobEndpoint;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        blobEndpoint.reset();
+    }
+
+    @Test
+    void testUploadStreamsWriterIntoBlockBlob() throws IOException {
+        byte[] payload = "payload".getBytes(StandardCharsets.UTF_8);
+
+        String url = fileService.uploadFile("streaming", "payload", Collections.singletonMap("payloadformat", "java"),
+                out -> out.write(payload));
+
+        Assertions.assertEquals(ENDPOINT + "/streaming/payload.dat", url);
+        Assertions.assertArrayEquals(payload, blobEndpoint.body("PUT /streaming/payload.dat"));
+        Assertions.assertEquals("java", blobEndpoint.header("PUT /streaming/payload.dat", "x-ms-meta-payloadformat"));
+        Assertions.assertFalse(blobEndpoint.requests().contains("DELETE /streaming/payload.dat"));
+    }
+
+    @Test
+    void testBlockSizeLoweredToHalfTheMaxBufferSize() {
+        ParallelTransferOptions options = (ParallelTransferOptions) ReflectionTestUtils.getField(fileService,
+                "transferOptions");
+        Assertions.assertEquals(4194304L, options.getBlockSizeLong());
+        Assertions.assertEquals(1, options.getMaxConcurrency());
+    }
+
+    @Test
+    void testFailedWriterLeavesBlobOfSameNameUntouched() throws IOException {
+        byte[] payload = "payload".getBytes(StandardCharsets.UTF_8);
+        fileService.uploadFile("failed-writer", "payload", null, out -> out.write(payload));
+
+        // a failed upload of the same content addressed name neither commits its blocks nor deletes the blob
+        Assertions.assertThrows(IOException.class, () -> fileService.uploadFile("failed-writer", "payload", null, out -> {
+            out.write(1);
+            throw new IOException("writer failed");
+        }));
+
+        Assertions.assertEquals(1, blobEndpoint.count("PUT /failed-writer/payload.dat"));
+        Assertions.assertArrayEquals(payload, blobEndpoint.body("PUT /failed-writer/payload.dat"));
+        Assertions.assertFalse(blobEndpoint.requests().contains("DELETE /failed-writer/payload.dat"));
+    }
+
+    @Test
+    void testAsyncUploadStagesBlocksAsTheWriterWrites() throws Exception {
+        byte[] payload = new byte[4 * 1024 * 1024 + 1];
+
+        String url = fileService.uploadFileAsync("staged", "payload", null, out -> out.write(payload))
+                .get(30, TimeUnit.SECONDS);
+
+        Assertions.assertEquals(ENDPOINT + "/staged/payload.dat", url);
+        // two blocks staged and the block list committed
+        Assertions.assertEquals(3, blobEndpoint.count("PUT /staged/payload.dat"));
+    }
+
+    @Test
+    void testContainerVerifiedOncePerRevalidateInterval() throws Exception {
+        double hits = count(ConfigConstants.CLAIMS_CHECK_CONTAINER_CACHE_HIT_TOTAL);
+        double roundTrips = count(ConfigConstants.CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL);
+
+        fileService.uploadFile("cached", "first", null, out -> out.write(1));
+        fileService.uploadFile("cached", "second", null, out -> out.write(2));
+        fileService.uploadFileAsync("cached", "third", null, out -> out.write(3)).get();
+
+        Assertions.assertEquals(1, blobEndpoint.count("GET /cached"));
+        Assertions.assertEquals(hits + 2, count(ConfigConstants.CLAIMS_CHECK_CONTAINER_CACHE_HIT_TOTAL));
+        Assertions.assertEquals(roundTrips + 1, count(ConfigConstants.CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL));
+    }
+
+    @Test
+    void testContainerVerifiedAgainAfterRevalidateInterval() throws Exception {
+        double roundTrips = count(ConfigConstants.CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL);
+
+        fileService.uploadFile("expiring", "first", null, out -> out.write(1));
+        Thread.sleep(2100);
+        fileService.uploadFile("expiring", "second", null, out -> out.write(2));
+
+        Assertions.assertEquals(2, blobEndpoint.count("GET /expiring"));
+        Assertions.assertEquals(roundTrips + 2, count(ConfigConstants.CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL));
+    }
+
+    @Test
+    void testMissingContainerCreatedToleratingConcurrentCreate() throws Exception {
+        blobEndpoint.fail("GET /racing", 404, "ContainerNotFound");
+        blobEndpoint.fail("PUT /racing", 409, "ContainerAlreadyExists");
+        blobEndpoint.fail("GET /racing-async", 404, "ContainerNotFound");
+        blobEndpoint.fail("PUT /racing-async", 409, "ContainerAlreadyExists");
+        double roundTrips = count(ConfigConstants.CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL);
+
+        fileService.uploadFile("racing", "payload", null, out -> out.write(1));
+        fileService.uploadFileAsync("racing-async", "payload", null, out -> out.write(1)).get();
+
+        Assertions.assertEquals(1, blobEndpoint.count("PUT /racing"));
+        Assertions.assertEquals(1, blobEndpoint.count("PUT /racing/payload.dat"));
+        Assertions.assertEquals(1, blobEndpoint.count("PUT /racing-async"));
+        Assertions.assertEquals(1, blobEndpoint.count("PUT /racing-async/payload.dat"));
+        Assertions.assertEquals(roundTrips + 4, count(ConfigConstants.CLAIMS_CHECK_CONTAINER_ROUND_TRIP_TOTAL));
+    }
+
+    @Test
+    void testUploadRetriedOnceWhenContainerDeleted() throws IOException {
+        fileService.uploadFile("deleted", "first", null, out -> out.write(1));
+        blobEndpoint.fail("PUT /deleted/second.dat", 404, "ContainerNotFound");
+
+        fileService.uploadFile("deleted", "second", null, out -> out.write(2));
+
+        Assertions.assertEquals(2, blobEndpoint.count("GET /deleted"));
+        Assertions.assertEquals(2, blobEndpoint.count("PUT /deleted/second.dat"));
+
+        blobEndpoint.fail("PUT /deleted/third.dat", 404, "ContainerNotFound");
+        blobEndpoint.fail("PUT /deleted/third.dat", 404, "ContainerNotFound");
+        Assertions.assertThrows(IOException.class, () -> fileService.uploadFile("deleted", "third", null,
+                out -> out.write(3)));
+        Assertions.assertEquals(2, blobEndpoint.count("PUT /deleted/third.dat"));
+    }
+
+    @Test
+    void testAsyncUploadRetriedOnceWhenContainerDeleted() throws Exception {
+        fileService.uploadFileAsync("deleted-async", "first", null, out -> out.write(1)).get();
+        blobEndpoint.fail("PUT /deleted-async/second.dat", 404, "ContainerNotFound");
+
+        fileService.uploadFileAsync("deleted-async", "second", null, out -> out.write(2)).get();
+
+        Assertions.assertEquals(2, blobEndpoint.count("GET /deleted-async"));
+        Assertions.assertEquals(2, blobEndpoint.count("PUT /deleted-async/second.dat"));
+
+        blobEndpoint.fail("PUT /deleted-async/third.dat", 404, "ContainerNotFound");
+        blobEndpoint.fail("PUT /deleted-async/third.dat", 404, "ContainerNotFound");
+        Assertions.assertThrows(ExecutionException.class, () -> fileService.uploadFileAsync("deleted-async", "third",
+                null, out -> out.write(3)).get());
+        Assertions.assertEquals(2, blobEndpoint.count("PUT /deleted-async/third.dat"));
+    }
+
+    private double count(String counter) {
+        return meterRegistry.counter(counter).count();
+    }
+
+    @Configuration
+    static class BlobEndpointConfig {
+
+        @Bean
+        FakeBlobEndpoint blobEndpoint() {
+            return new FakeBlobEndpoint();
+        }
+
+        @Bean
+        BlobServiceClientBuilder blobServiceClientBuilder(FakeBlobEndpoint blobEndpoint) {
+            return new BlobServiceClientBuilder().endpoint(ENDPOINT).httpClient(blobEndpoint)
+                    .credential(new StorageSharedKeyCredential("account",
+                            Base64.getEncoder().encodeToString("key".getBytes(StandardCharsets.UTF_8))));
+        }
+
+        @Bean
+        BlobServiceClient blobServiceClient(BlobServiceClientBuilder builder) {
+            return builder.buildClient();
+        }
+
+        @Bean
+        BlobServiceAsyncClient blobServiceAsyncClient(BlobServiceClientBuilder builder) {
+            return builder.buildAsyncClient();
+        }
+    }
+
+    /**
+     * Blob endpoint keeping the requests in memory. Every request succeeds unless a failure is queued for its method
+     * and path, e.g. "PUT /container/blob.dat".
+     */
+    static class FakeBlobEndpoint implements HttpClient {
+
+        private final List<HttpRequest> requests = new CopyOnWriteArrayList<>();
+
+        private final Map<HttpRequest, byte[]> bodies = new ConcurrentHashMap<>();
+
+        private final Map<String, ConcurrentLinkedQueue<String[]>> failures = new ConcurrentHashMap<>();
+
+        void reset() {
+            requests.clear();
+            bodies.clear();
+            failures.clear();
+        }
+
+        void fail(String request, int status, String errorCode) {
+            failures.computeIfAbsent(request, key -> new ConcurrentLinkedQueue<>())
+                    .add(new String[] { String.valueOf(status), errorCode });
+        }
+
+        List<String> requests() {
+            return requests.stream().map(FakeBlobEndpoint::key).collect(Collectors.toList());
+        }
+
+        long count(String request) {
+            return requests().stream().filter(request::equals).count();
+        }
+
+        byte[] body(String request) {
+            return bodies.get(last(request));
+        }
+
+        String header(String request, String name) {
+            return last(request).getHeaders().getValue(name);
+        }
+
+        private HttpRequest last(String request) {
+            HttpRequest last = null;
+            for (HttpRequest candidate : requests)
+                if (key(candidate).equals(request))
+                    last = candidate;
+            Assertions.assertNotNull(last, request);
+            return last;
+        }
+
+        @Override
+        public Mono<HttpResponse> send(HttpRequest request) {
+            Flux<ByteBuffer> body = Objects.isNull(request.getBody()) ? Flux.empty() : request.getBody();
+            return FluxUtil.collectBytesInByteBufferStream(body).defaultIfEmpty(new byte[0]).map(bytes -> {
+                requests.add(request);
+                bodies.put(request, bytes);
+                ConcurrentLinkedQueue<String[]> queued = failures.get(key(request));
+                String[] failure = Objects.isNull(queued) ? null : queued.poll();
+                if (Objects.nonNull(failure))
+                    return new Response(request, Integer.parseInt(failure[0]), failure[1]);
+                switch (request.getHttpMethod()) {
+                case PUT:
+                    return new Response(request, 201, null);
+                case DELETE:
+                    return new Response(request, 202, null);
+                default:
+                    return new Response(request, 200, null);
+                }
+            });
+        }
+
+        private static String key(HttpRequest request) {
+            return request.getHttpMethod() + " " + request.getUrl().getPath();
+        }
+    }
+
+    private static final class Response extends HttpResponse {
+
+        private final int status;
+
+        private final HttpHeaders headers = new HttpHeaders();
+
+        private Response(HttpRequest request, int status, String errorCode) {
+            super(request);
+            this.status = status;
+            if (Objects.nonNull(errorCode))
+                headers.set("x-ms-error-code", errorCode);
+            else
+                headers.set("x-ms-request-server-encrypted", "true");
+        }
+
+        @Override
+        public int getStatusCode() {
+            return status;
+        }
+
+        @Override
+        public String getHeaderValue(String name) {
+            return headers.getValue(name);
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public Flux<ByteBuffer> getBody() {
+            return Flux.empty();
+        }
+
+        @Override
+        public Mono<byte[]> getBodyAsByteArray() {
+            return Mono.just(new byte[0]);
+        }
+
+        @Override
+        public Mono<String> getBodyAsString() {
+            return Mono.just("");
+        }
+
+        @Override
+        public Mono<String> getBodyAsString(Charset charset) {
+            return Mono.just("");
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Stream;
+
+@SpringBootTest(classes = { LocalFileClaimsCheckStore.class, PublishExecutor.class }, properties = {
+        "claims-check.store=local", "claims-check.store.local.directory=target/claims-check-test",
+        "claims-check.store.local.memory-mapped=true", "claims-check.store.local.map-region-size=4096" })
+@ActiveProfiles({ "test" })
+public class LocalFileClaimsCheckStoreTest {
+
+    @MockBean
+    private MeterRegistry registry;
+
+    @Autowired
+    private ClaimsCheckStore claimsCheckStore;
+
+    @Test
+    void testPayloadSpanningMappedRegions() throws IOException {
+        byte[] payload = new byte[10000];
+        new Random(42).nextBytes(payload);
+        String location = claimsCheckStore.store("spanning", Collections.singletonMap("payloadformat", "java"),
+                out -> out.write(payload));
+        Path path = Paths.get(URI.create(location));
+        Assertions.assertArrayEquals(payload, Files.readAllBytes(path));
+        Properties metadata = new Properties();
+        try (InputStream in = Files.newInputStream(path.resolveSibling("spanning.properties"))) {
+            metadata.load(in);
+        }
+        Assertions.assertEquals("java", metadata.getProperty("payloadformat"));
+    }
+
+    @Test
+    void testFailedWriterLeavesNoFile() throws IOException {
+        Assertions.assertThrows(IOException.class, () -> claimsCheckStore.store("failed", null, out -> {
+            out.write(new byte[100]);
+            throw new IOException("writer failed");
+        }));
+        Assertions.assertFalse(Files.exists(Paths.get("target/claims-check-test/failed.dat")));
+        try (Stream<Path> files = Files.list(Paths.get("target/claims-check-test"))) {
+            Assertions.assertTrue(files.noneMatch(file -> file.getFileName().toString().startsWith("failed.")));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PayloadFluxTest {
+
+    private static final int CHUNK_SIZE = 4;
+
+    @Test
+    void testWriterBlocksUntilChunksAreRequested() {
+        AtomicInteger written = new AtomicInteger();
+        ClaimsCheckStore.PayloadWriter writer = out -> {
+            for (int i = 0; i < 10; i++) {
+                out.write(new byte[] { (byte) i, (byte) i, (byte) i, (byte) i });
+                written.incrementAndGet();
+            }
+        };
+
+        StepVerifier.create(PayloadFlux.of(writer, CHUNK_SIZE), 2)
+                .expectNextCount(2)
+                .thenAwait(Duration.ofMillis(200))
+                // two chunks emitted, the third one filled and waiting for demand
+                .then(() -> Assertions.assertEquals(3, written.get()))
+                .thenRequest(8)
+                .expectNextCount(8)
+                .verifyComplete();
+        Assertions.assertEquals(10, written.get());
+    }
+
+    @Test
+    void testRequestsPastIntegerRangeMakeDemandUnbounded() {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch requested = new CountDownLatch(1);
+        ClaimsCheckStore.PayloadWriter writer = out -> {
+            started.countDown();
+            // the requests reach the running writer and add up before it takes any of them
+            await(requested);
+            for (int i = 0; i < 10; i++)
+                out.write(new byte[CHUNK_SIZE]);
+        };
+
+        StepVerifier.create(PayloadFlux.of(writer, CHUNK_SIZE), 0)
+                .then(() -> await(started))
+                .thenRequest(Integer.MAX_VALUE)
+                .thenRequest(Integer.MAX_VALUE)
+                .thenRequest(Integer.MAX_VALUE)
+                .then(requested::countDown)
+                .expectNextCount(10)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void testCancelStopsWriter() throws InterruptedException {
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        ClaimsCheckStore.PayloadWriter writer = out -> {
+            try {
+                for (int i = 0; i < 10; i++)
+                    out.write(new byte[CHUNK_SIZE]);
+            } catch (IOException e) {
+                failure.set(e);
+                throw e;
+            } finally {
+                done.countDown();
+            }
+        };
+
+        StepVerifier.create(PayloadFlux.of(writer, CHUNK_SIZE), 1)
+                .expectNextCount(1)
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("Upload cancelled", failure.get().getMessage());
+    }
+
+    @Test
+    void testFailingWriterErrorsWithoutLastChunk() {
+        ClaimsCheckStore.PayloadWriter writer = out -> {
+            out.write(new byte[CHUNK_SIZE + 2]);
+            throw new IOException("writer failed");
+        };
+
+        StepVerifier.create(PayloadFlux.of(writer, CHUNK_SIZE))
+                .assertNext(chunk -> Assertions.assertEquals(CHUNK_SIZE, chunk.remaining()))
+                .expectErrorMessage("writer failed")
+                .verify(Duration.ofSeconds(5));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package net.apmoller.crb.ohm.microservices.producer.library.storage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.PublishSpool.SpooledRecord;
+import net.apmoller.ohm.adapter.avro.model.EventNotificationsAdapterModel;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+@SpringBootTest(classes = { PublishSpool.class, SimpleMeterRegistry.class }, properties = {
+        "kafka.producer.spool.enabled=true", "kafka.producer.spool.directory=target/publish-spool-test",
+        "kafka.producer.spool.segment-bytes=4096", "kafka.producer.spool.max-bytes=65536" })
+@ActiveProfiles({ "test" })
+public class PublishSpoolTest {
+
+    @Autowired
+    private PublishSpool publishSpool;
+
+    @Autowired
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void drainSpool() throws IOException {
+        List<SpooledRecord> records = publishSpool.read(Integer.MAX_VALUE);
+        if (!records.isEmpty())
+            publishSpool.commit(records.get(records.size() - 1));
+    }
+
+    @Test
+    void testAppendReadCommit() throws IOException {
+        ProducerRecord<String, String> producerRecord = new ProducerRecord<>("orders", 3, "order-1", "payload");
+        producerRecord.headers().add("X-DOCUMENT-CORRELATION-ID", "correlation-1".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertTrue(publishSpool.append(producerRecord));
+        Assertions.assertTrue(publishSpool.append(new ProducerRecord<>("orders", null, null)));
+        Assertions.assertTrue(publishSpool.append(new ProducerRecord<>("invoices", 42L)));
+        Assertions.assertEquals(3, publishSpool.pendingRecords());
+
+        List<SpooledRecord> records = publishSpool.read(10);
+        Assertions.assertEquals(3, records.size());
+        ProducerRecord<String, Object> spooled = records.get(0).getProducerRecord();
+        Assertions.assertEquals("orders", spooled.topic());
+        Assertions.assertEquals(3, spooled.partition());
+        Assertions.assertEquals("order-1", spooled.key());
+        Assertions.assertEquals("payload", spooled.value());
+        Assertions.assertEquals("correlation-1", new String(
+                spooled.headers().lastHeader("X-DOCUMENT-CORRELATION-ID").value(), StandardCharsets.UTF_8));
+        Assertions.assertNull(records.get(1).getProducerRecord().value());
+        Assertions.assertEquals(42L, records.get(2).getProducerRecord().value());
+
+        publishSpool.commit(records.get(1));
+        Assertions.assertEquals(1, publishSpool.pendingRecords());
+        List<SpooledRecord> remaining = publishSpool.read(10);
+        Assertions.assertEquals(1, remaining.size());
+        Assertions.assertEquals("invoices", remaining.get(0).getProducerRecord().topic());
+    }
+
+    @Test
+    void testRecordsSpanSegmentsInOrder() throws IOException {
+        String padding = "x".repeat(200);
+        for (int i = 0; i < 50; i++)
+            Assertions.assertTrue(publishSpool.append(new ProducerRecord<>("orders", "payload-" + i + "-" + padding)));
+        List<SpooledRecord> records = publishSpool.read(100);
+        Assertions.assertEquals(50, records.size());
+        for (int i = 0; i < 50; i++)
+            Assertions.assertEquals("payload-" + i + "-" + padding, records.get(i).getProducerRecord().value());
+        Assertions.assertTrue(records.get(49).getSegmentId() > records.get(0).getSegmentId());
+
+        publishSpool.commit(records.get(49));
+        Assertions.assertEquals(0, publishSpool.pendingRecords());
+        Assertions.assertEquals(0, publishSpool.pendingBytes());
+        try (Stream<Path> files = Files.list(Paths.get("target/publish-spool-test"))) {
+            Assertions.assertEquals(1,
+                    files.filter(file -> file.getFileName().toString().startsWith("segment-")).count());
+        }
+    }
+
+    @Test
+    void testFullSpoolRejectsRecords() throws IOException {
+        String payload = "x".repeat(1000);
+        int appended = 0;
+        while (publishSpool.append(new ProducerRecord<>("orders", payload)))
+            appended++;
+        Assertions.assertTrue(appended > 0 && appended < 66);
+        Assertions.assertEquals(1, registry.counter("kafka_producer_spool_rejected_total").count());
+    }
+
+    @Test
+    void testRecordsSurviveRestart() throws IOException {
+        publishSpool.append(new ProducerRecord<>("orders", "first"));
+        publishSpool.append(new ProducerRecord<>("orders", "second"));
+        publishSpool.commit(publishSpool.read(1).get(0));
+        publishSpool.force();
+
+        PublishSpool reopened = new PublishSpool();
+        ReflectionTestUtils.setField(reopened, "registry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(reopened, "enabled", true);
+        ReflectionTestUtils.setField(reopened, "directory", "target/publish-spool-test");
+        ReflectionTestUtils.setField(reopened, "segmentBytes", 4096);
+        reopened.init();
+        List<SpooledRecord> records = reopened.read(10);
+        Assertions.assertEquals(1, records.size());
+        Assertions.assertEquals("second", records.get(0).getProducerRecord().value());
+        Assertions.assertEquals(1, reopened.pendingRecords());
+        reopened.shutdown();
+    }
+
+    @Test
+    void testOnlyPayloadTypesAreReadBack() throws IOException {
+        EventNotificationsAdapterModel avro = EventNotificationsAdapterModel.newBuilder().setResponse("avro payload")
+                .setCorrelationId("DUMMYHEXID").setMessageType("xml").setMessageId("DUMMYMESSAGEID")
+                .setSourceSystem("docbroker").setResponseConsumers(Collections.singletonList("documentservice")).build();
+        publishSpool.append(new ProducerRecord<>("orders", avro));
+        publishSpool.append(new ProducerRecord<>("orders", new HashMap<>(Map.of("key", List.of(1L, 2L)))));
+        publishSpool.append(new ProducerRecord<>("orders", new UnlistedPayload()));
+
+        List<SpooledRecord> records = publishSpool.read(10);
+        Assertions.assertEquals(3, records.size());
+        Assertions.assertEquals(avro, records.get(0).getProducerRecord().value());
+        Assertions.assertEquals(Map.of("key", List.of(1L, 2L)), records.get(1).getProducerRecord().value());
+        Assertions.assertNull(records.get(2).getProducerRecord());
+    }
+
+    @Test
+    void testDirectoryCreatedForOwnerOnly() throws IOException {
+        Path directory = Paths.get("target/publish-spool-test");
+        Assumptions.assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Assertions.assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(directory));
+    }
+
+    @Test
+    void testForeignOwnedDirectoryRefused() throws IOException {
+        Path directory = Files.createDirectories(Paths.get("target/publish-spool-foreign"));
+        Assumptions.assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        // only a privileged user can hand the directory to someone else
+        Assumptions.assumeTrue(giveAway(directory, "nobody"));
+        PublishSpool foreign = new PublishSpool();
+        ReflectionTestUtils.setField(foreign, "registry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(foreign, "enabled", true);
+        ReflectionTestUtils.setField(foreign, "directory", directory.toString());
+        IOException ex = Assertions.assertThrows(IOException.class, foreign::init);
+        Assertions.assertTrue(ex.getMessage().contains("is owned by nobody"));
+    }
+
+    private static boolean giveAway(Path directory, String userName) {
+        try {
+            UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService()
+                    .lookupPrincipalByName(userName);
+            Files.setOwner(directory, user);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Serializable, but not a type the spool reads back.
+     */
+    static class UnlistedPayload implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+}
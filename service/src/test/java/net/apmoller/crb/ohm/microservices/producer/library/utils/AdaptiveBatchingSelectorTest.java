@@ -0,0 +1,77 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.util.AdaptiveBatchingSelector;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ProducerPool;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@SpringBootTest(classes = { AdaptiveBatchingSelector.class, PayloadSizeEstimator.class, ProducerPool.class,
+        SimpleMeterRegistry.class },
+        properties = { "kafka.producer.adaptive-batching.enabled=true", "kafka.producer.adaptive-batching.window-ms=50",
+                "kafka.producer.adaptive-batching.busy-rate=100", "kafka.producer.adaptive-batching.idle-rate=10",
+                "kafka.producer.adaptive-batching.large-record-bytes=1024" })
+@ActiveProfiles({ "test" })
+public class AdaptiveBatchingSelectorTest {
+
+    @Autowired
+    private AdaptiveBatchingSelector<String> selector;
+
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        properties.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        kafkaTemplate = new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(properties));
+    }
+
+    @Test
+    void testLargeRecordsUseLargeProfile() {
+        KafkaTemplate<String, String> small = selector.select(kafkaTemplate, new ProducerRecord<>("topic", "small"));
+        KafkaTemplate<String, String> large = selector.select(kafkaTemplate,
+                new ProducerRecord<>("topic", "x".repeat(2048)));
+        Assertions.assertNotSame(small, large);
+        Assertions.assertEquals(0, lingerOf(small));
+        Assertions.assertEquals(0, lingerOf(large));
+        Assertions.assertEquals(AdaptiveBatchingSelector.Profile.LATENCY,
+                selector.currentProfile(kafkaTemplate, "topic"));
+    }
+
+    @Test
+    void testBusyTopicMovesToThroughputAndBack() throws InterruptedException {
+        ProducerRecord<String, String> producerRecord = new ProducerRecord<>("busy", "payload");
+        long end = System.currentTimeMillis() + 200;
+        while (System.currentTimeMillis() < end)
+            selector.select(kafkaTemplate, producerRecord);
+        Assertions.assertEquals(AdaptiveBatchingSelector.Profile.THROUGHPUT,
+                selector.currentProfile(kafkaTemplate, "busy"));
+        Assertions.assertEquals(20, lingerOf(selector.select(kafkaTemplate, producerRecord)));
+        Thread.sleep(500);
+        KafkaTemplate<String, String> idle = selector.select(kafkaTemplate, producerRecord);
+        Assertions.assertEquals(AdaptiveBatchingSelector.Profile.LATENCY,
+                selector.currentProfile(kafkaTemplate, "busy"));
+        Assertions.assertEquals(0, lingerOf(idle));
+    }
+
+    private static int lingerOf(KafkaTemplate<String, String> kafkaTemplate) {
+        return ((Number) kafkaTemplate.getProducerFactory().getConfigurationProperties()
+                .get(ProducerConfig.LINGER_MS_CONFIG)).intValue();
+    }
+}
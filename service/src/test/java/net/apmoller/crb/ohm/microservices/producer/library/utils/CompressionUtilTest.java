@@ -1,14 +1,26 @@
 package net.apmoller.crb.ohm.microservices.producer.library.utils;
 
 import lombok.extern.slf4j.Slf4j;
+import net.apmoller.crb.ohm.microservices.producer.library.compression.ClaimsCheckFormat;
+import net.apmoller.crb.ohm.microservices.producer.library.compression.PayloadCodec;
 import net.apmoller.crb.ohm.microservices.producer.library.util.CompressionUtil;
+import net.apmoller.ohm.adapter.avro.model.EventNotificationsAdapterModel;
+import org.apache.avro.SchemaNormalization;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -50,6 +62,35 @@ public class CompressionUtilTest {
         compressionUtil.compressAndReturnB64(payload);
     }
 
+    @Test
+    void testStreamingGzipRoundTrip() throws IOException, ClassNotFoundException {
+        String payload = "test".repeat(100000);
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        compressionUtil.gzipCompress(payload, target);
+        try (ObjectInputStream in = new ObjectInputStream(
+                new GZIPInputStream(new ByteArrayInputStream(target.toByteArray())))) {
+            Assertions.assertEquals(payload, in.readObject());
+        }
+    }
+
+    @Test
+    void testAvroClaimsCheckFormatRoundTrip() throws IOException {
+        EventNotificationsAdapterModel payload = EventNotificationsAdapterModel.newBuilder().setResponse("test".repeat(1000))
+                .setCorrelationId("DUMMYHEXID").setMessageType("xml").setMessageId("DUMMYMESSAGEID")
+                .setSourceSystem("docbroker").setResponseConsumers(Collections.singletonList("documentservice")).build();
+        ClaimsCheckFormat format = ClaimsCheckFormat.forPayload(payload, true);
+        Assertions.assertEquals(ClaimsCheckFormat.AVRO, format);
+        Assertions.assertEquals(SchemaNormalization.parsingFingerprint64(EventNotificationsAdapterModel.getClassSchema()),
+                format.schemaFingerprint(payload));
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        compressionUtil.compress(payload, format, PayloadCodec.ZSTD, 3, target);
+        try (InputStream in = PayloadCodec.ZSTD.decompressingStream(new ByteArrayInputStream(target.toByteArray()))) {
+            EventNotificationsAdapterModel decoded = new SpecificDatumReader<>(EventNotificationsAdapterModel.class)
+                    .read(null, DecoderFactory.get().binaryDecoder(in, null));
+            Assertions.assertEquals(payload, decoded);
+        }
+    }
+
     @Test
     void testbyteArrayNull() throws IOException {
         byte[] payload = null;
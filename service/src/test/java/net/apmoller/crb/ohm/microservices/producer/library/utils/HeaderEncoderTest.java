@@ -0,0 +1,67 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.KafkaHeaderValidationException;
+import net.apmoller.crb.ohm.microservices.producer.library.util.HeaderEncoder;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest(classes = { HeaderEncoder.class })
+@ActiveProfiles({ "test" })
+public class HeaderEncoderTest {
+
+    @Autowired
+    private HeaderEncoder headerEncoder;
+
+    @Test
+    void testRepeatedHeaderValueIsEncodedOnce() {
+        Header header = headerEncoder.header("X-Source-System", "docbroker");
+        Assertions.assertArrayEquals("docbroker".getBytes(StandardCharsets.UTF_8), header.value());
+        Assertions.assertSame(header, headerEncoder.header("X-Source-System", new String("docbroker")));
+    }
+
+    @Test
+    void testCorrelationIdIsNotCached() {
+        Header header = headerEncoder.header(ConfigConstants.HEADER_CORRELATION_ID, "DUMMYHEXID");
+        Assertions.assertNotSame(header, headerEncoder.header(ConfigConstants.HEADER_CORRELATION_ID, "DUMMYHEXID"));
+    }
+
+    @Test
+    void testPreEncodedHeaderValue() {
+        byte[] value = "docbroker".getBytes(StandardCharsets.UTF_8);
+        Assertions.assertSame(value, headerEncoder.header("X-Source-System", value).value());
+    }
+
+    @Test
+    void testNullHeaderValue() {
+        Map<String, Object> kafkaHeader = new HashMap<>();
+        kafkaHeader.put("X-Source-System", null);
+        assertThrows(KafkaHeaderValidationException.class,
+                () -> headerEncoder.addHeaders(new RecordHeaders(), kafkaHeader));
+    }
+
+    @Test
+    void testTemplateAddsHeadersToEachRecord() {
+        Map<String, Object> kafkaHeader = new HashMap<>();
+        kafkaHeader.put("X-Source-System", "docbroker");
+        kafkaHeader.put("X-Message-Type", "xml");
+        HeaderEncoder.HeaderTemplate template = headerEncoder.template(kafkaHeader);
+        RecordHeaders first = new RecordHeaders();
+        RecordHeaders second = new RecordHeaders();
+        template.applyTo(first);
+        template.applyTo(second);
+        Assertions.assertEquals(first, second);
+        Assertions.assertSame(first.lastHeader("X-Message-Type"), second.lastHeader("X-Message-Type"));
+    }
+}
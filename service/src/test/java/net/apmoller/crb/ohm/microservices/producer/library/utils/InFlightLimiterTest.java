@@ -0,0 +1,81 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.claimscheck.request.ClaimsCheckRequestPayload;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.InFlightLimitExceededException;
+import net.apmoller.crb.ohm.microservices.producer.library.util.InFlightLimiter;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest(classes = { InFlightLimiter.class, PayloadSizeEstimator.class, SimpleMeterRegistry.class },
+        properties = { "kafka.producer.in-flight.enabled=true", "kafka.producer.in-flight.max-records=2",
+                "kafka.producer.in-flight.max-bytes=1000", "kafka.producer.in-flight.policy=spill",
+                "kafka.producer.in-flight.block-timeout-ms=300" })
+@ActiveProfiles({ "test" })
+public class InFlightLimiterTest {
+
+    @Autowired
+    private InFlightLimiter inFlightLimiter;
+
+    @Autowired
+    private SimpleMeterRegistry registry;
+
+    @Test
+    void testRecordLimitSpillsPayload() {
+        int first = inFlightLimiter.acquire(new ProducerRecord<>("orders", "first"));
+        int second = inFlightLimiter.acquire(new ProducerRecord<>("orders", "key", "second"));
+        Assertions.assertEquals(2, inFlightLimiter.inFlightRecords());
+        Assertions.assertEquals(first + second, inFlightLimiter.inFlightBytes());
+
+        double rejected = registry.counter("kafka_producer_in_flight_rejected_total", "policy", "spill").count();
+        InFlightLimitExceededException ex = Assertions.assertThrows(InFlightLimitExceededException.class,
+                () -> inFlightLimiter.acquire(new ProducerRecord<>("orders", "third")));
+        Assertions.assertTrue(MessagePublisherUtil.isSpilled(ex));
+        Assertions.assertEquals(rejected + 1,
+                registry.counter("kafka_producer_in_flight_rejected_total", "policy", "spill").count());
+
+        inFlightLimiter.release(first);
+        inFlightLimiter.release(inFlightLimiter.acquire(new ProducerRecord<>("orders", "third")));
+        inFlightLimiter.release(second);
+        Assertions.assertEquals(0, inFlightLimiter.inFlightRecords());
+        Assertions.assertEquals(0, inFlightLimiter.inFlightBytes());
+    }
+
+    @Test
+    void testRecordLargerThanByteLimitIsSentAlone() {
+        int size = inFlightLimiter.acquire(new ProducerRecord<>("orders", "x".repeat(5000)));
+        Assertions.assertEquals(1000, size);
+        Assertions.assertThrows(InFlightLimitExceededException.class,
+                () -> inFlightLimiter.acquire(new ProducerRecord<>("orders", "small")));
+        inFlightLimiter.release(size);
+        Assertions.assertEquals(0, inFlightLimiter.inFlightBytes());
+    }
+
+    @Test
+    void testReferenceRecordWaitsForPermits() throws Exception {
+        int first = inFlightLimiter.acquire(new ProducerRecord<>("orders", "first"));
+        int second = inFlightLimiter.acquire(new ProducerRecord<>("orders", "second"));
+        ProducerRecord<String, ClaimsCheckRequestPayload> reference = new ProducerRecord<>("claims-check",
+                ClaimsCheckRequestPayload.newBuilder().setClaimsCheckBlobUrl("memory://claims-check/payload")
+                        .setPayloadFormat("utf8").setPayloadCodec("none").setSchemaFingerprint(null).build());
+        try {
+            // a reference record can not be spilled, so it waits for permits
+            long startedAt = System.nanoTime();
+            InFlightLimitExceededException blocked = Assertions.assertThrows(InFlightLimitExceededException.class,
+                    () -> inFlightLimiter.acquire(reference));
+            Assertions.assertFalse(MessagePublisherUtil.isSpilled(blocked));
+            Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) >= 300);
+        } finally {
+            inFlightLimiter.release(first);
+            inFlightLimiter.release(second);
+        }
+    }
+}
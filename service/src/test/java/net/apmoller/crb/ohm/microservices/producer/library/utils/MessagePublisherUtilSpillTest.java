@@ -0,0 +1,91 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.services.ClaimsCheckServiceImpl;
+import net.apmoller.crb.ohm.microservices.producer.library.services.ConfigValidator;
+import net.apmoller.crb.ohm.microservices.producer.library.services.ProducerServiceImpl;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.PublishSpool;
+import net.apmoller.crb.ohm.microservices.producer.library.util.AdaptiveBatchingSelector;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ClassValueTemplateRouter;
+import net.apmoller.crb.ohm.microservices.producer.library.util.HeaderEncoder;
+import net.apmoller.crb.ohm.microservices.producer.library.util.InFlightLimiter;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ProducerPool;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ProducerProfiles;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
+import net.apmoller.crb.ohm.microservices.producer.library.util.TopicCircuitBreaker;
+import net.apmoller.crb.ohm.microservices.producer.library.util.TransactionalBatcher;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * In-flight limit with the spill policy, from the sync produceMessages through the real MessagePublisherUtil: a
+ * payload finding the limit reached is not sent but moved to claims check.
+ */
+@SpringBootTest(classes = { ProducerServiceImpl.class, MessagePublisherUtil.class, ClassValueTemplateRouter.class,
+        HeaderEncoder.class, PublishExecutor.class, AdaptiveBatchingSelector.class, PayloadSizeEstimator.class,
+        ProducerPool.class, ProducerProfiles.class, TransactionalBatcher.class, InFlightLimiter.class,
+        TopicCircuitBreaker.class, RetryBudget.class, PublishSpool.class, SimpleMeterRegistry.class }, properties = {
+                "kafka.notification.topic=test-topic", "kafka.producer.in-flight.enabled=true",
+                "kafka.producer.in-flight.max-records=1", "kafka.producer.in-flight.policy=spill" })
+@ActiveProfiles({ "test" })
+public class MessagePublisherUtilSpillTest<T> {
+
+    @MockBean
+    private KafkaTemplate<String, T> kafkaTemplate;
+
+    @MockBean
+    private ConfigValidator<T> configValidator;
+
+    @MockBean
+    private ClaimsCheckServiceImpl<T> claimsCheckService;
+
+    @Autowired
+    private ProducerServiceImpl<T> producerService;
+
+    @Autowired
+    private InFlightLimiter inFlightLimiter;
+
+    private final Map<String, Object> kafkaHeader = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        kafkaHeader.put("X-DOCBROKER-Correlation-ID", "DUMMYHEXID");
+    }
+
+    @Test
+    void testPayloadOverLimitSpillsToClaimsCheck() {
+        SettableListenableFuture<SendResult<String, T>> firstSend = new SettableListenableFuture<>();
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(firstSend);
+
+        producerService.produceMessages((T) "first", kafkaHeader);
+        Assertions.assertEquals(1, inFlightLimiter.inFlightRecords());
+
+        producerService.produceMessages((T) "second", kafkaHeader);
+        verify(kafkaTemplate, times(1)).send(any(ProducerRecord.class));
+        verify(claimsCheckService).handleClaimsCheckAfterGettingMemoryIssue(eq(kafkaHeader), anyMap(), eq((T) "second"));
+        verify(claimsCheckService, never()).handleClaimsCheckAfterGettingMemoryIssue(any(), anyMap(), eq((T) "first"));
+
+        firstSend.set(null);
+        Assertions.assertEquals(0, inFlightLimiter.inFlightRecords());
+    }
+}
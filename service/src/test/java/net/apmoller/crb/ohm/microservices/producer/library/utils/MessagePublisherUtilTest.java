@@ -1,11 +1,25 @@
 package net.apmoller.crb.ohm.microservices.producer.library.utils;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.KafkaHeaderValidationException;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.KafkaServerNotFoundException;
 import net.apmoller.crb.ohm.microservices.producer.library.exceptions.TopicNameValidationException;
 import net.apmoller.crb.ohm.microservices.producer.library.services.ConfigValidator;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.PublishSpool;
+import net.apmoller.crb.ohm.microservices.producer.library.util.AdaptiveBatchingSelector;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ClassValueTemplateRouter;
+import net.apmoller.crb.ohm.microservices.producer.library.util.HeaderEncoder;
+import net.apmoller.crb.ohm.microservices.producer.library.util.InFlightLimiter;
 import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PayloadSizeEstimator;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ProducerPool;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ProducerProfiles;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
+import net.apmoller.crb.ohm.microservices.producer.library.util.TemplateRouter;
+import net.apmoller.crb.ohm.microservices.producer.library.util.TopicCircuitBreaker;
+import net.apmoller.crb.ohm.microservices.producer.library.util.TransactionalBatcher;
 import org.apache.avro.Schema;
 import org.apache.avro.reflect.ReflectData;
 import org.apache.kafka.clients.producer.ProducerRecord;
@@ -29,6 +43,7 @@ import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.transaction.TransactionTimedOutException;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
@@ -37,6 +52,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.Assert.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -44,7 +61,10 @@ import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(SpringExtension.class)
-@SpringBootTest(classes = { MessagePublisherUtil.class })
+@SpringBootTest(classes = { MessagePublisherUtil.class, ClassValueTemplateRouter.class, HeaderEncoder.class,
+        PublishExecutor.class, AdaptiveBatchingSelector.class, PayloadSizeEstimator.class, ProducerPool.class,
+        ProducerProfiles.class, TransactionalBatcher.class, InFlightLimiter.class, TopicCircuitBreaker.class,
+        RetryBudget.class, PublishSpool.class })
 @ActiveProfiles({ "test" })
 public class MessagePublisherUtilTest<T> {
 
@@ -54,6 +74,9 @@ public class MessagePublisherUtilTest<T> {
     @MockBean
     private ConfigValidator<T> configValidator;
 
+    @MockBean
+    private MeterRegistry registry;
+
     @Mock
     SendResult<String, Object> sendResult;
 
@@ -63,6 +86,9 @@ public class MessagePublisherUtilTest<T> {
     @Autowired
     private MessagePublisherUtil<T> messagePublisherUtil;
 
+    @Autowired
+    private TemplateRouter<T> templateRouter;
+
     @MockBean
     private ApplicationContext context;
 
@@ -121,6 +147,78 @@ public class MessagePublisherUtilTest<T> {
         verify(kafkaTemplate, times(1)).send(any(ProducerRecord.class));
     }
 
+    @Test
+    void testSuccessfulPublishOnTopicAsync() {
+        long offset = 1L;
+        int partition = 2;
+        String producerTopic = "test";
+        ProducerRecord<String, T> producerRecord = new ProducerRecord<>(producerTopic, (T) "payload");
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(responseFuture);
+        RecordMetadata recordMetadata = new RecordMetadata(new TopicPartition(producerTopic, partition), offset, 0L, 0L,
+                0L, 0, 0);
+        given(sendResult.getRecordMetadata()).willReturn(recordMetadata);
+        doAnswer(invocationOnMock -> {
+            ListenableFutureCallback listenableFutureCallback = invocationOnMock.getArgument(0);
+            listenableFutureCallback.onSuccess(sendResult);
+            return null;
+        }).when(responseFuture).addCallback(any(ListenableFutureCallback.class));
+        CompletableFuture<?> future = messagePublisherUtil.publishOnTopicAsync(producerRecord, kafkaHeader);
+        assertEquals(sendResult, future.join());
+        verify(kafkaTemplate, times(1)).send(any(ProducerRecord.class));
+    }
+
+    @Test
+    void testFailureOnPublishToTopicAsync() {
+        String producerTopic = "test";
+        ProducerRecord<String, T> producerRecord = new ProducerRecord<>(producerTopic, (T) "payload");
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(responseFuture);
+        doAnswer(invocationOnMock -> {
+            ListenableFutureCallback listenableFutureCallback = invocationOnMock.getArgument(0);
+            listenableFutureCallback.onFailure(new KafkaException(new RecordTooLargeException("record too large")));
+            return null;
+        }).when(responseFuture).addCallback(any(ListenableFutureCallback.class));
+        CompletableFuture<?> future = messagePublisherUtil.publishOnTopicAsync(producerRecord, kafkaHeader);
+        CompletionException ex = assertThrows(CompletionException.class, future::join);
+        assertTrue(MessagePublisherUtil.isRecordTooLarge(ex));
+    }
+
+    @Test
+    void testRetryAsyncWhenTimeoutException() {
+        when(kafkaTemplate.send(any(ProducerRecord.class))).thenReturn(responseFuture);
+        doAnswer(invocationOnMock -> {
+            ListenableFutureCallback listenableFutureCallback = invocationOnMock.getArgument(0);
+            listenableFutureCallback.onFailure(new KafkaException(timeoutException));
+            return null;
+        }).when(responseFuture).addCallback(any(ListenableFutureCallback.class));
+        CompletableFuture<?> future = messagePublisherUtil.publishWithRetryAsync("test", (T) "payload", kafkaHeader);
+        assertThrows(CompletionException.class, future::join);
+        verify(kafkaTemplate, times(3)).send(any(ProducerRecord.class));
+    }
+
+    @Test
+    void testBackoffJitterStaysWithinBounds() {
+        long backoffDelay = (long) ReflectionTestUtils.getField(messagePublisherUtil, "backoffDelay");
+        double backoffMultiplier = (double) ReflectionTestUtils.getField(messagePublisherUtil, "backoffMultiplier");
+        long backoffMaxDelay = (long) ReflectionTestUtils.getField(messagePublisherUtil, "backoffMaxDelay");
+        double backoffJitter = (double) ReflectionTestUtils.getField(messagePublisherUtil, "backoffJitter");
+        assertTrue(backoffJitter > 0 && backoffJitter <= 1);
+        for (int attempt = 1; attempt <= 5; attempt++) {
+            long delay = Math.min((long) (backoffDelay * Math.pow(backoffMultiplier, attempt - 1d)), backoffMaxDelay);
+            for (int i = 0; i < 1000; i++) {
+                long jittered = ReflectionTestUtils.invokeMethod(messagePublisherUtil, "backoffDelayFor", attempt);
+                assertTrue(jittered <= delay);
+                assertTrue(jittered >= (long) (delay * (1 - backoffJitter)));
+            }
+        }
+        try {
+            ReflectionTestUtils.setField(messagePublisherUtil, "backoffJitter", 0d);
+            long delay = ReflectionTestUtils.invokeMethod(messagePublisherUtil, "backoffDelayFor", 2);
+            assertEquals(Math.min((long) (backoffDelay * backoffMultiplier), backoffMaxDelay), delay);
+        } finally {
+            ReflectionTestUtils.setField(messagePublisherUtil, "backoffJitter", backoffJitter);
+        }
+    }
+
     @Test
     void testHeaderValidationExceptionWhenHeaderValueNull() {
         Map<String, String> topicMap = new HashMap<>();
@@ -350,6 +448,15 @@ public class MessagePublisherUtilTest<T> {
         Assertions.assertNotNull(kafkaTemplate);
     }
 
+    @Test
+    void testRegisteredTemplateOverridesSchemaRouting() {
+        KafkaTemplate<String, T> registeredTemplate = mock(KafkaTemplate.class);
+        ProducerRecord<String, T> producerRecord = new ProducerRecord<>("test", (T) Integer.valueOf(1));
+        Assertions.assertSame(kafkaTemplate, templateRouter.route(producerRecord));
+        templateRouter.register(Integer.class, registeredTemplate);
+        Assertions.assertSame(registeredTemplate, templateRouter.route(producerRecord));
+    }
+
     @Test
     void testKafkaHeaderValidationWhenEmptyMapPassed() {
         Map<String, Object> headerMap = new HashMap<>();
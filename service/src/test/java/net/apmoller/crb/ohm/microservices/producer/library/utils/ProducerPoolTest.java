@@ -0,0 +1,61 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.util.ProducerPool;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+@SpringBootTest(classes = { ProducerPool.class, SimpleMeterRegistry.class }, properties = {
+        "kafka.producer.pool.size=4" })
+@ActiveProfiles({ "test" })
+public class ProducerPoolTest {
+
+    @Autowired
+    private ProducerPool<String> producerPool;
+
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        kafkaTemplate = new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(properties));
+    }
+
+    @Test
+    void testSameKeyUsesSameProducer() {
+        KafkaTemplate<String, String> first = producerPool.select(kafkaTemplate,
+                new ProducerRecord<>("topic", "key-1", "first"));
+        KafkaTemplate<String, String> second = producerPool.select(kafkaTemplate,
+                new ProducerRecord<>("topic", "key-1", "second"));
+        Assertions.assertSame(first, second);
+        Assertions.assertNotSame(kafkaTemplate, first);
+    }
+
+    @Test
+    void testRecordsSpreadOverPool() {
+        Set<Object> clientIds = new HashSet<>();
+        for (int partition = 0; partition < 8; partition++) {
+            KafkaTemplate<String, String> pooled = producerPool.select(kafkaTemplate,
+                    new ProducerRecord<>("topic", partition, null, "payload"));
+            clientIds.add(pooled.getProducerFactory().getConfigurationProperties().get(ProducerConfig.CLIENT_ID_CONFIG));
+        }
+        Assertions.assertEquals(4, clientIds.size());
+    }
+}
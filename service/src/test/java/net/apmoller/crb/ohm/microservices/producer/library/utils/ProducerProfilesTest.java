@@ -0,0 +1,61 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import net.apmoller.crb.ohm.microservices.producer.library.util.ProducerProfiles;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@SpringBootTest(classes = { ProducerProfiles.class }, properties = {
+        "kafka.notification.dead-letter-topic=orders-dlt",
+        "kafka.producer.profiles.notifications.topics=orders,invoices",
+        "kafka.producer.profiles.notifications.properties.acks=1",
+        "kafka.producer.profiles.notifications.properties.compression.type=zstd",
+        "kafka.producer.profiles.dlt.topic-keys=dead-letter-topic",
+        "kafka.producer.profiles.dlt.properties.acks=all" })
+@ActiveProfiles({ "test" })
+public class ProducerProfilesTest {
+
+    @Autowired
+    private ProducerProfiles<String> producerProfiles;
+
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        properties.put(ProducerConfig.ACKS_CONFIG, "all");
+        kafkaTemplate = new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(properties));
+    }
+
+    @Test
+    void testTopicsUseTheirProfile() {
+        KafkaTemplate<String, String> orders = producerProfiles.select(kafkaTemplate,
+                new ProducerRecord<>("orders", "payload"));
+        Map<String, Object> configuration = orders.getProducerFactory().getConfigurationProperties();
+        Assertions.assertEquals("1", configuration.get(ProducerConfig.ACKS_CONFIG));
+        Assertions.assertEquals("zstd", configuration.get(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+        Assertions.assertSame(orders, producerProfiles.select(kafkaTemplate, new ProducerRecord<>("invoices", "payload")));
+        Assertions.assertEquals("dlt", producerProfiles.profileOf("orders-dlt"));
+    }
+
+    @Test
+    void testTopicWithoutProfileUsesRoutedTemplate() {
+        Assertions.assertSame(kafkaTemplate, producerProfiles.select(kafkaTemplate,
+                new ProducerRecord<>("payments", "payload")));
+        Assertions.assertNull(producerProfiles.profileOf("payments"));
+    }
+}
@@ -0,0 +1,45 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import net.apmoller.crb.ohm.microservices.producer.library.models.PublishContext;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishContextHolder;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.retry.backoff.NoBackOffPolicy;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.retry.support.RetryTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PublishContextHolderTest {
+
+    @Test
+    void testContextIsSharedByAttemptsAndRecovery() {
+        RetryTemplate retryTemplate = new RetryTemplate();
+        retryTemplate.setRetryPolicy(new SimpleRetryPolicy(3));
+        retryTemplate.setBackOffPolicy(new NoBackOffPolicy());
+        List<PublishContext> attempts = new ArrayList<>();
+
+        PublishContext recovered = retryTemplate.execute(retryContext -> {
+            attempts.add(PublishContextHolder.startAttempt("DUMMYHEXID", "test-topic"));
+            throw new TimeoutException("timeout");
+        }, retryContext -> PublishContextHolder.current("OTHERID", "other-topic"));
+
+        Assertions.assertEquals(3, attempts.size());
+        for (int i = 0; i < attempts.size(); i++) {
+            Assertions.assertEquals(i + 1, attempts.get(i).getAttempt());
+            Assertions.assertEquals("DUMMYHEXID", attempts.get(i).getCorrelationId());
+            Assertions.assertEquals(attempts.get(0).getStartedAt(), attempts.get(i).getStartedAt());
+        }
+        Assertions.assertEquals("DUMMYHEXID", recovered.getCorrelationId());
+        Assertions.assertEquals(3, recovered.getAttempt());
+    }
+
+    @Test
+    void testContextOutsideOfRetry() {
+        PublishContext publishContext = PublishContextHolder.startAttempt("DUMMYHEXID", "test-topic");
+        Assertions.assertEquals(1, publishContext.getAttempt());
+        Assertions.assertEquals("test-topic", PublishContextHolder.current("DUMMYHEXID", "test-topic").getTopic());
+    }
+}
@@ -0,0 +1,163 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest(classes = { PublishExecutor.class, SimpleMeterRegistry.class }, properties = {
+        "kafka.producer.executor.mode=bounded", "kafka.producer.executor.pool-size=1",
+        "kafka.producer.executor.queue-capacity=1" })
+@ActiveProfiles({ "test" })
+public class PublishExecutorTest {
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @Autowired
+    private PublishExecutor publishExecutor;
+
+    @Test
+    void testStageRunsOnPublishThread() throws ExecutionException, InterruptedException {
+        Assertions.assertTrue(publishExecutor.isOffloading());
+        String threadName = publishExecutor
+                .submit(() -> CompletableFuture.completedFuture(Thread.currentThread().getName())).get();
+        Assertions.assertTrue(threadName.startsWith("producer-library-publish-"));
+    }
+
+    @Test
+    void testFailingStageGivesFailedFuture() {
+        CompletableFuture<Object> future = publishExecutor.submit(() -> {
+            throw new IllegalStateException("stage failed");
+        });
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class, future::get);
+        Assertions.assertTrue(ex.getCause() instanceof IllegalStateException);
+    }
+
+    @Test
+    void testScheduledRetryRunsOnPublishThread() throws ExecutionException, InterruptedException {
+        long startedAt = System.nanoTime();
+        String threadName = publishExecutor.schedule(50).thenApply(ignored -> Thread.currentThread().getName()).get();
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) >= 50);
+        Assertions.assertTrue(threadName.startsWith("producer-library-publish-"));
+    }
+
+    @Test
+    void testGaugesReportQueuedAndActiveTasks() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> running = publishExecutor.submit(() -> block(started, release));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Object> queued = publishExecutor.submit(() -> CompletableFuture.completedFuture(null));
+
+        Assertions.assertEquals(1, gauge(ConfigConstants.PRODUCER_EXECUTOR_ACTIVE_TASKS));
+        Assertions.assertEquals(1, gauge(ConfigConstants.PRODUCER_EXECUTOR_QUEUE_DEPTH));
+
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        awaitIdle();
+        Assertions.assertEquals(0, gauge(ConfigConstants.PRODUCER_EXECUTOR_QUEUE_DEPTH));
+    }
+
+    @Test
+    void testRejectedStageGivesFailedFuture() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> running = publishExecutor.submit(() -> block(started, release));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Object> queued = publishExecutor.submit(() -> CompletableFuture.completedFuture(null));
+        try {
+            CompletableFuture<Object> rejected = publishExecutor.submit(() -> CompletableFuture.completedFuture(null));
+            ExecutionException ex = Assertions.assertThrows(ExecutionException.class, rejected::get);
+            Assertions.assertTrue(ex.getCause() instanceof RejectedExecutionException);
+            Assertions.assertEquals(1, gauge(ConfigConstants.PRODUCER_EXECUTOR_QUEUE_DEPTH));
+
+            // a chained stage the executor rejects runs on the overflow executor, never on the completing thread
+            String threadName = CompletableFuture.completedFuture(null)
+                    .thenApplyAsync(ignored -> Thread.currentThread().getName(), publishExecutor.executor())
+                    .get(5, TimeUnit.SECONDS);
+            Assertions.assertTrue(threadName.startsWith("producer-library-overflow-"));
+        } finally {
+            release.countDown();
+        }
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        awaitIdle();
+    }
+
+    @Test
+    void testScheduledRetryFailsWhenExecutorRejectsIt() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> running = publishExecutor.submit(() -> block(started, release));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Object> queued = publishExecutor.submit(() -> CompletableFuture.completedFuture(null));
+        try {
+            CompletableFuture<Void> retry = publishExecutor.schedule(10);
+            ExecutionException ex = Assertions.assertThrows(ExecutionException.class,
+                    () -> retry.get(5, TimeUnit.SECONDS));
+            Assertions.assertTrue(ex.getCause() instanceof RejectedExecutionException);
+            Assertions.assertEquals(0, gauge(ConfigConstants.PRODUCER_RETRY_SCHEDULED));
+        } finally {
+            release.countDown();
+        }
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        awaitIdle();
+    }
+
+    @Test
+    void testShutdownRunsScheduledRetriesBeforeStoppingExecutor() throws Exception {
+        PublishExecutor executor = new PublishExecutor();
+        ReflectionTestUtils.setField(executor, "registry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(executor, "configuredMode", "bounded");
+        ReflectionTestUtils.setField(executor, "poolSize", 1);
+        ReflectionTestUtils.setField(executor, "queueCapacity", 1);
+        ReflectionTestUtils.setField(executor, "configuredRetryMode", "scheduled");
+        executor.init();
+
+        CompletableFuture<String> retry = executor.schedule(200).thenApply(ignored -> Thread.currentThread().getName());
+        executor.shutdown();
+        Assertions.assertTrue(retry.get(5, TimeUnit.SECONDS).startsWith("producer-library-publish-"));
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class,
+                () -> executor.schedule(10).get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(ex.getCause() instanceof RejectedExecutionException);
+    }
+
+    private CompletableFuture<Object> block(CountDownLatch started, CountDownLatch release) {
+        started.countDown();
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private double gauge(String name) {
+        return registry.get(name).gauge().value();
+    }
+
+    /**
+     * The future of a stage completes before the task ends, so the active task gauge drops a moment later.
+     */
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (gauge(ConfigConstants.PRODUCER_EXECUTOR_ACTIVE_TASKS) > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assertions.assertEquals(0, gauge(ConfigConstants.PRODUCER_EXECUTOR_ACTIVE_TASKS));
+    }
+}
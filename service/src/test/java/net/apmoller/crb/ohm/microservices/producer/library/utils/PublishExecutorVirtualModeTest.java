@@ -0,0 +1,40 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.util.PublishExecutor;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+@SpringBootTest(classes = { PublishExecutor.class }, properties = { "kafka.producer.executor.mode=virtual" })
+@ActiveProfiles({ "test" })
+public class PublishExecutorVirtualModeTest {
+
+    @MockBean
+    private MeterRegistry registry;
+
+    @Autowired
+    private PublishExecutor publishExecutor;
+
+    @Test
+    void testVirtualModeFallsBackToBoundedWithoutVirtualThreads() {
+        PublishExecutor.Mode expected = Runtime.version().feature() >= 21 ? PublishExecutor.Mode.VIRTUAL
+                : PublishExecutor.Mode.BOUNDED;
+        Assertions.assertEquals(expected, publishExecutor.getMode());
+        Assertions.assertTrue(publishExecutor.isOffloading());
+        Assertions.assertTrue(publishExecutor.isSchedulingRetries());
+    }
+
+    @Test
+    void testStageRunsOffCallerThread() throws ExecutionException, InterruptedException {
+        Thread caller = Thread.currentThread();
+        Thread stageThread = publishExecutor.submit(() -> CompletableFuture.completedFuture(Thread.currentThread())).get();
+        Assertions.assertNotSame(caller, stageThread);
+    }
+}
@@ -0,0 +1,101 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.PublishSpool;
+import net.apmoller.crb.ohm.microservices.producer.library.storage.PublishSpool.SpooledRecord;
+import net.apmoller.crb.ohm.microservices.producer.library.util.MessagePublisherUtil;
+import net.apmoller.crb.ohm.microservices.producer.library.util.SpoolDrainer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest(classes = { SpoolDrainer.class, PublishSpool.class, SimpleMeterRegistry.class }, properties = {
+        "kafka.producer.spool.enabled=true", "kafka.producer.spool.directory=target/spool-drainer-test",
+        "kafka.producer.spool.segment-bytes=4096", "kafka.producer.spool.drain-interval-ms=3600000" })
+@ActiveProfiles({ "test" })
+public class SpoolDrainerTest {
+
+    @MockBean
+    private MessagePublisherUtil<Object> messagePublisherUtil;
+
+    @Autowired
+    private SpoolDrainer<Object> spoolDrainer;
+
+    @Autowired
+    private PublishSpool publishSpool;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private final Set<Object> failingValues = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        List<SpooledRecord> records = publishSpool.read(Integer.MAX_VALUE);
+        if (!records.isEmpty())
+            publishSpool.commit(records.get(records.size() - 1));
+        when(messagePublisherUtil.publishSpooledAsync(any())).thenAnswer(invocation -> {
+            ProducerRecord<String, Object> producerRecord = invocation.getArgument(0);
+            if (failingValues.contains(producerRecord.value()))
+                return CompletableFuture.failedFuture(new TimeoutException("cluster still down"));
+            return CompletableFuture.completedFuture(mock(SendResult.class));
+        });
+    }
+
+    @Test
+    void testDrainCommitsUpToFailedRecord() throws IOException {
+        publishSpool.append(new ProducerRecord<>("orders", "first"));
+        publishSpool.append(new ProducerRecord<>("orders", "second"));
+        publishSpool.append(new ProducerRecord<>("orders", "third"));
+        failingValues.add("second");
+
+        Assertions.assertEquals(1, spoolDrainer.drain());
+        Assertions.assertEquals(2, publishSpool.pendingRecords());
+        Assertions.assertEquals("second", publishSpool.read(1).get(0).getProducerRecord().value());
+
+        failingValues.clear();
+        Assertions.assertEquals(2, spoolDrainer.drain());
+        Assertions.assertEquals(0, publishSpool.pendingRecords());
+        // the record after the failed one was sent by both drains, spooled records are published at least once
+        verify(messagePublisherUtil, times(2)).publishSpooledAsync(argThat(record -> "third".equals(record.value())));
+    }
+
+    @Test
+    void testUnreadableRecordIsDropped() throws IOException {
+        double dropped = registry.counter(ConfigConstants.SPOOL_DROPPED_TOTAL).count();
+        publishSpool.append(new ProducerRecord<>("orders", "first"));
+        publishSpool.append(new ProducerRecord<>("orders", new UnlistedPayload()));
+        publishSpool.append(new ProducerRecord<>("orders", "third"));
+
+        Assertions.assertEquals(3, spoolDrainer.drain());
+        Assertions.assertEquals(0, publishSpool.pendingRecords());
+        Assertions.assertEquals(dropped + 1, registry.counter(ConfigConstants.SPOOL_DROPPED_TOTAL).count());
+        verify(messagePublisherUtil, times(2)).publishSpooledAsync(any());
+    }
+
+    /**
+     * Serializable, but not a type the spool reads back.
+     */
+    static class UnlistedPayload implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+}
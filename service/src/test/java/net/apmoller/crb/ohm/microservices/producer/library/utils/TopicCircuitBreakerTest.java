@@ -0,0 +1,81 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.exceptions.CircuitBreakerOpenException;
+import net.apmoller.crb.ohm.microservices.producer.library.util.RetryBudget;
+import net.apmoller.crb.ohm.microservices.producer.library.util.TopicCircuitBreaker;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+@SpringBootTest(classes = { TopicCircuitBreaker.class, RetryBudget.class, SimpleMeterRegistry.class }, properties = {
+        "kafka.producer.circuit-breaker.enabled=true", "kafka.producer.circuit-breaker.minimum-calls=4",
+        "kafka.producer.circuit-breaker.open-ms=100", "kafka.producer.circuit-breaker.half-open-calls=1",
+        "kafka.producer.retry-budget.enabled=true", "kafka.producer.retry-budget.capacity=2",
+        "kafka.producer.retry-budget.tokens-per-second=0.001" })
+@ActiveProfiles({ "test" })
+public class TopicCircuitBreakerTest {
+
+    @Autowired
+    private TopicCircuitBreaker topicCircuitBreaker;
+
+    @Autowired
+    private RetryBudget retryBudget;
+
+    @Test
+    void testBrokerFailuresOpenAndProbeClosesBreaker() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            topicCircuitBreaker.acquire("failing-topic");
+            topicCircuitBreaker.onResult("failing-topic", new TimeoutException("timed out"));
+        }
+        Assertions.assertEquals(TopicCircuitBreaker.State.OPEN, topicCircuitBreaker.stateOf("failing-topic"));
+        Assertions.assertThrows(CircuitBreakerOpenException.class, () -> topicCircuitBreaker.acquire("failing-topic"));
+        Thread.sleep(150);
+        topicCircuitBreaker.acquire("failing-topic");
+        Assertions.assertEquals(TopicCircuitBreaker.State.HALF_OPEN, topicCircuitBreaker.stateOf("failing-topic"));
+        Assertions.assertThrows(CircuitBreakerOpenException.class, () -> topicCircuitBreaker.acquire("failing-topic"));
+        topicCircuitBreaker.onResult("failing-topic", null);
+        Assertions.assertEquals(TopicCircuitBreaker.State.CLOSED, topicCircuitBreaker.stateOf("failing-topic"));
+    }
+
+    @Test
+    void testIgnoredProbeIsGivenBackAfterRejections() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            topicCircuitBreaker.acquire("probed-topic");
+            topicCircuitBreaker.onResult("probed-topic", new TimeoutException("timed out"));
+        }
+        Thread.sleep(150);
+        topicCircuitBreaker.acquire("probed-topic");
+        for (int i = 0; i < 3; i++)
+            Assertions.assertThrows(CircuitBreakerOpenException.class, () -> topicCircuitBreaker.acquire("probed-topic"));
+
+        // the probe failed for its own record, so another record may probe despite the rejections in between
+        topicCircuitBreaker.onResult("probed-topic", new RecordTooLargeException("too large"));
+        Assertions.assertEquals(TopicCircuitBreaker.State.HALF_OPEN, topicCircuitBreaker.stateOf("probed-topic"));
+        topicCircuitBreaker.acquire("probed-topic");
+        Assertions.assertThrows(CircuitBreakerOpenException.class, () -> topicCircuitBreaker.acquire("probed-topic"));
+        topicCircuitBreaker.onResult("probed-topic", null);
+        Assertions.assertEquals(TopicCircuitBreaker.State.CLOSED, topicCircuitBreaker.stateOf("probed-topic"));
+    }
+
+    @Test
+    void testRecordFailuresDoNotOpenBreaker() {
+        for (int i = 0; i < 8; i++) {
+            topicCircuitBreaker.acquire("large-records-topic");
+            topicCircuitBreaker.onResult("large-records-topic", new RecordTooLargeException("too large"));
+        }
+        Assertions.assertEquals(TopicCircuitBreaker.State.CLOSED, topicCircuitBreaker.stateOf("large-records-topic"));
+    }
+
+    @Test
+    void testRetryBudgetRunsOut() {
+        Assertions.assertTrue(retryBudget.tryAcquire());
+        Assertions.assertTrue(retryBudget.tryAcquire());
+        Assertions.assertFalse(retryBudget.tryAcquire());
+        Assertions.assertTrue(retryBudget.allowsRetry(3));
+    }
+}
@@ -0,0 +1,197 @@
+package net.apmoller.crb.ohm.microservices.producer.library.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import net.apmoller.crb.ohm.microservices.producer.library.constants.ConfigConstants;
+import net.apmoller.crb.ohm.microservices.producer.library.util.TransactionalBatcher;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+@SpringBootTest(classes = { TransactionalBatcher.class, SimpleMeterRegistry.class }, properties = {
+        "kafka.producer.transactions.enabled=true", "kafka.producer.transactions.batch-size=3",
+        "kafka.producer.transactions.max-wait-ms=5000" })
+@ActiveProfiles({ "test" })
+public class TransactionalBatcherTest {
+
+    @Autowired
+    private TransactionalBatcher<String> transactionalBatcher;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    private volatile String failingKey;
+
+    private volatile CountDownLatch sendGate = new CountDownLatch(0);
+
+    private final CountDownLatch sending = new CountDownLatch(1);
+
+    private MockProducer<String, String> producer;
+
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @BeforeEach
+    void setUp() {
+        producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer()) {
+            @Override
+            public Future<RecordMetadata> send(ProducerRecord<String, String> record, Callback callback) {
+                sending.countDown();
+                try {
+                    sendGate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (Objects.equals(failingKey, record.key()))
+                    throw new SerializationException("cannot serialize " + record.key());
+                return super.send(record, callback);
+            }
+
+            @Override
+            public void close(Duration timeout) {
+                // KafkaTemplate closes the producer after every transaction
+            }
+        };
+        producer.initTransactions();
+        kafkaTemplate = new KafkaTemplate<>(new ProducerFactory<String, String>() {
+            @Override
+            public Producer<String, String> createProducer() {
+                return producer;
+            }
+
+            @Override
+            public Producer<String, String> createProducer(String txIdPrefix) {
+                return producer;
+            }
+
+            @Override
+            public boolean transactionCapable() {
+                return true;
+            }
+        });
+    }
+
+    @Test
+    void testRecordsCommittedInOneTransaction() throws Exception {
+        List<ListenableFuture<SendResult<String, String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            futures.add(transactionalBatcher.send(kafkaTemplate, new ProducerRecord<>("topic", "key-" + i, "value")));
+        for (ListenableFuture<SendResult<String, String>> future : futures)
+            Assertions.assertNotNull(future.get(10, TimeUnit.SECONDS).getRecordMetadata());
+        Assertions.assertEquals(1, producer.commitCount());
+        Assertions.assertEquals(3, producer.history().size());
+    }
+
+    @Test
+    void testFailedSendFailsItsRecord() {
+        producer.sendException = new KafkaException("send failed");
+        List<ListenableFuture<SendResult<String, String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            futures.add(transactionalBatcher.send(kafkaTemplate, new ProducerRecord<>("topic", "key-" + i, "value")));
+        for (ListenableFuture<SendResult<String, String>> future : futures) {
+            ExecutionException ex = Assertions.assertThrows(ExecutionException.class,
+                    () -> future.get(10, TimeUnit.SECONDS));
+            Assertions.assertEquals("send failed", ex.getCause().getMessage());
+        }
+        Assertions.assertTrue(producer.history().isEmpty());
+    }
+
+    @Test
+    void testFailedSendAbortsAndOtherRecordsCommitInNextTransaction() throws Exception {
+        failingKey = "key-1";
+        double aborts = registry.counter(ConfigConstants.TRANSACTION_ABORT_TOTAL).count();
+        List<ListenableFuture<SendResult<String, String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            futures.add(transactionalBatcher.send(kafkaTemplate, new ProducerRecord<>("topic", "key-" + i, "value")));
+        Assertions.assertNotNull(futures.get(0).get(10, TimeUnit.SECONDS).getRecordMetadata());
+        Assertions.assertNotNull(futures.get(2).get(10, TimeUnit.SECONDS).getRecordMetadata());
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class,
+                () -> futures.get(1).get(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(ex.getCause() instanceof SerializationException);
+        Assertions.assertEquals(aborts + 1, registry.counter(ConfigConstants.TRANSACTION_ABORT_TOTAL).count());
+        Assertions.assertEquals(1, producer.commitCount());
+        Assertions.assertEquals(List.of("key-0", "key-2"),
+                producer.history().stream().map(ProducerRecord::key).collect(Collectors.toList()));
+    }
+
+    @Test
+    void testRecordRejectedWhenQueueFull() throws Exception {
+        TransactionalBatcher<String> batcher = newBatcher(1);
+        double rejections = registry.counter(ConfigConstants.TRANSACTION_REJECTED_TOTAL).count();
+        sendGate = new CountDownLatch(1);
+        try {
+            ListenableFuture<SendResult<String, String>> first = batcher.send(kafkaTemplate,
+                    new ProducerRecord<>("topic", "key-0", "value"));
+            Assertions.assertTrue(sending.await(10, TimeUnit.SECONDS));
+            ListenableFuture<SendResult<String, String>> queued = batcher.send(kafkaTemplate,
+                    new ProducerRecord<>("topic", "key-1", "value"));
+            ListenableFuture<SendResult<String, String>> rejected = batcher.send(kafkaTemplate,
+                    new ProducerRecord<>("topic", "key-2", "value"));
+
+            ExecutionException ex = Assertions.assertThrows(ExecutionException.class,
+                    () -> rejected.get(1, TimeUnit.SECONDS));
+            Assertions.assertTrue(ex.getCause().getMessage().contains("is full"));
+            Assertions.assertEquals(rejections + 1,
+                    registry.counter(ConfigConstants.TRANSACTION_REJECTED_TOTAL).count());
+            Assertions.assertFalse(queued.isDone());
+
+            sendGate.countDown();
+            Assertions.assertNotNull(first.get(10, TimeUnit.SECONDS).getRecordMetadata());
+            Assertions.assertNotNull(queued.get(10, TimeUnit.SECONDS).getRecordMetadata());
+        } finally {
+            sendGate.countDown();
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    void testShutdownCommitsQueuedRecordsAndRejectsNewOnes() throws Exception {
+        TransactionalBatcher<String> batcher = newBatcher(10);
+        List<ListenableFuture<SendResult<String, String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            futures.add(batcher.send(kafkaTemplate, new ProducerRecord<>("topic", "key-" + i, "value")));
+        batcher.shutdown();
+        for (ListenableFuture<SendResult<String, String>> future : futures)
+            Assertions.assertNotNull(future.get(1, TimeUnit.SECONDS).getRecordMetadata());
+        Assertions.assertEquals(3, producer.history().size());
+
+        ListenableFuture<SendResult<String, String>> late = batcher.send(kafkaTemplate,
+                new ProducerRecord<>("topic", "key-3", "value"));
+        ExecutionException ex = Assertions.assertThrows(ExecutionException.class, () -> late.get(1, TimeUnit.SECONDS));
+        Assertions.assertEquals("Transactional batcher is shut down", ex.getCause().getMessage());
+    }
+
+    private TransactionalBatcher<String> newBatcher(int queueCapacity) {
+        TransactionalBatcher<String> batcher = new TransactionalBatcher<>();
+        ReflectionTestUtils.setField(batcher, "registry", registry);
+        ReflectionTestUtils.setField(batcher, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(batcher, "batchSize", 1);
+        ReflectionTestUtils.setField(batcher, "maxWaitMs", 0L);
+        return batcher;
+    }
+}